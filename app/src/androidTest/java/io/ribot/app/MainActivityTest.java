@@ -56,6 +56,9 @@ public class MainActivityTest {
         doReturn(Observable.just(MockModelFabric.newRibotList(17)))
                 .when(component.getMockDataManager())
                 .getRibots();
+        doReturn(Observable.empty())
+                .when(component.getMockDataManager())
+                .syncRibots();
 
         doReturn(Observable.empty())
                 .when(component.getMockDataManager())
@@ -88,6 +91,9 @@ public class MainActivityTest {
         doReturn(Observable.just(ribotList))
                 .when(component.getMockDataManager())
                 .getRibots();
+        doReturn(Observable.empty())
+                .when(component.getMockDataManager())
+                .syncRibots();
 
         main.launchActivity(MAIN_ACTIVITY_INTENT);
 
@@ -103,6 +109,9 @@ public class MainActivityTest {
         doReturn(Observable.just(emptyList))
                 .when(component.getMockDataManager())
                 .getRibots();
+        doReturn(Observable.empty())
+                .when(component.getMockDataManager())
+                .syncRibots();
 
         main.launchActivity(MAIN_ACTIVITY_INTENT);
 
@@ -112,9 +121,12 @@ public class MainActivityTest {
 
     @Test
     public void displayRibotsInTeamGridFailure() {
-        doReturn(Observable.just(new RuntimeException()))
+        doReturn(Observable.just(new ArrayList<Ribot>()))
                 .when(component.getMockDataManager())
                 .getRibots();
+        doReturn(Observable.error(new RuntimeException()))
+                .when(component.getMockDataManager())
+                .syncRibots();
 
         main.launchActivity(MAIN_ACTIVITY_INTENT);
 
@@ -10,9 +10,11 @@ import javax.inject.Inject;
 
 import io.ribot.app.data.BusEvent;
 import io.ribot.app.data.DataManager;
+import io.ribot.app.data.remote.NetworkMetrics;
 import io.ribot.app.injection.component.ApplicationComponent;
 import io.ribot.app.injection.component.DaggerApplicationComponent;
 import io.ribot.app.injection.module.ApplicationModule;
+import io.ribot.app.service.BeaconsSyncService;
 import io.ribot.app.ui.signin.SignInActivity;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action1;
@@ -23,6 +25,7 @@ public class RibotApplication extends Application {
 
     @Inject Bus mEventBus;
     @Inject DataManager mDataManager;
+    @Inject NetworkMetrics mNetworkMetrics;
     ApplicationComponent mApplicationComponent;
 
     @Override
@@ -38,6 +41,15 @@ public class RibotApplication extends Application {
         mEventBus.register(this);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Dump the API metrics when the app goes to the background
+        if (BuildConfig.DEBUG && level == TRIM_MEMORY_UI_HIDDEN) {
+            Timber.d("API metrics:\n%s", mNetworkMetrics.dump());
+        }
+    }
+
     public static RibotApplication get(Context context) {
         return (RibotApplication) context.getApplicationContext();
     }
@@ -64,6 +76,11 @@ public class RibotApplication extends Application {
                 });
     }
 
+    @Subscribe
+    public void onOutboxPending(BusEvent.OutboxPending event) {
+        startService(BeaconsSyncService.getReplayOutboxIntent(this));
+    }
+
     private void startSignInActivity() {
         startActivity(SignInActivity.getStartIntent(
                 this, true, getString(R.string.authentication_message)));
@@ -6,5 +6,8 @@ public class BusEvent {
 
     public static class BeaconsSyncCompleted { }
 
+    // Writes are waiting in the outbox to be replayed.
+    public static class OutboxPending { }
+
     public static class UserSignedOut { }
 }
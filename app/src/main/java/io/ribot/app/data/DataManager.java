@@ -1,62 +1,110 @@
 package io.ribot.app.data;
 
 import android.accounts.Account;
+import android.support.annotation.Nullable;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import io.ribot.app.data.local.DatabaseHelper;
+import io.ribot.app.data.local.HistoryHelper;
+import io.ribot.app.data.local.OutboxHelper;
 import io.ribot.app.data.local.PreferencesHelper;
+import io.ribot.app.data.local.RegisteredBeaconIndex;
+import io.ribot.app.data.local.SessionHelper;
 import io.ribot.app.data.model.CheckIn;
 import io.ribot.app.data.model.CheckInRequest;
 import io.ribot.app.data.model.Encounter;
+import io.ribot.app.data.model.HistoryEntry;
+import io.ribot.app.data.model.OutboxEntry;
 import io.ribot.app.data.model.RegisteredBeacon;
 import io.ribot.app.data.model.Ribot;
 import io.ribot.app.data.model.Venue;
 import io.ribot.app.data.remote.GoogleAuthHelper;
+import io.ribot.app.data.remote.RegisteredBeaconJsonIterator;
+import io.ribot.app.data.remote.RetryPolicy;
 import io.ribot.app.data.remote.RibotService;
 import io.ribot.app.data.remote.RibotService.SignInRequest;
 import io.ribot.app.data.remote.RibotService.SignInResponse;
 import io.ribot.app.util.DateUtil;
 import io.ribot.app.util.EventPosterHelper;
+import io.ribot.app.util.SingleFlight;
+import okhttp3.Cache;
+import okhttp3.ResponseBody;
+import retrofit2.adapter.rxjava.HttpException;
 import rx.Observable;
+import rx.Subscriber;
 import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import timber.log.Timber;
 
 @Singleton
 public class DataManager {
 
+    public static final int OUTBOX_BATCH_SIZE = 20;
+
+    private static final String KEY_SYNC_RIBOTS = "syncRibots";
+    private static final String KEY_GET_VENUES = "getVenues";
+    private static final String KEY_SYNC_REGISTERED_BEACONS = "syncRegisteredBeacons";
+
     private final RibotService mRibotService;
     private final DatabaseHelper mDatabaseHelper;
     private final PreferencesHelper mPreferencesHelper;
+    private final SessionHelper mSessionHelper;
     private final EventPosterHelper mEventPoster;
     private final GoogleAuthHelper mGoogleAuthHelper;
+    private final HistoryHelper mHistoryHelper;
+    private final OutboxHelper mOutboxHelper;
+    private final Cache mHttpCache;
+    private final RetryPolicy mRetryPolicy;
+    private final SingleFlight mSingleFlight = new SingleFlight();
 
     @Inject
     public DataManager(RibotService ribotService,
                        DatabaseHelper databaseHelper,
                        PreferencesHelper preferencesHelper,
+                       SessionHelper sessionHelper,
                        EventPosterHelper eventPosterHelper,
-                       GoogleAuthHelper googleAuthHelper) {
+                       GoogleAuthHelper googleAuthHelper,
+                       HistoryHelper historyHelper,
+                       OutboxHelper outboxHelper,
+                       Cache httpCache,
+                       RetryPolicy retryPolicy) {
         mRibotService = ribotService;
         mDatabaseHelper = databaseHelper;
         mPreferencesHelper = preferencesHelper;
+        mSessionHelper = sessionHelper;
         mEventPoster = eventPosterHelper;
         mGoogleAuthHelper = googleAuthHelper;
+        mHistoryHelper = historyHelper;
+        mOutboxHelper = outboxHelper;
+        mHttpCache = httpCache;
+        mRetryPolicy = retryPolicy;
     }
 
     public PreferencesHelper getPreferencesHelper() {
         return mPreferencesHelper;
     }
 
+    public SessionHelper getSessionHelper() {
+        return mSessionHelper;
+    }
+
     /**
      * Sign in with a Google account.
      * 1. Retrieve an google auth code for the given account
      * 2. Sends code and account to API
-     * 3. If success, saves ribot profile and API access token in preferences
+     * 3. If success, starts the session and saves ribot profile in preferences
      */
     public Observable<Ribot> signIn(Account account) {
         return mGoogleAuthHelper.retrieveAuthTokenAsObservable(account)
@@ -69,27 +117,92 @@ public class DataManager {
                 .map(new Func1<SignInResponse, Ribot>() {
                     @Override
                     public Ribot call(SignInResponse signInResponse) {
-                        mPreferencesHelper.putAccessToken(signInResponse.accessToken);
+                        mSessionHelper.start(signInResponse.accessToken);
                         mPreferencesHelper.putSignedInRibot(signInResponse.ribot);
                         return signInResponse.ribot;
                     }
                 });
     }
 
+    /**
+     * Remove all the user data in constant time. The database file is deleted while the
+     * preferences and the HTTP cache are cleared on another thread. Clearing the preferences
+     * forgets the validators of the saved API responses, so the next sync saves the API data in
+     * the new database even if it hasn't changed.
+     */
     public Observable<Void> signOut() {
-        return mDatabaseHelper.clearTables()
-                .doOnCompleted(new Action0() {
+        return Observable.merge(
+                mDatabaseHelper.resetDatabase().subscribeOn(Schedulers.io()),
+                clearPreferencesAndCache().subscribeOn(Schedulers.io()))
+                .doOnSubscribe(new Action0() {
                     @Override
                     public void call() {
-                        mPreferencesHelper.clear();
-                        mEventPoster.postEventSafely(new BusEvent.UserSignedOut());
+                        mSessionHelper.end();
                     }
-                });
+                })
+                .doOnCompleted(postEventSafelyAction(new BusEvent.UserSignedOut()));
     }
 
+    private Observable<Void> clearPreferencesAndCache() {
+        return Observable.create(new Observable.OnSubscribe<Void>() {
+            @Override
+            public void call(Subscriber<? super Void> subscriber) {
+                mPreferencesHelper.clear();
+                try {
+                    mHttpCache.evictAll();
+                } catch (IOException e) {
+                    Timber.w(e, "Error clearing the HTTP cache");
+                }
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Returns the ribots saved in the database. It emits straight away and then again every time
+     * the saved ribots change, e.g. after syncRibots(). It never completes.
+     */
     public Observable<List<Ribot>> getRibots() {
-        String auth = RibotService.Util.buildAuthorization(mPreferencesHelper.getAccessToken());
-        return mRibotService.getRibots(auth, "latestCheckIn");
+        return mDatabaseHelper.getRibots();
+    }
+
+    /**
+     * Retrieve the ribots, with their latest check-in, from the API and save them in the
+     * database. Subscribers to getRibots() will receive the new ribots. Nothing is saved if the
+     * ribots haven't changed since the last sync. Concurrent syncs share the same request.
+     */
+    public Observable<Void> syncRibots() {
+        return mSingleFlight.share(KEY_SYNC_RIBOTS, new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return fetchAndSaveRibots();
+            }
+        });
+    }
+
+    private Observable<Void> fetchAndSaveRibots() {
+        return mRibotService.getRibots("latestCheckIn")
+                .onErrorResumeNext(DataManager.<List<Ribot>>emptyIfNotModified())
+                .concatMap(new Func1<List<Ribot>, Observable<Void>>() {
+                    @Override
+                    public Observable<Void> call(List<Ribot> ribots) {
+                        return mDatabaseHelper.setRibots(ribots)
+                                .doOnCompleted(markValidatorSavedAction(
+                                        RibotService.RESOURCE_RIBOTS));
+                    }
+                });
+    }
+
+    /**
+     * Syncs the ribots, venues and registered beacons at the same time, so the screens shown
+     * after signing in find them already saved. Every sync runs to the end even if another one
+     * fails, the error is forwarded once all of them have finished.
+     */
+    public Observable<Void> prefetch() {
+        return Observable.mergeDelayError(
+                syncRibots().subscribeOn(Schedulers.io()),
+                getVenues().ignoreElements().cast(Void.class).subscribeOn(Schedulers.io()),
+                syncRegisteredBeacons().subscribeOn(Schedulers.io()));
     }
 
     /**
@@ -97,15 +210,34 @@ public class DataManager {
      * 1. Return cached venues (empty list if none is cached)
      * 2. Return API venues (if different to cached ones)
      * 3. Save new venues from API in cache
+     * 4. If the API venues haven't changed since the last time, only the cached ones are returned
      * 5. If an error happens and cache is not empty, returns venues from cache.
+     * Concurrent subscribers share the same request.
      */
     public Observable<List<Venue>> getVenues() {
-        String auth = RibotService.Util.buildAuthorization(mPreferencesHelper.getAccessToken());
-        return mRibotService.getVenues(auth)
-                .doOnNext(new Action1<List<Venue>>() {
+        return mSingleFlight.share(KEY_GET_VENUES, new Func0<Observable<List<Venue>>>() {
+            @Override
+            public Observable<List<Venue>> call() {
+                return fetchAndSaveVenues();
+            }
+        });
+    }
+
+    private Observable<List<Venue>> fetchAndSaveVenues() {
+        return mRibotService.getVenues()
+                .onErrorResumeNext(DataManager.<List<Venue>>emptyIfNotModified())
+                .concatMap(new Func1<List<Venue>, Observable<List<Venue>>>() {
                     @Override
-                    public void call(List<Venue> venues) {
-                        mPreferencesHelper.putVenues(venues);
+                    public Observable<List<Venue>> call(final List<Venue> venues) {
+                        return mDatabaseHelper.setVenues(venues)
+                                .doOnCompleted(markValidatorSavedAction(
+                                        RibotService.RESOURCE_VENUES))
+                                .map(new Func1<Boolean, List<Venue>>() {
+                                    @Override
+                                    public List<Venue> call(Boolean changed) {
+                                        return venues;
+                                    }
+                                });
                     }
                 })
                 .onErrorResumeNext(new Func1<Throwable, Observable<? extends List<Venue>>>() {
@@ -114,13 +246,13 @@ public class DataManager {
                         return getVenuesRecoveryObservable(throwable);
                     }
                 })
-                .startWith(mPreferencesHelper.getVenuesAsObservable())
+                .startWith(mDatabaseHelper.getVenues())
                 .distinct();
     }
 
     // Returns venues from cache. If cache is empty, it forwards the error.
     private Observable<List<Venue>> getVenuesRecoveryObservable(Throwable error) {
-        return mPreferencesHelper.getVenuesAsObservable()
+        return mDatabaseHelper.getVenues()
                 .switchIfEmpty(Observable.<List<Venue>>error(error));
     }
 
@@ -128,14 +260,14 @@ public class DataManager {
      * Performs a manual check in, either at a venue or a location.
      * Use CheckInRequest.fromVenue() or CheckInRequest.fromLabel() to create the request.
      * If the the check-in is successful, it's saved as the latest check-in.
+     * The check-in is kept in the outbox until the API confirms it, see replayOutbox().
      */
     public Observable<CheckIn> checkIn(CheckInRequest checkInRequest) {
-        String auth = RibotService.Util.buildAuthorization(mPreferencesHelper.getAccessToken());
-        return mRibotService.checkIn(auth, checkInRequest)
-                .doOnNext(new Action1<CheckIn>() {
+        return sendThroughOutbox(OutboxEntry.forCheckIn(checkInRequest),
+                new Func1<OutboxEntry, Observable<CheckIn>>() {
                     @Override
-                    public void call(CheckIn checkIn) {
-                        mPreferencesHelper.putLatestCheckIn(checkIn);
+                    public Observable<CheckIn> call(OutboxEntry entry) {
+                        return sendCheckIn(entry);
                     }
                 });
     }
@@ -143,24 +275,14 @@ public class DataManager {
     /**
      * Marks a previous check-in as "checkedOut" and updates the value in preferences
      * if the check-in matches the latest check-in.
+     * The check-out is kept in the outbox until the API confirms it, see replayOutbox().
      */
-    public Observable<CheckIn> checkOut(final String checkInId) {
-        String auth = RibotService.Util.buildAuthorization(mPreferencesHelper.getAccessToken());
-        return mRibotService.updateCheckIn(auth, checkInId,
-                new RibotService.UpdateCheckInRequest(true))
-                .doOnNext(new Action1<CheckIn>() {
+    public Observable<CheckIn> checkOut(String checkInId) {
+        return sendThroughOutbox(OutboxEntry.forCheckOut(checkInId),
+                new Func1<OutboxEntry, Observable<CheckIn>>() {
                     @Override
-                    public void call(CheckIn checkInUpdated) {
-                        CheckIn latestCheckIn = mPreferencesHelper.getLatestCheckIn();
-                        if (latestCheckIn != null && latestCheckIn.id.equals(checkInUpdated.id)) {
-                            mPreferencesHelper.putLatestCheckIn(checkInUpdated);
-                        }
-                        String encounterCheckInId =
-                                mPreferencesHelper.getLatestEncounterCheckInId();
-                        if (encounterCheckInId != null &&
-                                encounterCheckInId.equals(checkInUpdated.id)) {
-                            mPreferencesHelper.clearLatestEncounter();
-                        }
+                    public Observable<CheckIn> call(OutboxEntry entry) {
+                        return sendCheckOut(entry);
                     }
                 });
     }
@@ -178,17 +300,27 @@ public class DataManager {
                 });
     }
 
+    /**
+     * Performs an encounter with the given beacon.
+     * The encounter is kept in the outbox until the API confirms it, see replayOutbox().
+     */
     public Observable<Encounter> performBeaconEncounter(String beaconId) {
-        String auth = RibotService.Util.buildAuthorization(mPreferencesHelper.getAccessToken());
-        return mRibotService.performBeaconEncounter(auth, beaconId)
-                .doOnNext(new Action1<Encounter>() {
+        return sendThroughOutbox(OutboxEntry.forEncounter(beaconId),
+                new Func1<OutboxEntry, Observable<Encounter>>() {
                     @Override
-                    public void call(Encounter encounter) {
-                        mPreferencesHelper.putLatestEncounter(encounter);
+                    public Observable<Encounter> call(OutboxEntry entry) {
+                        return sendEncounter(entry);
                     }
                 });
     }
 
+    /**
+     * Returns the index of the registered beacons, see DatabaseHelper.getRegisteredBeaconIndex().
+     */
+    public Observable<RegisteredBeaconIndex> getRegisteredBeaconIndex() {
+        return mDatabaseHelper.getRegisteredBeaconIndex();
+    }
+
     public Observable<Encounter> performBeaconEncounter(String uuid, int major, int minor) {
         Observable<RegisteredBeacon> errorObservable = Observable.error(
                 new BeaconNotRegisteredException(uuid, major, minor));
@@ -202,20 +334,114 @@ public class DataManager {
                 });
     }
 
+    /**
+     * Returns the local history of check-ins and encounters between two days, both included.
+     */
+    public Observable<List<HistoryEntry>> getHistory(Date fromDay, Date toDay) {
+        return mHistoryHelper.getHistory(fromDay, toDay);
+    }
+
+    /**
+     * Send the writes left in the outbox to the API, oldest first, in batches of
+     * OUTBOX_BATCH_SIZE. The entries sent in a batch are removed together once the batch ends.
+     * It stops with an error if the network fails again, the entries not sent are kept.
+     * Entries rejected by the API are dropped, as well as encounters from previous days because
+     * the API dates encounters when it receives them.
+     */
+    public Observable<Void> replayOutbox() {
+        return mOutboxHelper.getOldestEntries(OUTBOX_BATCH_SIZE)
+                .concatMap(new Func1<List<OutboxEntry>, Observable<Void>>() {
+                    @Override
+                    public Observable<Void> call(List<OutboxEntry> entries) {
+                        if (entries.isEmpty()) return Observable.empty();
+                        return replayOutboxBatch(entries);
+                    }
+                });
+    }
+
     public Observable<String> findRegisteredBeaconsUuids() {
         return mDatabaseHelper.findRegisteredBeaconsUuids();
     }
 
+    /**
+     * Sync the local registered beacons with the API. BeaconsSyncCompleted is only posted if
+     * the local beacons changed as a result of the sync. Concurrent syncs share the same request.
+     */
     public Observable<Void> syncRegisteredBeacons() {
-        String auth = RibotService.Util.buildAuthorization(mPreferencesHelper.getAccessToken());
-        return mRibotService.getRegisteredBeacons(auth)
-                .concatMap(new Func1<List<RegisteredBeacon>, Observable<Void>>() {
+        return mSingleFlight.share(KEY_SYNC_REGISTERED_BEACONS, new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return fetchAndSaveRegisteredBeacons();
+            }
+        });
+    }
+
+    private Observable<Void> fetchAndSaveRegisteredBeacons() {
+        return mRibotService.getRegisteredBeacons()
+                .onErrorResumeNext(DataManager.<ResponseBody>emptyIfNotModified())
+                .concatMap(new Func1<ResponseBody, Observable<Boolean>>() {
                     @Override
-                    public Observable<Void> call(List<RegisteredBeacon> beacons) {
-                        return mDatabaseHelper.setRegisteredBeacons(beacons);
+                    public Observable<Boolean> call(ResponseBody body) {
+                        return setRegisteredBeacons(body);
                     }
                 })
-                .doOnCompleted(postEventSafelyAction(new BusEvent.BeaconsSyncCompleted()));
+                .compose(mRetryPolicy.<Boolean>forRequest())
+                .concatMap(new Func1<Boolean, Observable<Void>>() {
+                    @Override
+                    public Observable<Void> call(Boolean beaconsChanged) {
+                        if (!beaconsChanged) return Observable.empty();
+                        return Observable.<Void>empty().doOnCompleted(
+                                postEventSafelyAction(new BusEvent.BeaconsSyncCompleted()));
+                    }
+                });
+    }
+
+    // Save the beacons while they are read from the response, closing it when done.
+    private Observable<Boolean> setRegisteredBeacons(final ResponseBody body) {
+        return Observable.using(new Func0<RegisteredBeaconJsonIterator>() {
+            @Override
+            public RegisteredBeaconJsonIterator call() {
+                return new RegisteredBeaconJsonIterator(body.charStream());
+            }
+        }, new Func1<RegisteredBeaconJsonIterator, Observable<Boolean>>() {
+            @Override
+            public Observable<Boolean> call(RegisteredBeaconJsonIterator beacons) {
+                return mDatabaseHelper.setRegisteredBeacons(beacons)
+                        .doOnCompleted(markValidatorSavedAction(
+                                RibotService.RESOURCE_REGISTERED_BEACONS));
+            }
+        }, new Action1<RegisteredBeaconJsonIterator>() {
+            @Override
+            public void call(RegisteredBeaconJsonIterator beacons) {
+                body.close();
+            }
+        });
+    }
+
+    // Record that the last response of the resource has been saved, so the next request can
+    // find it not modified, see NotModifiedInterceptor.
+    private Action0 markValidatorSavedAction(final String resource) {
+        return new Action0() {
+            @Override
+            public void call() {
+                mPreferencesHelper.markValidatorSaved(resource);
+            }
+        };
+    }
+
+    // Resume with an empty Observable if the API responded 304 Not Modified, see
+    // RibotService.NOT_MODIFIED_HEADER.
+    private static <T> Func1<Throwable, Observable<T>> emptyIfNotModified() {
+        return new Func1<Throwable, Observable<T>>() {
+            @Override
+            public Observable<T> call(Throwable error) {
+                if (error instanceof HttpException &&
+                        ((HttpException) error).code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    return Observable.empty();
+                }
+                return Observable.error(error);
+            }
+        };
     }
 
     //  Helper method to post events from doOnCompleted.
@@ -228,5 +454,194 @@ public class DataManager {
         };
     }
 
+    private Observable<Void> replayOutboxBatch(final List<OutboxEntry> entries) {
+        final List<ReplayedEntry> replayedEntries = new ArrayList<>();
+        return Observable.from(entries)
+                .concatMap(new Func1<OutboxEntry, Observable<ReplayedEntry>>() {
+                    @Override
+                    public Observable<ReplayedEntry> call(OutboxEntry entry) {
+                        return replayOutboxEntry(entry);
+                    }
+                })
+                .doOnNext(new Action1<ReplayedEntry>() {
+                    @Override
+                    public void call(ReplayedEntry replayedEntry) {
+                        replayedEntries.add(replayedEntry);
+                    }
+                })
+                .doOnTerminate(new Action0() {
+                    @Override
+                    public void call() {
+                        removeReplayedOutboxEntries(replayedEntries);
+                    }
+                })
+                .ignoreElements()
+                .cast(Void.class)
+                .concatWith(entries.size() == OUTBOX_BATCH_SIZE ?
+                        Observable.defer(new Func0<Observable<Void>>() {
+                            @Override
+                            public Observable<Void> call() {
+                                return replayOutbox();
+                            }
+                        }) : Observable.<Void>empty());
+    }
+
+    // Emits the entry once it doesn't need to be replayed again.
+    private Observable<ReplayedEntry> replayOutboxEntry(final OutboxEntry entry) {
+        Observable<?> request;
+        switch (entry.type) {
+            case CHECK_IN:
+                request = sendCheckIn(entry);
+                break;
+            case CHECK_OUT:
+                request = sendCheckOut(entry);
+                break;
+            case ENCOUNTER:
+                if (!DateUtil.isToday(entry.createdDate.getTime())) {
+                    Timber.i("Dropping encounter from %s", entry.createdDate);
+                    return Observable.just(new ReplayedEntry(entry, null));
+                }
+                request = sendEncounter(entry);
+                break;
+            default:
+                return Observable.just(new ReplayedEntry(entry, null));
+        }
+        return request
+                .cast(Object.class)
+                .lastOrDefault(null)
+                .map(new Func1<Object, ReplayedEntry>() {
+                    @Override
+                    public ReplayedEntry call(Object response) {
+                        return new ReplayedEntry(entry, response);
+                    }
+                })
+                .onErrorResumeNext(new Func1<Throwable, Observable<ReplayedEntry>>() {
+                    @Override
+                    public Observable<ReplayedEntry> call(Throwable error) {
+                        if (RetryPolicy.isRetryable(error)) return Observable.error(error);
+                        Timber.w(error, "Dropping outbox entry %s rejected by the API", entry.type);
+                        return Observable.just(new ReplayedEntry(entry, null));
+                    }
+                });
+    }
+
+    // Remove the replayed entries with a single statement and then record the confirmed ones.
+    private void removeReplayedOutboxEntries(List<ReplayedEntry> replayedEntries) {
+        List<Long> ids = new ArrayList<>(replayedEntries.size());
+        for (ReplayedEntry replayedEntry : replayedEntries) {
+            ids.add(replayedEntry.entry.id);
+        }
+        mOutboxHelper.removeEntries(ids);
+        for (ReplayedEntry replayedEntry : replayedEntries) {
+            if (replayedEntry.response != null) {
+                recordHistory(replayedEntry.entry, replayedEntry.response);
+            }
+        }
+    }
+
+    // Save the entry in the outbox and then send it, retrying with the RetryPolicy. The entry
+    // is removed once the API responds, unless the request still fails because of the network,
+    // in which case a replay is requested with BusEvent.OutboxPending.
+    private <T> Observable<T> sendThroughOutbox(OutboxEntry entry,
+                                                final Func1<OutboxEntry, Observable<T>> send) {
+        return mOutboxHelper.add(entry)
+                .concatMap(new Func1<OutboxEntry, Observable<T>>() {
+                    @Override
+                    public Observable<T> call(final OutboxEntry savedEntry) {
+                        return send.call(savedEntry)
+                                .compose(mRetryPolicy.<T>forRequest())
+                                .doOnNext(new Action1<T>() {
+                                    @Override
+                                    public void call(T response) {
+                                        removeOutboxEntry(savedEntry);
+                                        recordHistory(savedEntry, response);
+                                    }
+                                })
+                                .doOnError(new Action1<Throwable>() {
+                                    @Override
+                                    public void call(Throwable error) {
+                                        if (RetryPolicy.isRetryable(error)) {
+                                            mEventPoster.postEventSafely(
+                                                    new BusEvent.OutboxPending());
+                                        } else {
+                                            removeOutboxEntry(savedEntry);
+                                        }
+                                    }
+                                });
+                    }
+                });
+    }
+
+    private void removeOutboxEntry(OutboxEntry entry) {
+        mOutboxHelper.removeEntries(Collections.singletonList(entry.id));
+    }
+
+    // Record the API response to an outbox entry once the entry is removed. The history is keyed
+    // by the idempotency key of the entry, so an entry sent again by a replay that overlapped
+    // the live request, or replayed twice, is only recorded once.
+    private void recordHistory(OutboxEntry entry, Object response) {
+        switch (entry.type) {
+            case CHECK_IN:
+                mHistoryHelper.recordCheckIn(entry.idempotencyKey, (CheckIn) response);
+                break;
+            case CHECK_OUT:
+                mHistoryHelper.recordCheckOut(entry.idempotencyKey, (CheckIn) response);
+                break;
+            case ENCOUNTER:
+                mHistoryHelper.recordEncounter(entry.idempotencyKey, (Encounter) response);
+                break;
+        }
+    }
 
+    private Observable<CheckIn> sendCheckIn(OutboxEntry entry) {
+        return mRibotService.checkIn(entry.idempotencyKey, entry.checkInRequest)
+                .doOnNext(new Action1<CheckIn>() {
+                    @Override
+                    public void call(CheckIn checkIn) {
+                        mPreferencesHelper.putLatestCheckIn(checkIn);
+                    }
+                });
+    }
+
+    private Observable<CheckIn> sendCheckOut(OutboxEntry entry) {
+        return mRibotService.updateCheckIn(entry.idempotencyKey, entry.targetId,
+                new RibotService.UpdateCheckInRequest(true))
+                .doOnNext(new Action1<CheckIn>() {
+                    @Override
+                    public void call(CheckIn checkInUpdated) {
+                        CheckIn latestCheckIn = mPreferencesHelper.getLatestCheckIn();
+                        if (latestCheckIn != null && latestCheckIn.id.equals(checkInUpdated.id)) {
+                            mPreferencesHelper.putLatestCheckIn(checkInUpdated);
+                        }
+                        String encounterCheckInId =
+                                mPreferencesHelper.getLatestEncounterCheckInId();
+                        if (encounterCheckInId != null &&
+                                encounterCheckInId.equals(checkInUpdated.id)) {
+                            mPreferencesHelper.clearLatestEncounter();
+                        }
+                    }
+                });
+    }
+
+    private Observable<Encounter> sendEncounter(OutboxEntry entry) {
+        return mRibotService.performBeaconEncounter(entry.idempotencyKey, entry.targetId)
+                .doOnNext(new Action1<Encounter>() {
+                    @Override
+                    public void call(Encounter encounter) {
+                        mPreferencesHelper.putLatestEncounter(encounter);
+                    }
+                });
+    }
+
+    // An outbox entry that doesn't need to be replayed again, with the API response if the API
+    // confirmed it or null if it was dropped.
+    private static final class ReplayedEntry {
+        final OutboxEntry entry;
+        @Nullable final Object response;
+
+        ReplayedEntry(OutboxEntry entry, @Nullable Object response) {
+            this.entry = entry;
+            this.response = response;
+        }
+    }
 }
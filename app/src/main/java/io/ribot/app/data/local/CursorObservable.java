@@ -0,0 +1,42 @@
+package io.ribot.app.data.local;
+
+import android.database.Cursor;
+
+import java.util.concurrent.locks.Lock;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func0;
+
+public class CursorObservable {
+
+    /**
+     * Create an Observable that runs the query when subscribed and emits every row mapped
+     * with a mapper created from the given factory. Rows are read one by one and reading
+     * stops as soon as the subscriber unsubscribes. The cursor is always closed. The given lock,
+     * see DbOpenHelper.getReadLock(), is held from the query until the cursor is closed.
+     */
+    public static <T> Observable<T> create(final Lock lock, final Func0<Cursor> query,
+                                           final RowMapper.Factory<T> mapperFactory) {
+        return Observable.create(new Observable.OnSubscribe<T>() {
+            @Override
+            public void call(Subscriber<? super T> subscriber) {
+                lock.lock();
+                try {
+                    Cursor cursor = query.call();
+                    try {
+                        RowMapper<T> mapper = mapperFactory.create(cursor);
+                        while (!subscriber.isUnsubscribed() && cursor.moveToNext()) {
+                            subscriber.onNext(mapper.map(cursor));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (!subscriber.isUnsubscribed()) subscriber.onCompleted();
+            }
+        });
+    }
+}
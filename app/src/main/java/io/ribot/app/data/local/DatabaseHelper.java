@@ -1,27 +1,63 @@
 package io.ribot.app.data.local;
 
+import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import com.squareup.sqlbrite.BriteDatabase;
 import com.squareup.sqlbrite.SqlBrite;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.data.model.Ribot;
+import io.ribot.app.data.model.Venue;
 import rx.Observable;
 import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
 
+/**
+ * Every query and transaction holds the read lock of DbOpenHelper, so resetDatabase() never
+ * deletes the database under them.
+ */
 @Singleton
 public class DatabaseHelper {
 
+    private final DbOpenHelper mDbOpenHelper;
     private final BriteDatabase mDb;
+    private final Lock mReadLock;
+    private final Object mBeaconIndexLock = new Object();
+    // In-memory copy of the beacon table used to find beacons by uuid, major and minor.
+    // Null means it needs to be loaded from the table.
+    private volatile RegisteredBeaconIndex mBeaconIndex;
 
     @Inject
     public DatabaseHelper(DbOpenHelper dbOpenHelper) {
+        mDbOpenHelper = dbOpenHelper;
         mDb = SqlBrite.create().wrapDatabaseHelper(dbOpenHelper);
+        mReadLock = dbOpenHelper.getReadLock();
+        // Any write to the beacon table through mDb, e.g. clearTables(), invalidates the index
+        // so it never gets out of sync. Syncs write through the raw connection and rebuild it.
+        mDb.createQuery(Db.BeaconTable.TABLE_NAME, "SELECT 1")
+                .skip(1)
+                .subscribe(new Action1<SqlBrite.Query>() {
+                    @Override
+                    public void call(SqlBrite.Query query) {
+                        invalidateBeaconIndex();
+                    }
+                });
     }
 
     public BriteDatabase getBriteDb() {
@@ -29,83 +65,476 @@ public class DatabaseHelper {
     }
 
     /**
-     * Remove all the data from all the tables in the database.
+     * Lock to hold while using getBriteDb(), see DbOpenHelper.getReadLock().
+     */
+    public Lock getReadLock() {
+        return mReadLock;
+    }
+
+    /**
+     * Remove all the data from all the tables in the database, in a single transaction through
+     * BriteDatabase. It waits for any other write transaction to finish, e.g. a sync or a
+     * history write, and subscribers to table queries are notified of the reset.
      */
     public Observable<Void> clearTables() {
         return Observable.create(new Observable.OnSubscribe<Void>() {
             @Override
             public void call(Subscriber<? super Void> subscriber) {
-                BriteDatabase.Transaction transaction = mDb.newTransaction();
+                mReadLock.lock();
                 try {
-                    Cursor cursor = mDb.query("SELECT name FROM sqlite_master WHERE type='table'");
-                    while (cursor.moveToNext()) {
-                        mDb.delete(cursor.getString(cursor.getColumnIndex("name")), null);
+                    BriteDatabase.Transaction transaction = mDb.newTransaction();
+                    try {
+                        Cursor cursor = mDb.query("SELECT name FROM sqlite_master" +
+                                " WHERE type='table' AND name != 'android_metadata'");
+                        while (cursor.moveToNext()) {
+                            mDb.delete(cursor.getString(cursor.getColumnIndex("name")), null);
+                        }
+                        cursor.close();
+                        transaction.markSuccessful();
+                    } finally {
+                        transaction.end();
                     }
-                    cursor.close();
-                    transaction.markSuccessful();
-                    subscriber.onCompleted();
                 } finally {
-                    transaction.end();
+                    mReadLock.unlock();
                 }
+                subscriber.onCompleted();
             }
         });
     }
 
-    // Delete all beacons in table and add the new ones.
-    public Observable<Void> setRegisteredBeacons(final List<RegisteredBeacon> beacons) {
+    /**
+     * Remove all the data by deleting the database file, which takes the same time no matter
+     * how much data there is, unlike clearTables(). It waits for the queries and transactions
+     * in progress to finish and the database is created again the next time it's used.
+     * Subscribers to table queries are not notified, they are expected to be gone, e.g. after
+     * signing out.
+     */
+    public Observable<Void> resetDatabase() {
         return Observable.create(new Observable.OnSubscribe<Void>() {
             @Override
             public void call(Subscriber<? super Void> subscriber) {
-                BriteDatabase.Transaction transaction = mDb.newTransaction();
+                mDbOpenHelper.deleteDatabase();
+                // The table is gone so there won't be a change notification to invalidate it.
+                synchronized (mBeaconIndexLock) {
+                    mBeaconIndex = RegisteredBeaconIndex.EMPTY;
+                }
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Sync the beacon table with the given list of beacons. Only the delta is written: beacons
+     * not in the table are inserted, beacons whose uuid, major or minor changed are updated and
+     * beacons no longer present in the list are deleted.
+     * Emits true if the table was modified or false if it already matched the given beacons, in
+     * which case nothing is written.
+     */
+    public Observable<Boolean> setRegisteredBeacons(List<RegisteredBeacon> beacons) {
+        return setRegisteredBeacons(beacons.iterator());
+    }
+
+    /**
+     * Same as setRegisteredBeacons(List) but the beacons are consumed one by one from the
+     * iterator, within the sync transaction, and written to a temporary staging table. The delta
+     * is then worked out in SQL so memory use doesn't depend on the number of beacons.
+     * The iterator may return the same instance every time.
+     * All the writes go through the raw connection, so queries on the beacon table created with
+     * getBriteDb() are not notified. The only one is the beacon index, which is rebuilt
+     * explicitly once the transaction is committed.
+     */
+    public Observable<Boolean> setRegisteredBeacons(final Iterator<RegisteredBeacon> beacons) {
+        return Observable.create(new Observable.OnSubscribe<Boolean>() {
+            @Override
+            public void call(Subscriber<? super Boolean> subscriber) {
+                boolean changed;
+                mReadLock.lock();
                 try {
-                    mDb.delete(Db.BeaconTable.TABLE_NAME, null);
-                    for (RegisteredBeacon beacon : beacons) {
-                        mDb.insert(Db.BeaconTable.TABLE_NAME,
-                                Db.BeaconTable.toContentValues(beacon));
+                    BriteDatabase.Transaction transaction = mDb.newTransaction();
+                    try {
+                        // Same connection as mDb since it's used within the transaction.
+                        SQLiteDatabase db = mDbOpenHelper.getWritableDatabase();
+                        db.execSQL(Db.BeaconTable.CREATE_STAGING);
+                        try {
+                            changed = mergeStagedRegisteredBeacons(db, beacons);
+                        } finally {
+                            db.execSQL(Db.BeaconTable.DROP_STAGING);
+                        }
+                        transaction.markSuccessful();
+                    } finally {
+                        transaction.end();
                     }
-                    transaction.markSuccessful();
-                    subscriber.onCompleted();
+                    // Rebuild the index now the transaction is committed so the next lookup
+                    // doesn't have to load it.
+                    if (changed) rebuildBeaconIndex();
                 } finally {
-                    transaction.end();
+                    mReadLock.unlock();
                 }
+                subscriber.onNext(changed);
+                subscriber.onCompleted();
             }
         });
     }
 
+    /**
+     * Insert the given beacons, replacing any existing beacon with the same ID. All the rows
+     * are written with a single precompiled statement, which is a lot cheaper than inserting
+     * ContentValues one by one for large lists. Subscribers to the beacon table are notified
+     * only once, when all the beacons have been inserted.
+     */
+    public Observable<Void> insertRegisteredBeacons(final List<RegisteredBeacon> beacons) {
+        return Observable.create(new Observable.OnSubscribe<Void>() {
+            @Override
+            public void call(Subscriber<? super Void> subscriber) {
+                if (!beacons.isEmpty()) {
+                    mReadLock.lock();
+                    try {
+                        BriteDatabase.Transaction transaction = mDb.newTransaction();
+                        try {
+                            bulkInsertRegisteredBeacons(beacons);
+                            transaction.markSuccessful();
+                        } finally {
+                            transaction.end();
+                        }
+                    } finally {
+                        mReadLock.unlock();
+                    }
+                }
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Find a registered beacon by uuid, major and minor. This is a lookup in the in-memory
+     * beacon index, the table is only queried if the index hasn't been loaded yet.
+     */
     public Observable<RegisteredBeacon> findRegisteredBeacon(final String uuid, final int major,
                                                              final int minor) {
         return Observable.create(new Observable.OnSubscribe<RegisteredBeacon>() {
             @Override
             public void call(Subscriber<? super RegisteredBeacon> subscriber) {
-                Cursor cursor = mDb.query(
-                        "SELECT * FROM " + Db.BeaconTable.TABLE_NAME +
-                                " WHERE " + Db.BeaconTable.COLUMN_UUID + " = ? AND " +
-                                Db.BeaconTable.COLUMN_MAJOR + "= ? AND " +
-                                Db.BeaconTable.COLUMN_MINOR + "= ?",
-                        uuid, String.valueOf(major), String.valueOf(minor));
-                while (cursor.moveToNext()) {
-                    subscriber.onNext(Db.BeaconTable.parseCursor(cursor));
-                }
-                cursor.close();
+                RegisteredBeacon beacon = getBeaconIndex().find(uuid, major, minor);
+                if (beacon != null) subscriber.onNext(beacon);
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Emits the current beacon index, loading it from the table if needed. It's immutable, so
+     * it can be kept to look beacons up without allocating, but it doesn't change with the
+     * table: get it again after a sync.
+     */
+    public Observable<RegisteredBeaconIndex> getRegisteredBeaconIndex() {
+        return Observable.create(new Observable.OnSubscribe<RegisteredBeaconIndex>() {
+            @Override
+            public void call(Subscriber<? super RegisteredBeaconIndex> subscriber) {
+                subscriber.onNext(getBeaconIndex());
                 subscriber.onCompleted();
             }
         });
     }
 
     public Observable<String> findRegisteredBeaconsUuids() {
-        return Observable.create(new Observable.OnSubscribe<String>() {
+        return CursorObservable.create(mReadLock, new Func0<Cursor>() {
             @Override
-            public void call(Subscriber<? super String> subscriber) {
-                Cursor cursor = mDb.query("SELECT DISTINCT " + Db.BeaconTable.COLUMN_UUID +
-                                " FROM " + Db.BeaconTable.TABLE_NAME);
-                while (cursor.moveToNext()) {
-                    subscriber.onNext(cursor.getString(
-                            cursor.getColumnIndexOrThrow(Db.BeaconTable.COLUMN_UUID)));
+            public Cursor call() {
+                return mDb.query("SELECT DISTINCT " + Db.BeaconTable.COLUMN_UUID +
+                        " FROM " + Db.BeaconTable.TABLE_NAME);
+            }
+        }, RowMapper.stringColumn(Db.BeaconTable.COLUMN_UUID));
+    }
+
+    /**
+     * Sync the saved ribots and their latest check-ins with the given ones, writing only the
+     * ribots and check-ins that were added, changed or removed, so rows never disappear while
+     * the sync runs. Subscribers to getRibots() are notified once, when the transaction ends,
+     * and not at all if nothing changed.
+     */
+    public Observable<Void> setRibots(final List<Ribot> ribots) {
+        return Observable.create(new Observable.OnSubscribe<Void>() {
+            @Override
+            public void call(Subscriber<? super Void> subscriber) {
+                mReadLock.lock();
+                try {
+                    BriteDatabase.Transaction transaction = mDb.newTransaction();
+                    try {
+                        // Rows are compared as ContentValues so only the stored fields matter
+                        Map<String, ContentValues> existingRibots = new HashMap<>();
+                        Map<String, ContentValues> existingCheckIns = new HashMap<>();
+                        Cursor cursor = mDb.query(Db.RibotTable.SELECT_ALL_WITH_LATEST_CHECK_IN);
+                        try {
+                            RowMapper<Ribot> mapper = Db.RibotTable.MAPPER.create(cursor);
+                            while (cursor.moveToNext()) {
+                                Ribot ribot = mapper.map(cursor);
+                                String email = ribot.profile.email;
+                                existingRibots.put(email, Db.RibotTable.toContentValues(ribot));
+                                if (ribot.latestCheckIn != null) {
+                                    existingCheckIns.put(email, Db.CheckInTable.toContentValues(
+                                            email, ribot.latestCheckIn));
+                                }
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                        for (Ribot ribot : ribots) {
+                            String email = ribot.profile.email;
+                            ContentValues values = Db.RibotTable.toContentValues(ribot);
+                            ContentValues existingValues = existingRibots.remove(email);
+                            if (existingValues == null) {
+                                mDb.insert(Db.RibotTable.TABLE_NAME, values,
+                                        SQLiteDatabase.CONFLICT_REPLACE);
+                            } else if (!existingValues.equals(values)) {
+                                mDb.update(Db.RibotTable.TABLE_NAME, values,
+                                        Db.RibotTable.COLUMN_EMAIL + " = ?", email);
+                            }
+                            ContentValues checkInValues = ribot.latestCheckIn != null ?
+                                    Db.CheckInTable.toContentValues(email, ribot.latestCheckIn) :
+                                    null;
+                            ContentValues existingCheckInValues = existingCheckIns.remove(email);
+                            if (checkInValues == null ? existingCheckInValues == null :
+                                    checkInValues.equals(existingCheckInValues)) {
+                                continue;
+                            }
+                            // A ribot only has its latest check-in, so a new one replaces the old
+                            if (existingCheckInValues != null) {
+                                mDb.delete(Db.CheckInTable.TABLE_NAME,
+                                        Db.CheckInTable.COLUMN_RIBOT_EMAIL + " = ?", email);
+                            }
+                            if (checkInValues != null) {
+                                mDb.insert(Db.CheckInTable.TABLE_NAME, checkInValues,
+                                        SQLiteDatabase.CONFLICT_REPLACE);
+                            }
+                        }
+                        for (String email : existingRibots.keySet()) {
+                            if (existingCheckIns.containsKey(email)) {
+                                mDb.delete(Db.CheckInTable.TABLE_NAME,
+                                        Db.CheckInTable.COLUMN_RIBOT_EMAIL + " = ?", email);
+                            }
+                            mDb.delete(Db.RibotTable.TABLE_NAME,
+                                    Db.RibotTable.COLUMN_EMAIL + " = ?", email);
+                        }
+                        transaction.markSuccessful();
+                    } finally {
+                        transaction.end();
+                    }
+                } finally {
+                    mReadLock.unlock();
+                }
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Observable that emits the saved ribots, with their latest check-in, as soon as it's
+     * subscribed and then again every time the ribots change. It never completes.
+     */
+    public Observable<List<Ribot>> getRibots() {
+        return mDb.createQuery(
+                Arrays.asList(Db.RibotTable.TABLE_NAME, Db.CheckInTable.TABLE_NAME),
+                Db.RibotTable.SELECT_ALL_WITH_LATEST_CHECK_IN)
+                .map(new Func1<SqlBrite.Query, List<Ribot>>() {
+                    @Override
+                    public List<Ribot> call(SqlBrite.Query query) {
+                        List<Ribot> ribots = new ArrayList<>();
+                        mReadLock.lock();
+                        try {
+                            Cursor cursor = query.run();
+                            try {
+                                RowMapper<Ribot> mapper = Db.RibotTable.MAPPER.create(cursor);
+                                while (cursor.moveToNext()) {
+                                    ribots.add(mapper.map(cursor));
+                                }
+                            } finally {
+                                cursor.close();
+                            }
+                        } finally {
+                            mReadLock.unlock();
+                        }
+                        return ribots;
+                    }
+                })
+                .distinctUntilChanged();
+    }
+
+    /**
+     * Sync the venue table with the given list of venues, writing only the venues that were
+     * added, changed or removed. The order of the list is kept.
+     * Emits true if the table was modified or false if it already matched the given venues.
+     */
+    public Observable<Boolean> setVenues(final List<Venue> venues) {
+        return Observable.create(new Observable.OnSubscribe<Boolean>() {
+            @Override
+            public void call(Subscriber<? super Boolean> subscriber) {
+                boolean changed = false;
+                mReadLock.lock();
+                try {
+                    BriteDatabase.Transaction transaction = mDb.newTransaction();
+                    try {
+                        Map<String, Venue> existingVenues = new HashMap<>();
+                        Map<String, Integer> existingPositions = new HashMap<>();
+                        Cursor cursor = mDb.query("SELECT * FROM " + Db.VenueTable.TABLE_NAME);
+                        try {
+                            RowMapper<Venue> mapper = Db.VenueTable.MAPPER.create(cursor);
+                            int positionIndex =
+                                    cursor.getColumnIndexOrThrow(Db.VenueTable.COLUMN_POSITION);
+                            while (cursor.moveToNext()) {
+                                Venue venue = mapper.map(cursor);
+                                existingVenues.put(venue.id, venue);
+                                existingPositions.put(venue.id, cursor.getInt(positionIndex));
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                        for (int position = 0; position < venues.size(); position++) {
+                            Venue venue = venues.get(position);
+                            Venue existingVenue = existingVenues.remove(venue.id);
+                            if (existingVenue == null) {
+                                mDb.insert(Db.VenueTable.TABLE_NAME,
+                                        Db.VenueTable.toContentValues(venue, position),
+                                        SQLiteDatabase.CONFLICT_REPLACE);
+                                changed = true;
+                            } else if (!existingVenue.equals(venue) ||
+                                    existingPositions.get(venue.id) != position) {
+                                mDb.update(Db.VenueTable.TABLE_NAME,
+                                        Db.VenueTable.toContentValues(venue, position),
+                                        Db.VenueTable.COLUMN_ID + " = ?", venue.id);
+                                changed = true;
+                            }
+                        }
+                        for (String venueId : existingVenues.keySet()) {
+                            mDb.delete(Db.VenueTable.TABLE_NAME,
+                                    Db.VenueTable.COLUMN_ID + " = ?", venueId);
+                            changed = true;
+                        }
+                        transaction.markSuccessful();
+                    } finally {
+                        transaction.end();
+                    }
+                } finally {
+                    mReadLock.unlock();
                 }
-                cursor.close();
+                subscriber.onNext(changed);
                 subscriber.onCompleted();
             }
         });
     }
 
+    /**
+     * Emits the saved venues, in the same order they were saved, and completes.
+     * Nothing is emitted if there are no venues saved.
+     */
+    public Observable<List<Venue>> getVenues() {
+        return CursorObservable.create(mReadLock, new Func0<Cursor>() {
+            @Override
+            public Cursor call() {
+                return mDb.query(Db.VenueTable.SELECT_ALL);
+            }
+        }, Db.VenueTable.MAPPER)
+                .toList()
+                .filter(new Func1<List<Venue>, Boolean>() {
+                    @Override
+                    public Boolean call(List<Venue> venues) {
+                        return !venues.isEmpty();
+                    }
+                });
+    }
+
+    // Insert or replace the beacons reusing one compiled statement. Must be called within a
+    // BriteDatabase transaction.
+    private void bulkInsertRegisteredBeacons(List<RegisteredBeacon> beacons) {
+        int lastIndex = beacons.size() - 1;
+        // Same connection as mDb since it's used within the transaction.
+        SQLiteStatement statement = mDbOpenHelper.getWritableDatabase()
+                .compileStatement(Db.BeaconTable.INSERT_OR_REPLACE);
+        try {
+            for (int i = 0; i < lastIndex; i++) {
+                Db.BeaconTable.bindInsertStatement(statement, beacons.get(i));
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+        // The last beacon goes through BriteDatabase so it records the table change and
+        // sends a single notification when the transaction ends.
+        mDb.insert(Db.BeaconTable.TABLE_NAME,
+                Db.BeaconTable.toContentValues(beacons.get(lastIndex)),
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    // Write the beacons to the staging table and merge it into the beacon table. Must be
+    // called within a BriteDatabase transaction. Returns true if the beacon table changed.
+    private boolean mergeStagedRegisteredBeacons(SQLiteDatabase db,
+                                                 Iterator<RegisteredBeacon> beacons) {
+        SQLiteStatement insert = db.compileStatement(Db.BeaconTable.INSERT_OR_REPLACE_STAGING);
+        try {
+            while (beacons.hasNext()) {
+                Db.BeaconTable.bindInsertStatement(insert, beacons.next());
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+        int deleted = db.delete(Db.BeaconTable.TABLE_NAME, Db.BeaconTable.WHERE_NOT_STAGED, null);
+        db.execSQL(Db.BeaconTable.DELETE_UNCHANGED_STAGED);
+        SQLiteStatement count = db.compileStatement(Db.BeaconTable.COUNT_STAGED);
+        long staged;
+        try {
+            staged = count.simpleQueryForLong();
+        } finally {
+            count.close();
+        }
+        if (staged > 0) db.execSQL(Db.BeaconTable.INSERT_OR_REPLACE_FROM_STAGING);
+        return deleted > 0 || staged > 0;
+    }
+
+    // Load all the beacons currently in the table.
+    private List<RegisteredBeacon> getRegisteredBeacons() {
+        Cursor cursor = mDb.query("SELECT * FROM " + Db.BeaconTable.TABLE_NAME);
+        try {
+            List<RegisteredBeacon> beacons = new ArrayList<>(cursor.getCount());
+            RowMapper<RegisteredBeacon> mapper = Db.BeaconTable.MAPPER.create(cursor);
+            while (cursor.moveToNext()) {
+                beacons.add(mapper.map(cursor));
+            }
+            return beacons;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Return the current beacon index, loading it from the table if needed.
+    // The read lock is always taken before mBeaconIndexLock, resetDatabase() would deadlock with
+    // a sync otherwise.
+    private RegisteredBeaconIndex getBeaconIndex() {
+        RegisteredBeaconIndex index = mBeaconIndex;
+        if (index != null) return index;
+        mReadLock.lock();
+        try {
+            synchronized (mBeaconIndexLock) {
+                if (mBeaconIndex == null) {
+                    mBeaconIndex = new RegisteredBeaconIndex(getRegisteredBeacons());
+                }
+                return mBeaconIndex;
+            }
+        } finally {
+            mReadLock.unlock();
+        }
+    }
+
+    // Must be called holding the read lock.
+    private void rebuildBeaconIndex() {
+        synchronized (mBeaconIndexLock) {
+            mBeaconIndex = new RegisteredBeaconIndex(getRegisteredBeacons());
+        }
+    }
+
+    private void invalidateBeaconIndex() {
+        synchronized (mBeaconIndexLock) {
+            mBeaconIndex = null;
+        }
+    }
+
 }
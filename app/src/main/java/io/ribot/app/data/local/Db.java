@@ -3,8 +3,25 @@ package io.ribot.app.data.local;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.Nullable;
 
+import com.google.gson.Gson;
+
+import java.util.Date;
+
+import io.ribot.app.data.model.CheckIn;
+import io.ribot.app.data.model.CheckInRequest;
+import io.ribot.app.data.model.Encounter;
+import io.ribot.app.data.model.HistoryEntry;
+import io.ribot.app.data.model.OutboxEntry;
+import io.ribot.app.data.model.Name;
+import io.ribot.app.data.model.Profile;
 import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.data.model.Ribot;
+import io.ribot.app.data.model.Venue;
+import io.ribot.app.data.model.Zone;
+import io.ribot.app.util.DateUtil;
 
 public class Db {
 
@@ -26,6 +43,77 @@ public class Db {
                         COLUMN_MINOR + " INTEGER NOT NULL" +
                         " );";
 
+        // Beacons are looked up by uuid, major and minor and regions are built from the
+        // distinct uuids, so this index covers both queries.
+        public static final String CREATE_INDEX_UUID_MAJOR_MINOR =
+                "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_uuid_major_minor ON " +
+                        TABLE_NAME + " (" + COLUMN_UUID + ", " + COLUMN_MAJOR + ", " +
+                        COLUMN_MINOR + ");";
+
+        // Temporary table the beacons returned by the API are written to before being merged
+        // into the beacon table. It only exists within a sync transaction.
+        public static final String STAGING_TABLE_NAME = "beacon_staging";
+
+        public static final String CREATE_STAGING =
+                "CREATE TEMP TABLE IF NOT EXISTS " + STAGING_TABLE_NAME + " (" +
+                        COLUMN_ID + " TEXT PRIMARY KEY," +
+                        COLUMN_UUID + " TEXT NOT NULL," +
+                        COLUMN_MAJOR + " INTEGER NOT NULL," +
+                        COLUMN_MINOR + " INTEGER NOT NULL" +
+                        " );";
+
+        public static final String DROP_STAGING = "DROP TABLE IF EXISTS " + STAGING_TABLE_NAME;
+
+        public static final String INSERT_OR_REPLACE_STAGING =
+                "INSERT OR REPLACE INTO " + STAGING_TABLE_NAME + " (" +
+                        COLUMN_ID + ", " +
+                        COLUMN_UUID + ", " +
+                        COLUMN_MAJOR + ", " +
+                        COLUMN_MINOR +
+                        ") VALUES (?, ?, ?, ?);";
+
+        // Where clause matching the beacons that are not in the staging table.
+        public static final String WHERE_NOT_STAGED =
+                COLUMN_ID + " NOT IN (SELECT " + COLUMN_ID + " FROM " + STAGING_TABLE_NAME + ")";
+
+        // Leaves in the staging table only the beacons that are new or have changed.
+        public static final String DELETE_UNCHANGED_STAGED =
+                "DELETE FROM " + STAGING_TABLE_NAME + " WHERE EXISTS (SELECT 1 FROM " +
+                        TABLE_NAME + " b WHERE b." + COLUMN_ID + " = " +
+                        STAGING_TABLE_NAME + "." + COLUMN_ID +
+                        " AND b." + COLUMN_UUID + " = " + STAGING_TABLE_NAME + "." + COLUMN_UUID +
+                        " AND b." + COLUMN_MAJOR + " = " +
+                        STAGING_TABLE_NAME + "." + COLUMN_MAJOR +
+                        " AND b." + COLUMN_MINOR + " = " +
+                        STAGING_TABLE_NAME + "." + COLUMN_MINOR + ")";
+
+        public static final String COUNT_STAGED = "SELECT COUNT(*) FROM " + STAGING_TABLE_NAME;
+
+        public static final String INSERT_OR_REPLACE_FROM_STAGING =
+                "INSERT OR REPLACE INTO " + TABLE_NAME + " (" +
+                        COLUMN_ID + ", " + COLUMN_UUID + ", " + COLUMN_MAJOR + ", " +
+                        COLUMN_MINOR + ") SELECT " +
+                        COLUMN_ID + ", " + COLUMN_UUID + ", " + COLUMN_MAJOR + ", " +
+                        COLUMN_MINOR + " FROM " + STAGING_TABLE_NAME;
+
+        public static final String INSERT_OR_REPLACE =
+                "INSERT OR REPLACE INTO " + TABLE_NAME + " (" +
+                        COLUMN_ID + ", " +
+                        COLUMN_UUID + ", " +
+                        COLUMN_MAJOR + ", " +
+                        COLUMN_MINOR +
+                        ") VALUES (?, ?, ?, ?);";
+
+        // Bind the beacon values to a statement compiled from INSERT_OR_REPLACE or
+        // INSERT_OR_REPLACE_STAGING.
+        public static void bindInsertStatement(SQLiteStatement statement,
+                                               RegisteredBeacon beacon) {
+            statement.bindString(1, beacon.id);
+            statement.bindString(2, beacon.uuid);
+            statement.bindLong(3, beacon.major);
+            statement.bindLong(4, beacon.minor);
+        }
+
         public static ContentValues toContentValues(RegisteredBeacon beacon) {
             ContentValues values = new ContentValues();
             values.put(COLUMN_ID, beacon.id);
@@ -35,13 +123,571 @@ public class Db {
             return values;
         }
 
+        public static final RowMapper.Factory<RegisteredBeacon> MAPPER =
+                new RowMapper.Factory<RegisteredBeacon>() {
+                    @Override
+                    public RowMapper<RegisteredBeacon> create(Cursor cursor) {
+                        return new Mapper(cursor);
+                    }
+                };
+
         public static RegisteredBeacon parseCursor(Cursor cursor) {
-            RegisteredBeacon beacon = new RegisteredBeacon();
-            beacon.id = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ID));
-            beacon.uuid = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_UUID));
-            beacon.minor = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MINOR));
-            beacon.major = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MAJOR));
-            return beacon;
+            return MAPPER.create(cursor).map(cursor);
+        }
+
+        private static final class Mapper extends RowMapper<RegisteredBeacon> {
+            private final int mIdIndex;
+            private final int mUuidIndex;
+            private final int mMajorIndex;
+            private final int mMinorIndex;
+
+            Mapper(Cursor cursor) {
+                mIdIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+                mUuidIndex = cursor.getColumnIndexOrThrow(COLUMN_UUID);
+                mMajorIndex = cursor.getColumnIndexOrThrow(COLUMN_MAJOR);
+                mMinorIndex = cursor.getColumnIndexOrThrow(COLUMN_MINOR);
+            }
+
+            @Override
+            public RegisteredBeacon map(Cursor cursor, @Nullable RegisteredBeacon holder) {
+                RegisteredBeacon beacon = holder != null ? holder : new RegisteredBeacon();
+                beacon.id = cursor.getString(mIdIndex);
+                beacon.uuid = cursor.getString(mUuidIndex);
+                beacon.major = cursor.getInt(mMajorIndex);
+                beacon.minor = cursor.getInt(mMinorIndex);
+                return beacon;
+            }
+        }
+    }
+
+    public static final class RibotTable {
+        public static final String TABLE_NAME = "ribot";
+
+        // Ribots don't have an ID so they are identified by their email.
+        public static final String COLUMN_EMAIL = "email";
+        public static final String COLUMN_FIRST_NAME = "first_name";
+        public static final String COLUMN_LAST_NAME = "last_name";
+        public static final String COLUMN_HEX_COLOR = "hex_color";
+        public static final String COLUMN_AVATAR = "avatar";
+        public static final String COLUMN_DATE_OF_BIRTH = "date_of_birth";
+        public static final String COLUMN_BIO = "bio";
+
+        public static final String CREATE =
+                "CREATE TABLE " + TABLE_NAME + " (" +
+                        COLUMN_EMAIL + " TEXT PRIMARY KEY," +
+                        COLUMN_FIRST_NAME + " TEXT," +
+                        COLUMN_LAST_NAME + " TEXT," +
+                        COLUMN_HEX_COLOR + " TEXT," +
+                        COLUMN_AVATAR + " TEXT," +
+                        COLUMN_DATE_OF_BIRTH + " INTEGER," +
+                        COLUMN_BIO + " TEXT" +
+                        " );";
+
+        // All the ribots with their latest check-in, sorted the same way as Ribot.compareTo()
+        public static final String SELECT_ALL_WITH_LATEST_CHECK_IN =
+                "SELECT * FROM " + TABLE_NAME +
+                        " LEFT JOIN " + CheckInTable.TABLE_NAME + " ON " +
+                        TABLE_NAME + "." + COLUMN_EMAIL + " = " +
+                        CheckInTable.TABLE_NAME + "." + CheckInTable.COLUMN_RIBOT_EMAIL +
+                        " ORDER BY " + COLUMN_FIRST_NAME + " COLLATE NOCASE";
+
+        public static ContentValues toContentValues(Ribot ribot) {
+            Profile profile = ribot.profile;
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_EMAIL, profile.email);
+            values.put(COLUMN_FIRST_NAME, profile.name != null ? profile.name.first : null);
+            values.put(COLUMN_LAST_NAME, profile.name != null ? profile.name.last : null);
+            values.put(COLUMN_HEX_COLOR, profile.hexColor);
+            values.put(COLUMN_AVATAR, profile.avatar);
+            values.put(COLUMN_DATE_OF_BIRTH,
+                    profile.dateOfBirth != null ? profile.dateOfBirth.getTime() : null);
+            values.put(COLUMN_BIO, profile.bio);
+            return values;
+        }
+
+        /**
+         * Maps ribot rows. If the cursor also contains the check-in columns, as it's the case
+         * for SELECT_ALL_WITH_LATEST_CHECK_IN, the latest check-in is mapped as well.
+         */
+        public static final RowMapper.Factory<Ribot> MAPPER = new RowMapper.Factory<Ribot>() {
+            @Override
+            public RowMapper<Ribot> create(Cursor cursor) {
+                return new Mapper(cursor);
+            }
+        };
+
+        private static final class Mapper extends RowMapper<Ribot> {
+            private final int mEmailIndex;
+            private final int mFirstNameIndex;
+            private final int mLastNameIndex;
+            private final int mHexColorIndex;
+            private final int mAvatarIndex;
+            private final int mDateOfBirthIndex;
+            private final int mBioIndex;
+            private final int mCheckInIdIndex;
+            @Nullable private final RowMapper<CheckIn> mCheckInMapper;
+
+            Mapper(Cursor cursor) {
+                mEmailIndex = cursor.getColumnIndexOrThrow(COLUMN_EMAIL);
+                mFirstNameIndex = cursor.getColumnIndexOrThrow(COLUMN_FIRST_NAME);
+                mLastNameIndex = cursor.getColumnIndexOrThrow(COLUMN_LAST_NAME);
+                mHexColorIndex = cursor.getColumnIndexOrThrow(COLUMN_HEX_COLOR);
+                mAvatarIndex = cursor.getColumnIndexOrThrow(COLUMN_AVATAR);
+                mDateOfBirthIndex = cursor.getColumnIndexOrThrow(COLUMN_DATE_OF_BIRTH);
+                mBioIndex = cursor.getColumnIndexOrThrow(COLUMN_BIO);
+                mCheckInIdIndex = cursor.getColumnIndex(CheckInTable.COLUMN_ID);
+                mCheckInMapper = mCheckInIdIndex != -1 ?
+                        CheckInTable.MAPPER.create(cursor) : null;
+            }
+
+            @Override
+            public Ribot map(Cursor cursor, @Nullable Ribot holder) {
+                Ribot ribot = holder != null ? holder : new Ribot();
+                Profile profile = new Profile();
+                profile.name = new Name();
+                profile.name.first = cursor.getString(mFirstNameIndex);
+                profile.name.last = cursor.getString(mLastNameIndex);
+                profile.email = cursor.getString(mEmailIndex);
+                profile.hexColor = cursor.getString(mHexColorIndex);
+                profile.avatar = cursor.getString(mAvatarIndex);
+                profile.dateOfBirth = cursor.isNull(mDateOfBirthIndex) ? null :
+                        new Date(cursor.getLong(mDateOfBirthIndex));
+                profile.bio = cursor.getString(mBioIndex);
+                ribot.profile = profile;
+                ribot.latestCheckIn = mCheckInMapper != null && !cursor.isNull(mCheckInIdIndex) ?
+                        mCheckInMapper.map(cursor) : null;
+                return ribot;
+            }
+        }
+    }
+
+    /**
+     * Latest check-in of each ribot. Only the fields of the latest beacon encounter that the
+     * team screen displays are kept: its ID, date and zone label.
+     */
+    public static final class CheckInTable {
+        public static final String TABLE_NAME = "check_in";
+
+        public static final String COLUMN_ID = "id";
+        public static final String COLUMN_RIBOT_EMAIL = "ribot_email";
+        public static final String COLUMN_LABEL = "label";
+        public static final String COLUMN_VENUE_ID = "venue_id";
+        public static final String COLUMN_VENUE_LABEL = "venue_label";
+        public static final String COLUMN_VENUE_LATITUDE = "venue_latitude";
+        public static final String COLUMN_VENUE_LONGITUDE = "venue_longitude";
+        public static final String COLUMN_CHECKED_IN_DATE = "checked_in_date";
+        public static final String COLUMN_IS_CHECKED_OUT = "is_checked_out";
+        public static final String COLUMN_ENCOUNTER_ID = "encounter_id";
+        public static final String COLUMN_ENCOUNTER_DATE = "encounter_date";
+        public static final String COLUMN_ENCOUNTER_ZONE_LABEL = "encounter_zone_label";
+
+        public static final String CREATE =
+                "CREATE TABLE " + TABLE_NAME + " (" +
+                        COLUMN_ID + " TEXT PRIMARY KEY," +
+                        COLUMN_RIBOT_EMAIL + " TEXT NOT NULL," +
+                        COLUMN_LABEL + " TEXT," +
+                        COLUMN_VENUE_ID + " TEXT," +
+                        COLUMN_VENUE_LABEL + " TEXT," +
+                        COLUMN_VENUE_LATITUDE + " REAL," +
+                        COLUMN_VENUE_LONGITUDE + " REAL," +
+                        COLUMN_CHECKED_IN_DATE + " INTEGER," +
+                        COLUMN_IS_CHECKED_OUT + " INTEGER NOT NULL," +
+                        COLUMN_ENCOUNTER_ID + " TEXT," +
+                        COLUMN_ENCOUNTER_DATE + " INTEGER," +
+                        COLUMN_ENCOUNTER_ZONE_LABEL + " TEXT" +
+                        " );";
+
+        public static final String CREATE_INDEX_RIBOT_EMAIL =
+                "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_ribot_email ON " +
+                        TABLE_NAME + " (" + COLUMN_RIBOT_EMAIL + ");";
+
+        public static ContentValues toContentValues(String ribotEmail, CheckIn checkIn) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_ID, checkIn.id);
+            values.put(COLUMN_RIBOT_EMAIL, ribotEmail);
+            values.put(COLUMN_LABEL, checkIn.label);
+            Venue venue = checkIn.venue;
+            values.put(COLUMN_VENUE_ID, venue != null ? venue.id : null);
+            values.put(COLUMN_VENUE_LABEL, venue != null ? venue.label : null);
+            values.put(COLUMN_VENUE_LATITUDE, venue != null ? venue.latitude : null);
+            values.put(COLUMN_VENUE_LONGITUDE, venue != null ? venue.longitude : null);
+            values.put(COLUMN_CHECKED_IN_DATE,
+                    checkIn.checkedInDate != null ? checkIn.checkedInDate.getTime() : null);
+            values.put(COLUMN_IS_CHECKED_OUT, checkIn.isCheckedOut);
+            Encounter encounter = checkIn.latestBeaconEncounter;
+            values.put(COLUMN_ENCOUNTER_ID, encounter != null ? encounter.id : null);
+            values.put(COLUMN_ENCOUNTER_DATE, encounter != null && encounter.encounterDate != null
+                    ? encounter.encounterDate.getTime() : null);
+            values.put(COLUMN_ENCOUNTER_ZONE_LABEL,
+                    encounter != null && encounter.beacon != null && encounter.beacon.zone != null
+                            ? encounter.beacon.zone.label : null);
+            return values;
+        }
+
+        public static final RowMapper.Factory<CheckIn> MAPPER = new RowMapper.Factory<CheckIn>() {
+            @Override
+            public RowMapper<CheckIn> create(Cursor cursor) {
+                return new Mapper(cursor);
+            }
+        };
+
+        private static final class Mapper extends RowMapper<CheckIn> {
+            private final int mIdIndex;
+            private final int mLabelIndex;
+            private final int mVenueIdIndex;
+            private final int mVenueLabelIndex;
+            private final int mVenueLatitudeIndex;
+            private final int mVenueLongitudeIndex;
+            private final int mCheckedInDateIndex;
+            private final int mIsCheckedOutIndex;
+            private final int mEncounterIdIndex;
+            private final int mEncounterDateIndex;
+            private final int mEncounterZoneLabelIndex;
+
+            Mapper(Cursor cursor) {
+                mIdIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+                mLabelIndex = cursor.getColumnIndexOrThrow(COLUMN_LABEL);
+                mVenueIdIndex = cursor.getColumnIndexOrThrow(COLUMN_VENUE_ID);
+                mVenueLabelIndex = cursor.getColumnIndexOrThrow(COLUMN_VENUE_LABEL);
+                mVenueLatitudeIndex = cursor.getColumnIndexOrThrow(COLUMN_VENUE_LATITUDE);
+                mVenueLongitudeIndex = cursor.getColumnIndexOrThrow(COLUMN_VENUE_LONGITUDE);
+                mCheckedInDateIndex = cursor.getColumnIndexOrThrow(COLUMN_CHECKED_IN_DATE);
+                mIsCheckedOutIndex = cursor.getColumnIndexOrThrow(COLUMN_IS_CHECKED_OUT);
+                mEncounterIdIndex = cursor.getColumnIndexOrThrow(COLUMN_ENCOUNTER_ID);
+                mEncounterDateIndex = cursor.getColumnIndexOrThrow(COLUMN_ENCOUNTER_DATE);
+                mEncounterZoneLabelIndex =
+                        cursor.getColumnIndexOrThrow(COLUMN_ENCOUNTER_ZONE_LABEL);
+            }
+
+            @Override
+            public CheckIn map(Cursor cursor, @Nullable CheckIn holder) {
+                CheckIn checkIn = holder != null ? holder : new CheckIn();
+                checkIn.id = cursor.getString(mIdIndex);
+                checkIn.label = cursor.getString(mLabelIndex);
+                checkIn.venue = null;
+                if (!cursor.isNull(mVenueIdIndex) || !cursor.isNull(mVenueLabelIndex)) {
+                    Venue venue = new Venue(cursor.getString(mVenueIdIndex),
+                            cursor.getString(mVenueLabelIndex));
+                    venue.latitude = cursor.isNull(mVenueLatitudeIndex) ? null :
+                            cursor.getFloat(mVenueLatitudeIndex);
+                    venue.longitude = cursor.isNull(mVenueLongitudeIndex) ? null :
+                            cursor.getFloat(mVenueLongitudeIndex);
+                    checkIn.venue = venue;
+                }
+                checkIn.checkedInDate = cursor.isNull(mCheckedInDateIndex) ? null :
+                        new Date(cursor.getLong(mCheckedInDateIndex));
+                checkIn.isCheckedOut = cursor.getInt(mIsCheckedOutIndex) == 1;
+                checkIn.latestBeaconEncounter = null;
+                if (!cursor.isNull(mEncounterIdIndex)) {
+                    Encounter encounter = new Encounter();
+                    encounter.id = cursor.getString(mEncounterIdIndex);
+                    encounter.encounterDate = cursor.isNull(mEncounterDateIndex) ? null :
+                            new Date(cursor.getLong(mEncounterDateIndex));
+                    encounter.beacon = new RegisteredBeacon();
+                    encounter.beacon.zone = new Zone();
+                    encounter.beacon.zone.label = cursor.getString(mEncounterZoneLabelIndex);
+                    checkIn.latestBeaconEncounter = encounter;
+                }
+                return checkIn;
+            }
+        }
+    }
+
+    public static final class VenueTable {
+        public static final String TABLE_NAME = "venue";
+
+        public static final String COLUMN_ID = "id";
+        public static final String COLUMN_LABEL = "label";
+        public static final String COLUMN_LATITUDE = "latitude";
+        public static final String COLUMN_LONGITUDE = "longitude";
+        // Position of the venue in the list returned by the API
+        public static final String COLUMN_POSITION = "position";
+
+        public static final String CREATE =
+                "CREATE TABLE " + TABLE_NAME + " (" +
+                        COLUMN_ID + " TEXT PRIMARY KEY," +
+                        COLUMN_LABEL + " TEXT," +
+                        COLUMN_LATITUDE + " REAL," +
+                        COLUMN_LONGITUDE + " REAL," +
+                        COLUMN_POSITION + " INTEGER NOT NULL" +
+                        " );";
+
+        // Only the columns needed to build Venue objects, in the API order
+        public static final String SELECT_ALL =
+                "SELECT " + COLUMN_ID + ", " + COLUMN_LABEL + ", " +
+                        COLUMN_LATITUDE + ", " + COLUMN_LONGITUDE +
+                        " FROM " + TABLE_NAME + " ORDER BY " + COLUMN_POSITION;
+
+        public static ContentValues toContentValues(Venue venue, int position) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_ID, venue.id);
+            values.put(COLUMN_LABEL, venue.label);
+            values.put(COLUMN_LATITUDE, venue.latitude);
+            values.put(COLUMN_LONGITUDE, venue.longitude);
+            values.put(COLUMN_POSITION, position);
+            return values;
+        }
+
+        public static final RowMapper.Factory<Venue> MAPPER = new RowMapper.Factory<Venue>() {
+            @Override
+            public RowMapper<Venue> create(Cursor cursor) {
+                return new Mapper(cursor);
+            }
+        };
+
+        private static final class Mapper extends RowMapper<Venue> {
+            private final int mIdIndex;
+            private final int mLabelIndex;
+            private final int mLatitudeIndex;
+            private final int mLongitudeIndex;
+
+            Mapper(Cursor cursor) {
+                mIdIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+                mLabelIndex = cursor.getColumnIndexOrThrow(COLUMN_LABEL);
+                mLatitudeIndex = cursor.getColumnIndexOrThrow(COLUMN_LATITUDE);
+                mLongitudeIndex = cursor.getColumnIndexOrThrow(COLUMN_LONGITUDE);
+            }
+
+            @Override
+            public Venue map(Cursor cursor, @Nullable Venue holder) {
+                Venue venue = holder != null ? holder : new Venue();
+                venue.id = cursor.getString(mIdIndex);
+                venue.label = cursor.getString(mLabelIndex);
+                venue.latitude = cursor.isNull(mLatitudeIndex) ? null :
+                        cursor.getFloat(mLatitudeIndex);
+                venue.longitude = cursor.isNull(mLongitudeIndex) ? null :
+                        cursor.getFloat(mLongitudeIndex);
+                return venue;
+            }
+        }
+    }
+
+    /**
+     * Append only log of check-ins, check-outs and encounters, partitioned by local day.
+     */
+    public static final class HistoryTable {
+        public static final String TABLE_NAME = "history";
+
+        public static final String COLUMN_ID = "_id";
+        public static final String COLUMN_TYPE = "type";
+        // Local day of the entry as returned by DateUtil.dayKey()
+        public static final String COLUMN_DAY = "day";
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_END_DATE = "end_date";
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_CHECK_IN_ID = "check_in_id";
+        public static final String COLUMN_LOCATION_NAME = "location_name";
+        public static final String COLUMN_ZONE_LABEL = "zone_label";
+        public static final String COLUMN_IS_CHECKED_OUT = "is_checked_out";
+        public static final String COLUMN_COMPACTED = "compacted";
+        // Idempotency key of the outbox entry the entry was recorded from. Null once compacted.
+        public static final String COLUMN_IDEMPOTENCY_KEY = "idempotency_key";
+
+        public static final String CREATE =
+                "CREATE TABLE " + TABLE_NAME + " (" +
+                        COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        COLUMN_TYPE + " TEXT NOT NULL," +
+                        COLUMN_DAY + " INTEGER NOT NULL," +
+                        COLUMN_DATE + " INTEGER NOT NULL," +
+                        COLUMN_END_DATE + " INTEGER NOT NULL," +
+                        COLUMN_COUNT + " INTEGER NOT NULL," +
+                        COLUMN_CHECK_IN_ID + " TEXT," +
+                        COLUMN_LOCATION_NAME + " TEXT," +
+                        COLUMN_ZONE_LABEL + " TEXT," +
+                        COLUMN_IS_CHECKED_OUT + " INTEGER NOT NULL," +
+                        COLUMN_COMPACTED + " INTEGER NOT NULL DEFAULT 0," +
+                        COLUMN_IDEMPOTENCY_KEY + " TEXT" +
+                        " );";
+
+        public static final String CREATE_INDEX_DAY =
+                "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_day ON " +
+                        TABLE_NAME + " (" + COLUMN_DAY + ");";
+
+        public static final String ADD_COLUMN_IDEMPOTENCY_KEY =
+                "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_IDEMPOTENCY_KEY + " TEXT;";
+
+        // Entries recorded from the same outbox entry are ignored, see HistoryHelper.
+        public static final String CREATE_INDEX_IDEMPOTENCY_KEY =
+                "CREATE UNIQUE INDEX IF NOT EXISTS " + TABLE_NAME + "_idempotency_key ON " +
+                        TABLE_NAME + " (" + COLUMN_IDEMPOTENCY_KEY + ");";
+
+        public static final String SELECT_BETWEEN_DAYS =
+                "SELECT * FROM " + TABLE_NAME +
+                        " WHERE " + COLUMN_DAY + " BETWEEN ? AND ?" +
+                        " ORDER BY " + COLUMN_DATE + ", " + COLUMN_ID;
+
+        /**
+         * Merges the non compacted entries before the given day into one entry per day, type
+         * and location. Must be followed by DELETE_NOT_COMPACTED_BEFORE_DAY.
+         */
+        public static final String COMPACT_BEFORE_DAY =
+                "INSERT INTO " + TABLE_NAME + " (" +
+                        COLUMN_TYPE + ", " + COLUMN_DAY + ", " + COLUMN_DATE + ", " +
+                        COLUMN_END_DATE + ", " + COLUMN_COUNT + ", " + COLUMN_CHECK_IN_ID + ", " +
+                        COLUMN_LOCATION_NAME + ", " + COLUMN_ZONE_LABEL + ", " +
+                        COLUMN_IS_CHECKED_OUT + ", " + COLUMN_COMPACTED + ")" +
+                        " SELECT " + COLUMN_TYPE + ", " + COLUMN_DAY + ", " +
+                        "MIN(" + COLUMN_DATE + "), MAX(" + COLUMN_END_DATE + "), " +
+                        "SUM(" + COLUMN_COUNT + "), " + COLUMN_CHECK_IN_ID + ", " +
+                        COLUMN_LOCATION_NAME + ", " + COLUMN_ZONE_LABEL + ", " +
+                        COLUMN_IS_CHECKED_OUT + ", 1" +
+                        " FROM " + TABLE_NAME +
+                        " WHERE " + COLUMN_DAY + " < ? AND " + COLUMN_COMPACTED + " = 0" +
+                        " GROUP BY " + COLUMN_TYPE + ", " + COLUMN_DAY + ", " +
+                        COLUMN_CHECK_IN_ID + ", " + COLUMN_LOCATION_NAME + ", " +
+                        COLUMN_ZONE_LABEL + ", " + COLUMN_IS_CHECKED_OUT;
+
+        public static final String WHERE_NOT_COMPACTED_BEFORE_DAY =
+                COLUMN_DAY + " < ? AND " + COLUMN_COMPACTED + " = 0";
+
+        public static final String WHERE_BEFORE_DAY = COLUMN_DAY + " < ?";
+
+        public static ContentValues toContentValues(HistoryEntry.Type type, CheckIn checkIn,
+                                                    long date) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_TYPE, type.name());
+            values.put(COLUMN_DAY, DateUtil.dayKey(date));
+            values.put(COLUMN_DATE, date);
+            values.put(COLUMN_END_DATE, date);
+            values.put(COLUMN_COUNT, 1);
+            values.put(COLUMN_CHECK_IN_ID, checkIn.id);
+            values.put(COLUMN_LOCATION_NAME, checkIn.getLocationName());
+            values.put(COLUMN_IS_CHECKED_OUT, checkIn.isCheckedOut);
+            return values;
+        }
+
+        public static ContentValues toContentValues(Encounter encounter) {
+            ContentValues values = toContentValues(HistoryEntry.Type.ENCOUNTER,
+                    encounter.checkIn, encounter.encounterDate.getTime());
+            if (encounter.beacon != null && encounter.beacon.zone != null) {
+                values.put(COLUMN_ZONE_LABEL, encounter.beacon.zone.label);
+            }
+            return values;
+        }
+
+        public static final RowMapper.Factory<HistoryEntry> MAPPER =
+                new RowMapper.Factory<HistoryEntry>() {
+                    @Override
+                    public RowMapper<HistoryEntry> create(Cursor cursor) {
+                        return new Mapper(cursor);
+                    }
+                };
+
+        private static final class Mapper extends RowMapper<HistoryEntry> {
+            private final int mTypeIndex;
+            private final int mDateIndex;
+            private final int mEndDateIndex;
+            private final int mCountIndex;
+            private final int mCheckInIdIndex;
+            private final int mLocationNameIndex;
+            private final int mZoneLabelIndex;
+            private final int mIsCheckedOutIndex;
+
+            Mapper(Cursor cursor) {
+                mTypeIndex = cursor.getColumnIndexOrThrow(COLUMN_TYPE);
+                mDateIndex = cursor.getColumnIndexOrThrow(COLUMN_DATE);
+                mEndDateIndex = cursor.getColumnIndexOrThrow(COLUMN_END_DATE);
+                mCountIndex = cursor.getColumnIndexOrThrow(COLUMN_COUNT);
+                mCheckInIdIndex = cursor.getColumnIndexOrThrow(COLUMN_CHECK_IN_ID);
+                mLocationNameIndex = cursor.getColumnIndexOrThrow(COLUMN_LOCATION_NAME);
+                mZoneLabelIndex = cursor.getColumnIndexOrThrow(COLUMN_ZONE_LABEL);
+                mIsCheckedOutIndex = cursor.getColumnIndexOrThrow(COLUMN_IS_CHECKED_OUT);
+            }
+
+            @Override
+            public HistoryEntry map(Cursor cursor, @Nullable HistoryEntry holder) {
+                HistoryEntry entry = holder != null ? holder : new HistoryEntry();
+                entry.type = HistoryEntry.Type.valueOf(cursor.getString(mTypeIndex));
+                entry.date = new Date(cursor.getLong(mDateIndex));
+                entry.endDate = new Date(cursor.getLong(mEndDateIndex));
+                entry.count = cursor.getInt(mCountIndex);
+                entry.checkInId = cursor.getString(mCheckInIdIndex);
+                entry.locationName = cursor.getString(mLocationNameIndex);
+                entry.zoneLabel = cursor.getString(mZoneLabelIndex);
+                entry.isCheckedOut = cursor.getInt(mIsCheckedOutIndex) == 1;
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Writes waiting to be sent to the API, in the order they were made.
+     */
+    public static final class OutboxTable {
+        public static final String TABLE_NAME = "outbox";
+
+        public static final String COLUMN_ID = "_id";
+        public static final String COLUMN_IDEMPOTENCY_KEY = "idempotency_key";
+        public static final String COLUMN_TYPE = "type";
+        public static final String COLUMN_TARGET_ID = "target_id";
+        // JSON request body
+        public static final String COLUMN_BODY = "body";
+        public static final String COLUMN_CREATED_DATE = "created_date";
+
+        public static final String CREATE =
+                "CREATE TABLE " + TABLE_NAME + " (" +
+                        COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        COLUMN_IDEMPOTENCY_KEY + " TEXT NOT NULL UNIQUE," +
+                        COLUMN_TYPE + " TEXT NOT NULL," +
+                        COLUMN_TARGET_ID + " TEXT," +
+                        COLUMN_BODY + " TEXT," +
+                        COLUMN_CREATED_DATE + " INTEGER NOT NULL" +
+                        " );";
+
+        public static final String SELECT_OLDEST =
+                "SELECT * FROM " + TABLE_NAME + " ORDER BY " + COLUMN_ID + " LIMIT ?";
+
+        private static final Gson GSON = new Gson();
+
+        public static ContentValues toContentValues(OutboxEntry entry) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_IDEMPOTENCY_KEY, entry.idempotencyKey);
+            values.put(COLUMN_TYPE, entry.type.name());
+            values.put(COLUMN_TARGET_ID, entry.targetId);
+            if (entry.checkInRequest != null) {
+                values.put(COLUMN_BODY, GSON.toJson(entry.checkInRequest));
+            }
+            values.put(COLUMN_CREATED_DATE, entry.createdDate.getTime());
+            return values;
+        }
+
+        public static final RowMapper.Factory<OutboxEntry> MAPPER =
+                new RowMapper.Factory<OutboxEntry>() {
+                    @Override
+                    public RowMapper<OutboxEntry> create(Cursor cursor) {
+                        return new Mapper(cursor);
+                    }
+                };
+
+        private static final class Mapper extends RowMapper<OutboxEntry> {
+            private final int mIdIndex;
+            private final int mIdempotencyKeyIndex;
+            private final int mTypeIndex;
+            private final int mTargetIdIndex;
+            private final int mBodyIndex;
+            private final int mCreatedDateIndex;
+
+            Mapper(Cursor cursor) {
+                mIdIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+                mIdempotencyKeyIndex = cursor.getColumnIndexOrThrow(COLUMN_IDEMPOTENCY_KEY);
+                mTypeIndex = cursor.getColumnIndexOrThrow(COLUMN_TYPE);
+                mTargetIdIndex = cursor.getColumnIndexOrThrow(COLUMN_TARGET_ID);
+                mBodyIndex = cursor.getColumnIndexOrThrow(COLUMN_BODY);
+                mCreatedDateIndex = cursor.getColumnIndexOrThrow(COLUMN_CREATED_DATE);
+            }
+
+            @Override
+            public OutboxEntry map(Cursor cursor, @Nullable OutboxEntry holder) {
+                OutboxEntry entry = holder != null ? holder : new OutboxEntry();
+                entry.id = cursor.getLong(mIdIndex);
+                entry.idempotencyKey = cursor.getString(mIdempotencyKeyIndex);
+                entry.type = OutboxEntry.Type.valueOf(cursor.getString(mTypeIndex));
+                entry.targetId = cursor.getString(mTargetIdIndex);
+                entry.checkInRequest = cursor.isNull(mBodyIndex) ? null :
+                        GSON.fromJson(cursor.getString(mBodyIndex), CheckInRequest.class);
+                entry.createdDate = new Date(cursor.getLong(mCreatedDateIndex));
+                return entry;
+            }
         }
     }
 
@@ -0,0 +1,18 @@
+package io.ribot.app.data.local;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A step that upgrades the database schema from version - 1 to version.
+ * Migrations are run in order by DbOpenHelper, all of them in the upgrade transaction.
+ */
+public abstract class DbMigration {
+
+    public final int version;
+
+    public DbMigration(int version) {
+        this.version = version;
+    }
+
+    public abstract void migrate(SQLiteDatabase db);
+}
@@ -4,18 +4,116 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 import javax.inject.Inject;
 
 import io.ribot.app.injection.ApplicationContext;
+import timber.log.Timber;
 
 public class DbOpenHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "ribot_app.db";
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 7;
+    // Page cache size in KiB. The whole database comfortably fits in it.
+    public static final int PAGE_CACHE_SIZE_KB = 4096;
+
+    /**
+     * Ordered list of schema migrations. To change the schema, increase DATABASE_VERSION, add a
+     * migration for the new version at the end of this list and update onCreate() so a fresh
+     * database ends up with the same schema as an upgraded one.
+     */
+    private static final DbMigration[] MIGRATIONS = {
+            new DbMigration(2) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(Db.BeaconTable.CREATE_INDEX_UUID_MAJOR_MINOR);
+                }
+            },
+            new DbMigration(3) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(Db.RibotTable.CREATE);
+                    db.execSQL(Db.CheckInTable.CREATE);
+                    db.execSQL(Db.CheckInTable.CREATE_INDEX_RIBOT_EMAIL);
+                }
+            },
+            new DbMigration(4) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(Db.VenueTable.CREATE);
+                }
+            },
+            new DbMigration(5) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(Db.HistoryTable.CREATE);
+                    db.execSQL(Db.HistoryTable.CREATE_INDEX_DAY);
+                }
+            },
+            new DbMigration(6) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(Db.OutboxTable.CREATE);
+                }
+            },
+            new DbMigration(7) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(Db.HistoryTable.ADD_COLUMN_IDEMPOTENCY_KEY);
+                    db.execSQL(Db.HistoryTable.CREATE_INDEX_IDEMPOTENCY_KEY);
+                }
+            }
+    };
+
+    private final Context mContext;
+    // Shared by every use of the database, exclusive to deleteDatabase().
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
 
     @Inject
     public DbOpenHelper(@ApplicationContext Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+    }
+
+    /**
+     * Lock to hold while using the database, reading or writing, from the start of a
+     * transaction or query until it ends or its cursor is closed. It's shared, so it only keeps
+     * deleteDatabase() from closing the database in the middle of it.
+     */
+    public Lock getReadLock() {
+        return mLock.readLock();
+    }
+
+    /**
+     * Close the database and delete its files, which takes the same time no matter how much
+     * data there is. It first waits for the transactions and queries holding the read lock to
+     * finish. The database is created again, empty, the next time it's opened.
+     */
+    public void deleteDatabase() {
+        mLock.writeLock().lock();
+        try {
+            close();
+            mContext.deleteDatabase(DATABASE_NAME);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Enables write-ahead logging so queries run on their own connections and aren't blocked
+     * by a write transaction, e.g. beacon lookups while the beacons are being synced.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (!db.enableWriteAheadLogging()) Timber.w("Write-ahead logging not available");
+        // cache_size only applies to the connection it runs on, and only the primary connection
+        // is open at this point. There's no hook for the reader connections the pool opens
+        // later, so they keep SQLite's default cache. The primary connection is the one used by
+        // every transaction, i.e. syncs and their reads, which are the ones that need the cache.
+        db.execSQL("PRAGMA cache_size = -" + PAGE_CACHE_SIZE_KB);
     }
 
     @Override
@@ -23,6 +121,15 @@ public class DbOpenHelper extends SQLiteOpenHelper {
         db.beginTransaction();
         try {
             db.execSQL(Db.BeaconTable.CREATE);
+            db.execSQL(Db.BeaconTable.CREATE_INDEX_UUID_MAJOR_MINOR);
+            db.execSQL(Db.RibotTable.CREATE);
+            db.execSQL(Db.CheckInTable.CREATE);
+            db.execSQL(Db.CheckInTable.CREATE_INDEX_RIBOT_EMAIL);
+            db.execSQL(Db.VenueTable.CREATE);
+            db.execSQL(Db.HistoryTable.CREATE);
+            db.execSQL(Db.HistoryTable.CREATE_INDEX_DAY);
+            db.execSQL(Db.HistoryTable.CREATE_INDEX_IDEMPOTENCY_KEY);
+            db.execSQL(Db.OutboxTable.CREATE);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -30,6 +137,22 @@ public class DbOpenHelper extends SQLiteOpenHelper {
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) { }
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Run in order all the migrations needed to go from oldVersion to newVersion.
+     * SQLiteOpenHelper calls onUpgrade() within a single transaction, so the upgrade is
+     * all-or-nothing: if a migration fails the exception is propagated and every step is rolled
+     * back, leaving the database at oldVersion.
+     */
+    public static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (DbMigration migration : MIGRATIONS) {
+            if (migration.version <= oldVersion || migration.version > newVersion) continue;
+            Timber.i("Migrating database to version %d", migration.version);
+            migration.migrate(db);
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,180 @@
+package io.ribot.app.data.local;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.VisibleForTesting;
+
+import com.squareup.sqlbrite.BriteDatabase;
+import com.squareup.sqlbrite.SqlBrite;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.ribot.app.data.model.CheckIn;
+import io.ribot.app.data.model.Encounter;
+import io.ribot.app.data.model.HistoryEntry;
+import io.ribot.app.util.DateUtil;
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Local history of check-ins, check-outs and beacon encounters.
+ * Every entry is recorded with the idempotency key of the outbox entry it was sent with, and an
+ * entry with a key already recorded is ignored, so a write replayed more than once by the outbox
+ * is only recorded once. Entries are written asynchronously, one at a time, on a dedicated
+ * scheduler so recording never blocks the caller. Once a day, entries older than COMPACTION_DAYS
+ * are merged into one entry per day and location, and entries older than RETENTION_DAYS are
+ * deleted.
+ */
+@Singleton
+public class HistoryHelper {
+
+    public static final int COMPACTION_DAYS = 7;
+    public static final int RETENTION_DAYS = 90;
+
+    private final DbOpenHelper mDbOpenHelper;
+    private final BriteDatabase mDb;
+    private final Lock mReadLock;
+    private final Scheduler.Worker mWorker;
+    // Day key of the last time maintenance ran. Only accessed from the worker.
+    private int mLastMaintenanceDay;
+
+    /**
+     * Writes are run on a thread of its own. It's process scoped, like this singleton, so it's
+     * never shut down, it's idle when there's nothing to write.
+     */
+    @Inject
+    public HistoryHelper(DbOpenHelper dbOpenHelper, DatabaseHelper databaseHelper) {
+        this(dbOpenHelper, databaseHelper, Schedulers.from(Executors.newSingleThreadExecutor()));
+    }
+
+    /**
+     * Writes are run in order on a worker of the given scheduler.
+     */
+    public HistoryHelper(DbOpenHelper dbOpenHelper, DatabaseHelper databaseHelper,
+                         Scheduler writeScheduler) {
+        mDbOpenHelper = dbOpenHelper;
+        mDb = databaseHelper.getBriteDb();
+        mReadLock = databaseHelper.getReadLock();
+        mWorker = writeScheduler.createWorker();
+    }
+
+    public void recordCheckIn(String idempotencyKey, CheckIn checkIn) {
+        Date date = checkIn.checkedInDate != null ? checkIn.checkedInDate : new Date();
+        write(idempotencyKey, Db.HistoryTable.toContentValues(HistoryEntry.Type.CHECK_IN,
+                checkIn, date.getTime()));
+    }
+
+    public void recordCheckOut(String idempotencyKey, CheckIn checkIn) {
+        write(idempotencyKey, Db.HistoryTable.toContentValues(HistoryEntry.Type.CHECK_OUT,
+                checkIn, System.currentTimeMillis()));
+    }
+
+    public void recordEncounter(String idempotencyKey, Encounter encounter) {
+        if (encounter.checkIn == null || encounter.encounterDate == null) {
+            Timber.w("Encounter %s not recorded, missing check-in or date", encounter.id);
+            return;
+        }
+        write(idempotencyKey, Db.HistoryTable.toContentValues(encounter));
+    }
+
+    /**
+     * Returns the entries recorded between the two given days, both included, ordered by date.
+     * It emits again every time the history changes.
+     */
+    public Observable<List<HistoryEntry>> getHistory(Date fromDay, Date toDay) {
+        return mDb.createQuery(Db.HistoryTable.TABLE_NAME, Db.HistoryTable.SELECT_BETWEEN_DAYS,
+                String.valueOf(DateUtil.dayKey(fromDay.getTime())),
+                String.valueOf(DateUtil.dayKey(toDay.getTime())))
+                .map(new Func1<SqlBrite.Query, List<HistoryEntry>>() {
+                    @Override
+                    public List<HistoryEntry> call(SqlBrite.Query query) {
+                        List<HistoryEntry> entries = new ArrayList<>();
+                        mReadLock.lock();
+                        try {
+                            Cursor cursor = query.run();
+                            try {
+                                RowMapper<HistoryEntry> mapper =
+                                        Db.HistoryTable.MAPPER.create(cursor);
+                                while (cursor.moveToNext()) {
+                                    entries.add(mapper.map(cursor));
+                                }
+                            } finally {
+                                cursor.close();
+                            }
+                        } finally {
+                            mReadLock.unlock();
+                        }
+                        return entries;
+                    }
+                });
+    }
+
+    /**
+     * Compact and delete old entries relative to the given time. This runs automatically on the
+     * worker once a day after a write.
+     */
+    @VisibleForTesting
+    void runMaintenance(long nowMilliseconds) {
+        String compactionDay = String.valueOf(dayKeyDaysBefore(nowMilliseconds, COMPACTION_DAYS));
+        String retentionDay = String.valueOf(dayKeyDaysBefore(nowMilliseconds, RETENTION_DAYS));
+        mReadLock.lock();
+        try {
+            BriteDatabase.Transaction transaction = mDb.newTransaction();
+            try {
+                mDb.delete(Db.HistoryTable.TABLE_NAME, Db.HistoryTable.WHERE_BEFORE_DAY,
+                        retentionDay);
+                // Same connection as mDb, the delete below notifies the table change.
+                mDbOpenHelper.getWritableDatabase().execSQL(Db.HistoryTable.COMPACT_BEFORE_DAY,
+                        new Object[]{compactionDay});
+                mDb.delete(Db.HistoryTable.TABLE_NAME,
+                        Db.HistoryTable.WHERE_NOT_COMPACTED_BEFORE_DAY, compactionDay);
+                transaction.markSuccessful();
+            } finally {
+                transaction.end();
+            }
+        } finally {
+            mReadLock.unlock();
+        }
+        mLastMaintenanceDay = DateUtil.dayKey(nowMilliseconds);
+    }
+
+    private void write(String idempotencyKey, final ContentValues values) {
+        values.put(Db.HistoryTable.COLUMN_IDEMPOTENCY_KEY, idempotencyKey);
+        mWorker.schedule(new Action0() {
+            @Override
+            public void call() {
+                mReadLock.lock();
+                try {
+                    mDb.insert(Db.HistoryTable.TABLE_NAME, values,
+                            SQLiteDatabase.CONFLICT_IGNORE);
+                    long now = System.currentTimeMillis();
+                    if (DateUtil.dayKey(now) != mLastMaintenanceDay) runMaintenance(now);
+                } catch (RuntimeException e) {
+                    Timber.e(e, "Error writing history entry %s", values);
+                } finally {
+                    mReadLock.unlock();
+                }
+            }
+        });
+    }
+
+    private static int dayKeyDaysBefore(long timeMilliseconds, int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMilliseconds);
+        calendar.add(Calendar.DAY_OF_MONTH, -days);
+        return DateUtil.dayKey(calendar.getTimeInMillis());
+    }
+}
@@ -0,0 +1,87 @@
+package io.ribot.app.data.local;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.ribot.app.data.model.OutboxEntry;
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func0;
+
+/**
+ * Persistent queue of the writes that haven't been confirmed by the API yet.
+ */
+@Singleton
+public class OutboxHelper {
+
+    private final BriteDatabase mDb;
+    private final Lock mReadLock;
+
+    @Inject
+    public OutboxHelper(DatabaseHelper databaseHelper) {
+        mDb = databaseHelper.getBriteDb();
+        mReadLock = databaseHelper.getReadLock();
+    }
+
+    /**
+     * Save the entry at the end of the outbox. Emits the entry with its id set.
+     */
+    public Observable<OutboxEntry> add(final OutboxEntry entry) {
+        return Observable.create(new Observable.OnSubscribe<OutboxEntry>() {
+            @Override
+            public void call(Subscriber<? super OutboxEntry> subscriber) {
+                mReadLock.lock();
+                try {
+                    entry.id = mDb.insert(Db.OutboxTable.TABLE_NAME,
+                            Db.OutboxTable.toContentValues(entry),
+                            SQLiteDatabase.CONFLICT_ABORT);
+                } finally {
+                    mReadLock.unlock();
+                }
+                subscriber.onNext(entry);
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Emits a list with up to maxEntries of the oldest entries, in the order they were added.
+     * The list is empty if the outbox is empty.
+     */
+    public Observable<List<OutboxEntry>> getOldestEntries(final int maxEntries) {
+        return CursorObservable.create(mReadLock, new Func0<Cursor>() {
+            @Override
+            public Cursor call() {
+                return mDb.query(Db.OutboxTable.SELECT_OLDEST, String.valueOf(maxEntries));
+            }
+        }, Db.OutboxTable.MAPPER)
+                .toList();
+    }
+
+    /**
+     * Remove the entries with the given ids with a single statement.
+     */
+    public void removeEntries(List<Long> ids) {
+        if (ids.isEmpty()) return;
+        StringBuilder where = new StringBuilder(Db.OutboxTable.COLUMN_ID).append(" IN (");
+        String[] args = new String[ids.size()];
+        for (int i = 0; i < args.length; i++) {
+            where.append(i == 0 ? "?" : ",?");
+            args[i] = String.valueOf(ids.get(i));
+        }
+        mReadLock.lock();
+        try {
+            mDb.delete(Db.OutboxTable.TABLE_NAME, where.append(')').toString(), args);
+        } finally {
+            mReadLock.unlock();
+        }
+    }
+}
@@ -6,19 +6,18 @@ import android.support.annotation.Nullable;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 
 import java.util.Date;
-import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import io.ribot.app.data.model.CheckIn;
 import io.ribot.app.data.model.Encounter;
+import io.ribot.app.data.model.Iso8601DateAdapter;
+import io.ribot.app.data.model.ModelTypeAdapterFactory;
 import io.ribot.app.data.model.RegisteredBeacon;
 import io.ribot.app.data.model.Ribot;
-import io.ribot.app.data.model.Venue;
 import io.ribot.app.injection.ApplicationContext;
 import rx.Observable;
 import rx.Subscriber;
@@ -30,13 +29,20 @@ public class PreferencesHelper {
 
     private static final String PREF_KEY_ACCESS_TOKEN = "PREF_KEY_ACCESS_TOKEN";
     private static final String PREF_KEY_SIGNED_IN_RIBOT = "PREF_KEY_SIGNED_IN_RIBOT";
-    private static final String PREF_KEY_VENUES = "PREF_KEY_VENUES";
+    // Venues used to be cached here, they are now saved in the database.
+    private static final String PREF_KEY_LEGACY_VENUES = "PREF_KEY_VENUES";
     private static final String PREF_KEY_LATEST_CHECK_IN = "PREF_KEY_LATEST_CHECK_IN";
     private static final String PREF_KEY_LATEST_ENCOUNTER_DATE = "PREF_KEY_LATEST_ENCOUNTER_DATE";
     private static final String PREF_KEY_LATEST_ENCOUNTER_BEACON =
             "PREF_KEY_LATEST_ENCOUNTER_BEACON";
     private static final String PREF_KEY_LATEST_ENCOUNTER_CHECK_IN_ID =
             "PREF_KEY_LATEST_ENCOUNTER_CHECK_IN_ID";
+    // Followed by the name of an API resource, see RibotService.NOT_MODIFIED_HEADER.
+    private static final String PREF_KEY_PENDING_VALIDATOR = "PREF_KEY_PENDING_VALIDATOR_";
+    private static final String PREF_KEY_SAVED_VALIDATOR = "PREF_KEY_SAVED_VALIDATOR_";
+
+    // Format of the dates saved before they were saved as ISO-8601
+    private static final String LEGACY_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSz";
 
     private final SharedPreferences mPref;
     private final Gson mGson;
@@ -45,8 +51,12 @@ public class PreferencesHelper {
     public PreferencesHelper(@ApplicationContext Context context) {
         mPref = context.getSharedPreferences(PREF_FILE_NAME, Context.MODE_PRIVATE);
         mGson = new GsonBuilder()
-                .setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSz")
+                .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+                .registerTypeAdapter(Date.class, new Iso8601DateAdapter(LEGACY_DATE_FORMAT))
                 .create();
+        if (mPref.contains(PREF_KEY_LEGACY_VENUES)) {
+            mPref.edit().remove(PREF_KEY_LEGACY_VENUES).apply();
+        }
     }
 
     public void clear() {
@@ -73,33 +83,6 @@ public class PreferencesHelper {
         return mGson.fromJson(ribotJson, Ribot.class);
     }
 
-    public void putVenues(List<Venue> venues) {
-        mPref.edit().putString(PREF_KEY_VENUES, mGson.toJson(venues)).apply();
-    }
-
-    @Nullable
-    public List<Venue> getVenues() {
-        String venuesJson = mPref.getString(PREF_KEY_VENUES, null);
-        if (venuesJson != null) {
-            return mGson.fromJson(venuesJson, new TypeToken<List<Venue>>() {
-            }.getType());
-        }
-        return null;
-    }
-
-    public Observable<List<Venue>> getVenuesAsObservable() {
-        return Observable.create(new Observable.OnSubscribe<List<Venue>>() {
-            @Override
-            public void call(Subscriber<? super List<Venue>> subscriber) {
-                List<Venue> venues = getVenues();
-                if (venues != null) {
-                    subscriber.onNext(venues);
-                }
-                subscriber.onCompleted();
-            }
-        });
-    }
-
     public void putLatestCheckIn(CheckIn checkIn) {
         mPref.edit().putString(PREF_KEY_LATEST_CHECK_IN, mGson.toJson(checkIn)).apply();
     }
@@ -181,4 +164,32 @@ public class PreferencesHelper {
         editor.apply();
     }
 
+    /**
+     * Keep the validator, ETag or Last-Modified, of the response of an API resource that is
+     * about to be saved. It only becomes the saved validator once markValidatorSaved() is called.
+     */
+    public void putPendingValidator(String resource, @Nullable String validator) {
+        mPref.edit().putString(PREF_KEY_PENDING_VALIDATOR + resource, validator).apply();
+    }
+
+    /**
+     * Record that the response of the resource with the pending validator has been saved.
+     */
+    public synchronized void markValidatorSaved(String resource) {
+        String validator = mPref.getString(PREF_KEY_PENDING_VALIDATOR + resource, null);
+        mPref.edit()
+                .putString(PREF_KEY_SAVED_VALIDATOR + resource, validator)
+                .remove(PREF_KEY_PENDING_VALIDATOR + resource)
+                .apply();
+    }
+
+    /**
+     * Return the validator of the last response of the resource that was saved, or null if none
+     * has been saved since preferences were cleared.
+     */
+    @Nullable
+    public String getSavedValidator(String resource) {
+        return mPref.getString(PREF_KEY_SAVED_VALIDATOR + resource, null);
+    }
+
 }
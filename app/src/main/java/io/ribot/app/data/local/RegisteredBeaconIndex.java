@@ -0,0 +1,135 @@
+package io.ribot.app.data.local;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import io.ribot.app.data.model.RegisteredBeacon;
+
+/**
+ * Immutable lookup table of registered beacons keyed by uuid, major and minor.
+ * It's an open addressing hash table where the 128 bits of the UUID and the major/minor pair
+ * packed into a long are kept in primitive arrays, so finding a beacon doesn't allocate.
+ * Being immutable, it can be read from any thread without locking. A new instance has to be
+ * built every time the beacons change.
+ */
+public final class RegisteredBeaconIndex {
+
+    public static final RegisteredBeaconIndex EMPTY =
+            new RegisteredBeaconIndex(Collections.<RegisteredBeacon>emptyList());
+
+    private final long[] mUuidMostSigBits;
+    private final long[] mUuidLeastSigBits;
+    private final long[] mMajorMinors;
+    private final RegisteredBeacon[] mBeacons;
+    private final int mMask;
+    private final int mSize;
+
+    public RegisteredBeaconIndex(Collection<RegisteredBeacon> beacons) {
+        // Keep the load factor under 0.5 so probe sequences stay short.
+        int capacity = 2;
+        while (capacity < beacons.size() * 2) capacity <<= 1;
+        mUuidMostSigBits = new long[capacity];
+        mUuidLeastSigBits = new long[capacity];
+        mMajorMinors = new long[capacity];
+        mBeacons = new RegisteredBeacon[capacity];
+        mMask = capacity - 1;
+
+        int size = 0;
+        for (RegisteredBeacon beacon : beacons) {
+            if (!isValidUuid(beacon.uuid)) continue;
+            long mostSigBits = uuidBits(beacon.uuid, true);
+            long leastSigBits = uuidBits(beacon.uuid, false);
+            long majorMinor = packMajorMinor(beacon.major, beacon.minor);
+            int slot = hash(mostSigBits, leastSigBits, majorMinor) & mMask;
+            while (mBeacons[slot] != null) {
+                if (isKeyAt(slot, mostSigBits, leastSigBits, majorMinor)) break;
+                slot = (slot + 1) & mMask;
+            }
+            if (mBeacons[slot] == null) size++;
+            mUuidMostSigBits[slot] = mostSigBits;
+            mUuidLeastSigBits[slot] = leastSigBits;
+            mMajorMinors[slot] = majorMinor;
+            mBeacons[slot] = beacon;
+        }
+        mSize = size;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Find the beacon with the given uuid, major and minor. The uuid match is case insensitive.
+     * Returns null if the beacon is not in the index or the uuid is not a valid UUID.
+     */
+    @Nullable
+    public RegisteredBeacon find(String uuid, int major, int minor) {
+        if (!isValidUuid(uuid)) return null;
+        return find(uuidBits(uuid, true), uuidBits(uuid, false), major, minor);
+    }
+
+    @Nullable
+    public RegisteredBeacon find(long uuidMostSigBits, long uuidLeastSigBits,
+                                 int major, int minor) {
+        long majorMinor = packMajorMinor(major, minor);
+        int slot = hash(uuidMostSigBits, uuidLeastSigBits, majorMinor) & mMask;
+        while (mBeacons[slot] != null) {
+            if (isKeyAt(slot, uuidMostSigBits, uuidLeastSigBits, majorMinor)) {
+                return mBeacons[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return null;
+    }
+
+    private boolean isKeyAt(int slot, long mostSigBits, long leastSigBits, long majorMinor) {
+        return mMajorMinors[slot] == majorMinor &&
+                mUuidMostSigBits[slot] == mostSigBits &&
+                mUuidLeastSigBits[slot] == leastSigBits;
+    }
+
+    private static long packMajorMinor(int major, int minor) {
+        return ((long) major << 32) | (minor & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long mostSigBits, long leastSigBits, long majorMinor) {
+        long h = mostSigBits * 31 + leastSigBits;
+        h = h * 31 + majorMinor;
+        // MurmurHash3 finalizer to spread the bits before masking.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    // True if the string has 32 hex digits, optionally separated with dashes.
+    private static boolean isValidUuid(@Nullable String uuid) {
+        if (uuid == null) return false;
+        int digits = 0;
+        for (int i = 0; i < uuid.length(); i++) {
+            char c = uuid.charAt(i);
+            if (c == '-') continue;
+            if (Character.digit(c, 16) < 0) return false;
+            digits++;
+        }
+        return digits == 32;
+    }
+
+    // Parse the most or least significant 64 bits of a UUID string without allocating.
+    private static long uuidBits(String uuid, boolean mostSignificant) {
+        int firstDigit = mostSignificant ? 0 : 16;
+        int digit = 0;
+        long bits = 0;
+        for (int i = 0; i < uuid.length() && digit < firstDigit + 16; i++) {
+            char c = uuid.charAt(i);
+            if (c == '-') continue;
+            if (digit >= firstDigit) bits = (bits << 4) | Character.digit(c, 16);
+            digit++;
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,47 @@
+package io.ribot.app.data.local;
+
+import android.database.Cursor;
+import android.support.annotation.Nullable;
+
+/**
+ * Maps the rows of a Cursor to objects. Column indices are resolved once, when the mapper is
+ * created for a cursor, instead of on every row. A mapper is bound to the columns of the cursor
+ * it was created for, use its Factory to get a new one for each cursor.
+ */
+public abstract class RowMapper<T> {
+
+    public interface Factory<T> {
+        RowMapper<T> create(Cursor cursor);
+    }
+
+    /**
+     * Map the current row of the cursor to a new object.
+     */
+    public T map(Cursor cursor) {
+        return map(cursor, null);
+    }
+
+    /**
+     * Map the current row of the cursor. If holder is not null its fields are overwritten with
+     * the row values and it's returned, so the same object can be reused for every row.
+     */
+    public abstract T map(Cursor cursor, @Nullable T holder);
+
+    /**
+     * Factory of mappers that read a single String column.
+     */
+    public static Factory<String> stringColumn(final String columnName) {
+        return new Factory<String>() {
+            @Override
+            public RowMapper<String> create(Cursor cursor) {
+                final int index = cursor.getColumnIndexOrThrow(columnName);
+                return new RowMapper<String>() {
+                    @Override
+                    public String map(Cursor cursor, @Nullable String holder) {
+                        return cursor.getString(index);
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package io.ribot.app.data.local;
+
+import android.support.annotation.Nullable;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.ribot.app.data.remote.RibotService;
+
+/**
+ * Keeps the signed in session in memory. The access token is read from preferences once and the
+ * API authorization header is built from it only when the session starts, so requests don't
+ * touch preferences nor allocate a new header every time.
+ */
+@Singleton
+public class SessionHelper {
+
+    private final PreferencesHelper mPreferencesHelper;
+    private volatile String mAuthorization;
+
+    @Inject
+    public SessionHelper(PreferencesHelper preferencesHelper) {
+        mPreferencesHelper = preferencesHelper;
+        mAuthorization = buildAuthorization(preferencesHelper.getAccessToken());
+    }
+
+    /**
+     * Starts a new session with the given access token, or replaces the token of the current one,
+     * saving it in preferences.
+     */
+    public void start(String accessToken) {
+        mPreferencesHelper.putAccessToken(accessToken);
+        mAuthorization = buildAuthorization(accessToken);
+    }
+
+    /**
+     * Ends the session. The access token in preferences is removed when preferences are cleared.
+     */
+    public void end() {
+        mAuthorization = null;
+    }
+
+    public boolean isActive() {
+        return mAuthorization != null;
+    }
+
+    /**
+     * Returns the value of the API authorization header, or null if there is no session.
+     */
+    @Nullable
+    public String getAuthorization() {
+        return mAuthorization;
+    }
+
+    private static String buildAuthorization(@Nullable String accessToken) {
+        if (accessToken == null) return null;
+        return RibotService.Util.buildAuthorization(accessToken);
+    }
+}
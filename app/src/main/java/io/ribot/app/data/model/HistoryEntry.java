@@ -0,0 +1,63 @@
+package io.ribot.app.data.model;
+
+import android.support.annotation.Nullable;
+
+import java.util.Date;
+
+/**
+ * An entry of the local check-in and encounter history.
+ * Old entries are compacted, in which case a single entry represents several events of the
+ * same type at the same location during one day: date is the first one, endDate the last one
+ * and count the number of events.
+ */
+public class HistoryEntry {
+
+    public enum Type {
+        CHECK_IN, CHECK_OUT, ENCOUNTER
+    }
+
+    public Type type;
+    public Date date;
+    public Date endDate;
+    public int count;
+    public String checkInId;
+    public String locationName;
+    // Zone of the beacon, only for encounters.
+    @Nullable public String zoneLabel;
+    public boolean isCheckedOut;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        HistoryEntry entry = (HistoryEntry) o;
+
+        if (count != entry.count) return false;
+        if (isCheckedOut != entry.isCheckedOut) return false;
+        if (type != entry.type) return false;
+        if (date != null ? !date.equals(entry.date) : entry.date != null) return false;
+        if (endDate != null ? !endDate.equals(entry.endDate) : entry.endDate != null)
+            return false;
+        if (checkInId != null ? !checkInId.equals(entry.checkInId) : entry.checkInId != null)
+            return false;
+        if (locationName != null ? !locationName.equals(entry.locationName) :
+                entry.locationName != null)
+            return false;
+        return zoneLabel != null ? zoneLabel.equals(entry.zoneLabel) : entry.zoneLabel == null;
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result = type != null ? type.hashCode() : 0;
+        result = 31 * result + (date != null ? date.hashCode() : 0);
+        result = 31 * result + (endDate != null ? endDate.hashCode() : 0);
+        result = 31 * result + count;
+        result = 31 * result + (checkInId != null ? checkInId.hashCode() : 0);
+        result = 31 * result + (locationName != null ? locationName.hashCode() : 0);
+        result = 31 * result + (zoneLabel != null ? zoneLabel.hashCode() : 0);
+        result = 31 * result + (isCheckedOut ? 1 : 0);
+        return result;
+    }
+}
@@ -0,0 +1,220 @@
+package io.ribot.app.data.model;
+
+import android.support.annotation.Nullable;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Reads and writes dates as ISO-8601 strings without SimpleDateFormat, so it's thread-safe
+ * without locking and only allocates the resulting Date or String.
+ * Dates are written in UTC with milliseconds, e.g. 2016-05-21T09:30:00.000Z. Reading accepts
+ * any number of fraction digits and a Z, +HH:mm, +HHmm or +HH offset. Dates without offset are
+ * read as UTC, which is what the API sends.
+ * A fallback SimpleDateFormat pattern can be given to keep reading dates saved in an old format.
+ */
+public class Iso8601DateAdapter extends TypeAdapter<Date> {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+    @Nullable private final String mFallbackPattern;
+
+    public Iso8601DateAdapter() {
+        this(null);
+    }
+
+    public Iso8601DateAdapter(@Nullable String fallbackPattern) {
+        mFallbackPattern = fallbackPattern;
+    }
+
+    @Override
+    public void write(JsonWriter out, Date value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.value(format(value.getTime()));
+    }
+
+    @Override
+    public Date read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String value = in.nextString();
+        try {
+            return new Date(parse(value));
+        } catch (IllegalArgumentException e) {
+            if (mFallbackPattern == null) throw new JsonSyntaxException(value, e);
+            return parseWithFallbackPattern(value, e);
+        }
+    }
+
+    // Only used for old values, so a new SimpleDateFormat each time is fine.
+    private Date parseWithFallbackPattern(String value, IllegalArgumentException error) {
+        try {
+            return new SimpleDateFormat(mFallbackPattern, Locale.US).parse(value);
+        } catch (ParseException e) {
+            throw new JsonSyntaxException(value, error);
+        }
+    }
+
+    /**
+     * Formats the time as yyyy-MM-ddTHH:mm:ss.SSSZ in UTC. Years must be between 0 and 9999.
+     */
+    public static String format(long timeMillis) {
+        long days = timeMillis / MILLIS_PER_DAY;
+        long millisOfDay = timeMillis % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+        // Civil date from days since epoch, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            throw new IllegalArgumentException("Year out of range: " + year);
+        }
+
+        char[] chars = new char[24];
+        putDigits(chars, 0, (int) year, 4);
+        chars[4] = '-';
+        putDigits(chars, 5, month, 2);
+        chars[7] = '-';
+        putDigits(chars, 8, day, 2);
+        chars[10] = 'T';
+        int secondOfDay = (int) (millisOfDay / 1000);
+        putDigits(chars, 11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        putDigits(chars, 14, secondOfDay / 60 % 60, 2);
+        chars[16] = ':';
+        putDigits(chars, 17, secondOfDay % 60, 2);
+        chars[19] = '.';
+        putDigits(chars, 20, (int) (millisOfDay % 1000), 3);
+        chars[23] = 'Z';
+        return new String(chars);
+    }
+
+    /**
+     * Parses an ISO-8601 date time, e.g. 2016-05-21T10:30:00.000+01:00, into milliseconds since
+     * epoch. Throws IllegalArgumentException if the value is not valid.
+     */
+    public static long parse(String value) {
+        int length = value.length();
+        if (length < 19 || value.charAt(4) != '-' || value.charAt(7) != '-' ||
+                (value.charAt(10) != 'T' && value.charAt(10) != 't') ||
+                value.charAt(13) != ':' || value.charAt(16) != ':') {
+            throw invalid(value);
+        }
+        int year = parseDigits(value, 0, 4);
+        int month = parseDigits(value, 5, 2);
+        int day = parseDigits(value, 8, 2);
+        int hour = parseDigits(value, 11, 2);
+        int minute = parseDigits(value, 14, 2);
+        int second = parseDigits(value, 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) ||
+                hour > 23 || minute > 59 || second > 59) {
+            throw invalid(value);
+        }
+
+        int position = 19;
+        int millis = 0;
+        if (position < length && value.charAt(position) == '.') {
+            int start = ++position;
+            while (position < length && isDigit(value.charAt(position))) {
+                // Digits beyond milliseconds are ignored
+                if (position - start < 3) millis = millis * 10 + (value.charAt(position) - '0');
+                position++;
+            }
+            int digits = position - start;
+            if (digits == 0) throw invalid(value);
+            for (int i = digits; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+
+        int offsetMinutes = 0;
+        if (position < length) {
+            char designator = value.charAt(position++);
+            if (designator == '+' || designator == '-') {
+                if (position + 2 > length) throw invalid(value);
+                int offsetHours = parseDigits(value, position, 2);
+                position += 2;
+                int offsetMinutesOfHour = 0;
+                if (position < length) {
+                    if (value.charAt(position) == ':') position++;
+                    if (position + 2 > length) throw invalid(value);
+                    offsetMinutesOfHour = parseDigits(value, position, 2);
+                    position += 2;
+                }
+                if (offsetHours > 23 || offsetMinutesOfHour > 59) throw invalid(value);
+                offsetMinutes = offsetHours * 60 + offsetMinutesOfHour;
+                if (designator == '-') offsetMinutes = -offsetMinutes;
+            } else if (designator != 'Z' && designator != 'z') {
+                throw invalid(value);
+            }
+        }
+        if (position != length) throw invalid(value);
+
+        // Days since epoch from civil date, see http://howardhinnant.github.io/date_algorithms.html
+        int shiftedYear = month <= 2 ? year - 1 : year;
+        int era = (shiftedYear >= 0 ? shiftedYear : shiftedYear - 399) / 400;
+        int yearOfEra = shiftedYear - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+
+        long secondOfDay = hour * 3600 + minute * 60 + second - offsetMinutes * 60;
+        return (days * 86400 + secondOfDay) * 1000 + millis;
+    }
+
+    private static void putDigits(char[] chars, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int parseDigits(String value, int offset, int digits) {
+        int result = 0;
+        for (int i = offset; i < offset + digits; i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c)) throw invalid(value);
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leapYear = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+            return leapYear ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static IllegalArgumentException invalid(String value) {
+        return new IllegalArgumentException("Invalid ISO-8601 date: " + value);
+    }
+}
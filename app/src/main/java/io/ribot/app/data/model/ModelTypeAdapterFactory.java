@@ -0,0 +1,454 @@
+package io.ribot.app.data.model;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Streaming TypeAdapters for the data models, so Gson doesn't bind them through reflection.
+ * They read and write the same JSON as the reflective adapters: fields in declaration order,
+ * nulls following the Gson configuration and unknown fields skipped. Dates are delegated to the
+ * Date adapter registered in the Gson instance, see Iso8601DateAdapter.
+ * Remember to update the adapter when a field is added to one of these models.
+ */
+public class ModelTypeAdapterFactory implements TypeAdapterFactory {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        TypeAdapter<?> adapter;
+        if (rawType == Ribot.class) {
+            adapter = new RibotAdapter(gson);
+        } else if (rawType == Profile.class) {
+            adapter = new ProfileAdapter(gson);
+        } else if (rawType == Name.class) {
+            adapter = new NameAdapter();
+        } else if (rawType == CheckIn.class) {
+            adapter = new CheckInAdapter(gson);
+        } else if (rawType == Encounter.class) {
+            adapter = new EncounterAdapter(gson);
+        } else if (rawType == RegisteredBeacon.class) {
+            adapter = new RegisteredBeaconAdapter(gson);
+        } else if (rawType == Zone.class) {
+            adapter = new ZoneAdapter(gson);
+        } else if (rawType == Venue.class) {
+            adapter = new VenueAdapter();
+        } else {
+            return null;
+        }
+        return (TypeAdapter<T>) adapter.nullSafe();
+    }
+
+    private static class RibotAdapter extends TypeAdapter<Ribot> {
+        private final TypeAdapter<Profile> mProfileAdapter;
+        private final TypeAdapter<CheckIn> mCheckInAdapter;
+
+        RibotAdapter(Gson gson) {
+            mProfileAdapter = gson.getAdapter(Profile.class);
+            mCheckInAdapter = gson.getAdapter(CheckIn.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, Ribot value) throws IOException {
+            out.beginObject();
+            out.name("profile");
+            mProfileAdapter.write(out, value.profile);
+            out.name("latestCheckIn");
+            mCheckInAdapter.write(out, value.latestCheckIn);
+            out.endObject();
+        }
+
+        @Override
+        public Ribot read(JsonReader in) throws IOException {
+            Ribot ribot = new Ribot();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "profile":
+                        ribot.profile = mProfileAdapter.read(in);
+                        break;
+                    case "latestCheckIn":
+                        ribot.latestCheckIn = mCheckInAdapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return ribot;
+        }
+    }
+
+    private static class ProfileAdapter extends TypeAdapter<Profile> {
+        private final TypeAdapter<Name> mNameAdapter;
+        private final TypeAdapter<Date> mDateAdapter;
+
+        ProfileAdapter(Gson gson) {
+            mNameAdapter = gson.getAdapter(Name.class);
+            mDateAdapter = gson.getAdapter(Date.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, Profile value) throws IOException {
+            out.beginObject();
+            out.name("name");
+            mNameAdapter.write(out, value.name);
+            out.name("email").value(value.email);
+            out.name("hexColor").value(value.hexColor);
+            out.name("avatar").value(value.avatar);
+            out.name("dateOfBirth");
+            mDateAdapter.write(out, value.dateOfBirth);
+            out.name("bio").value(value.bio);
+            out.endObject();
+        }
+
+        @Override
+        public Profile read(JsonReader in) throws IOException {
+            Profile profile = new Profile();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        profile.name = mNameAdapter.read(in);
+                        break;
+                    case "email":
+                        profile.email = nextString(in);
+                        break;
+                    case "hexColor":
+                        profile.hexColor = nextString(in);
+                        break;
+                    case "avatar":
+                        profile.avatar = nextString(in);
+                        break;
+                    case "dateOfBirth":
+                        profile.dateOfBirth = mDateAdapter.read(in);
+                        break;
+                    case "bio":
+                        profile.bio = nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return profile;
+        }
+    }
+
+    private static class NameAdapter extends TypeAdapter<Name> {
+
+        @Override
+        public void write(JsonWriter out, Name value) throws IOException {
+            out.beginObject();
+            out.name("first").value(value.first);
+            out.name("last").value(value.last);
+            out.endObject();
+        }
+
+        @Override
+        public Name read(JsonReader in) throws IOException {
+            Name name = new Name();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "first":
+                        name.first = nextString(in);
+                        break;
+                    case "last":
+                        name.last = nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return name;
+        }
+    }
+
+    private static class CheckInAdapter extends TypeAdapter<CheckIn> {
+        private final TypeAdapter<Venue> mVenueAdapter;
+        private final TypeAdapter<Date> mDateAdapter;
+        private final TypeAdapter<Encounter> mEncounterAdapter;
+
+        CheckInAdapter(Gson gson) {
+            mVenueAdapter = gson.getAdapter(Venue.class);
+            mDateAdapter = gson.getAdapter(Date.class);
+            mEncounterAdapter = gson.getAdapter(Encounter.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, CheckIn value) throws IOException {
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("venue");
+            mVenueAdapter.write(out, value.venue);
+            out.name("label").value(value.label);
+            out.name("checkedInDate");
+            mDateAdapter.write(out, value.checkedInDate);
+            out.name("isCheckedOut").value(value.isCheckedOut);
+            out.name("latestBeaconEncounter");
+            mEncounterAdapter.write(out, value.latestBeaconEncounter);
+            out.endObject();
+        }
+
+        @Override
+        public CheckIn read(JsonReader in) throws IOException {
+            CheckIn checkIn = new CheckIn();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        checkIn.id = nextString(in);
+                        break;
+                    case "venue":
+                        checkIn.venue = mVenueAdapter.read(in);
+                        break;
+                    case "label":
+                        checkIn.label = nextString(in);
+                        break;
+                    case "checkedInDate":
+                        checkIn.checkedInDate = mDateAdapter.read(in);
+                        break;
+                    case "isCheckedOut":
+                        checkIn.isCheckedOut = nextBoolean(in);
+                        break;
+                    case "latestBeaconEncounter":
+                        checkIn.latestBeaconEncounter = mEncounterAdapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return checkIn;
+        }
+    }
+
+    private static class EncounterAdapter extends TypeAdapter<Encounter> {
+        private final TypeAdapter<Date> mDateAdapter;
+        private final TypeAdapter<RegisteredBeacon> mBeaconAdapter;
+        private final TypeAdapter<CheckIn> mCheckInAdapter;
+
+        EncounterAdapter(Gson gson) {
+            mDateAdapter = gson.getAdapter(Date.class);
+            mBeaconAdapter = gson.getAdapter(RegisteredBeacon.class);
+            mCheckInAdapter = gson.getAdapter(CheckIn.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, Encounter value) throws IOException {
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("encounterDate");
+            mDateAdapter.write(out, value.encounterDate);
+            out.name("beacon");
+            mBeaconAdapter.write(out, value.beacon);
+            out.name("checkIn");
+            mCheckInAdapter.write(out, value.checkIn);
+            out.endObject();
+        }
+
+        @Override
+        public Encounter read(JsonReader in) throws IOException {
+            Encounter encounter = new Encounter();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        encounter.id = nextString(in);
+                        break;
+                    case "encounterDate":
+                        encounter.encounterDate = mDateAdapter.read(in);
+                        break;
+                    case "beacon":
+                        encounter.beacon = mBeaconAdapter.read(in);
+                        break;
+                    case "checkIn":
+                        encounter.checkIn = mCheckInAdapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return encounter;
+        }
+    }
+
+    private static class RegisteredBeaconAdapter extends TypeAdapter<RegisteredBeacon> {
+        private final TypeAdapter<Zone> mZoneAdapter;
+
+        RegisteredBeaconAdapter(Gson gson) {
+            mZoneAdapter = gson.getAdapter(Zone.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, RegisteredBeacon value) throws IOException {
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("uuid").value(value.uuid);
+            out.name("major").value(value.major);
+            out.name("minor").value(value.minor);
+            out.name("zone");
+            mZoneAdapter.write(out, value.zone);
+            out.endObject();
+        }
+
+        @Override
+        public RegisteredBeacon read(JsonReader in) throws IOException {
+            RegisteredBeacon beacon = new RegisteredBeacon();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        beacon.id = nextString(in);
+                        break;
+                    case "uuid":
+                        beacon.uuid = nextString(in);
+                        break;
+                    case "major":
+                        beacon.major = nextInteger(in);
+                        break;
+                    case "minor":
+                        beacon.minor = nextInteger(in);
+                        break;
+                    case "zone":
+                        beacon.zone = mZoneAdapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return beacon;
+        }
+    }
+
+    private static class ZoneAdapter extends TypeAdapter<Zone> {
+        private final TypeAdapter<Venue> mVenueAdapter;
+
+        ZoneAdapter(Gson gson) {
+            mVenueAdapter = gson.getAdapter(Venue.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, Zone value) throws IOException {
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("label").value(value.label);
+            out.name("venue");
+            mVenueAdapter.write(out, value.venue);
+            out.endObject();
+        }
+
+        @Override
+        public Zone read(JsonReader in) throws IOException {
+            Zone zone = new Zone();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        zone.id = nextString(in);
+                        break;
+                    case "label":
+                        zone.label = nextString(in);
+                        break;
+                    case "venue":
+                        zone.venue = mVenueAdapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return zone;
+        }
+    }
+
+    private static class VenueAdapter extends TypeAdapter<Venue> {
+
+        @Override
+        public void write(JsonWriter out, Venue value) throws IOException {
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("label").value(value.label);
+            out.name("latitude").value(value.latitude);
+            out.name("longitude").value(value.longitude);
+            out.endObject();
+        }
+
+        @Override
+        public Venue read(JsonReader in) throws IOException {
+            Venue venue = new Venue();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        venue.id = nextString(in);
+                        break;
+                    case "label":
+                        venue.label = nextString(in);
+                        break;
+                    case "latitude":
+                        venue.latitude = nextFloat(in);
+                        break;
+                    case "longitude":
+                        venue.longitude = nextFloat(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return venue;
+        }
+    }
+
+    /******** Readers matching the leniency of the Gson built-in adapters ********/
+
+    private static String nextString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) return Boolean.toString(in.nextBoolean());
+        return in.nextString();
+    }
+
+    private static Integer nextInteger(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextInt();
+    }
+
+    private static Float nextFloat(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return (float) in.nextDouble();
+    }
+
+    // Null is read as false, the default value of the primitive field.
+    private static boolean nextBoolean(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        if (token == JsonToken.STRING) return Boolean.parseBoolean(in.nextString());
+        return in.nextBoolean();
+    }
+}
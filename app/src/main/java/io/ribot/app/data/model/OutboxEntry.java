@@ -0,0 +1,85 @@
+package io.ribot.app.data.model;
+
+import android.support.annotation.Nullable;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * A write to the API that is saved locally until the API confirms it, so it can be replayed
+ * if the request fails because of the network. The idempotency key is sent with every attempt
+ * so the API can ignore repeated requests.
+ */
+public class OutboxEntry {
+
+    public enum Type {
+        CHECK_IN, CHECK_OUT, ENCOUNTER
+    }
+
+    public long id;
+    public String idempotencyKey;
+    public Type type;
+    // Check-in id of a CHECK_OUT or beacon id of an ENCOUNTER.
+    @Nullable public String targetId;
+    // Only for CHECK_IN.
+    @Nullable public CheckInRequest checkInRequest;
+    public Date createdDate;
+
+    public static OutboxEntry forCheckIn(CheckInRequest checkInRequest) {
+        OutboxEntry entry = newEntry(Type.CHECK_IN);
+        entry.checkInRequest = checkInRequest;
+        return entry;
+    }
+
+    public static OutboxEntry forCheckOut(String checkInId) {
+        OutboxEntry entry = newEntry(Type.CHECK_OUT);
+        entry.targetId = checkInId;
+        return entry;
+    }
+
+    public static OutboxEntry forEncounter(String beaconId) {
+        OutboxEntry entry = newEntry(Type.ENCOUNTER);
+        entry.targetId = beaconId;
+        return entry;
+    }
+
+    private static OutboxEntry newEntry(Type type) {
+        OutboxEntry entry = new OutboxEntry();
+        entry.idempotencyKey = UUID.randomUUID().toString();
+        entry.type = type;
+        entry.createdDate = new Date();
+        return entry;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        OutboxEntry entry = (OutboxEntry) o;
+
+        if (id != entry.id) return false;
+        if (idempotencyKey != null ? !idempotencyKey.equals(entry.idempotencyKey) :
+                entry.idempotencyKey != null)
+            return false;
+        if (type != entry.type) return false;
+        if (targetId != null ? !targetId.equals(entry.targetId) : entry.targetId != null)
+            return false;
+        if (checkInRequest != null ? !checkInRequest.equals(entry.checkInRequest) :
+                entry.checkInRequest != null)
+            return false;
+        return createdDate != null ? createdDate.equals(entry.createdDate) :
+                entry.createdDate == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (idempotencyKey != null ? idempotencyKey.hashCode() : 0);
+        result = 31 * result + (type != null ? type.hashCode() : 0);
+        result = 31 * result + (targetId != null ? targetId.hashCode() : 0);
+        result = 31 * result + (checkInRequest != null ? checkInRequest.hashCode() : 0);
+        result = 31 * result + (createdDate != null ? createdDate.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,33 @@
+package io.ribot.app.data.remote;
+
+import java.io.IOException;
+
+import io.ribot.app.data.local.SessionHelper;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Adds the authorization header of the current session to the API requests. Requests sent
+ * without a session, i.e. sign in, go out unchanged.
+ */
+public class AuthorizationInterceptor implements Interceptor {
+
+    private final SessionHelper mSessionHelper;
+
+    public AuthorizationInterceptor(SessionHelper sessionHelper) {
+        mSessionHelper = sessionHelper;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String authorization = mSessionHelper.getAuthorization();
+        if (authorization == null || request.header(RibotService.AUTH_HEADER) != null) {
+            return chain.proceed(request);
+        }
+        return chain.proceed(request.newBuilder()
+                .header(RibotService.AUTH_HEADER, authorization)
+                .build());
+    }
+}
@@ -0,0 +1,277 @@
+package io.ribot.app.data.remote;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Stops sending requests to a group of endpoints while they are failing. A circuit opens after
+ * a number of consecutive network errors or 5xx responses, and requests then fail straight away
+ * with CircuitOpenException. Once the open time has passed the circuit is half-open and lets a
+ * single request through, which closes the circuit if it succeeds or opens it again if it fails.
+ * Apply it with compose(circuitBreaker.<T>forGroup(group)), or forStreamingGroup(group) for
+ * requests that stream their body, see CircuitBreakingRibotService.
+ */
+@Singleton
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    public enum Group {
+        AUTH, RIBOTS, VENUES, CHECK_INS, ENCOUNTERS, BEACONS
+    }
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final Map<Group, Circuit> mCircuits = new EnumMap<>(Group.class);
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private final Scheduler mScheduler;
+
+    @Inject
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS, TimeUnit.MILLISECONDS,
+                Schedulers.computation());
+    }
+
+    /**
+     * The scheduler is only used as a clock.
+     */
+    public CircuitBreaker(int failureThreshold, long openTime, TimeUnit unit,
+                          Scheduler scheduler) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = unit.toMillis(openTime);
+        mScheduler = scheduler;
+        for (Group group : Group.values()) {
+            mCircuits.put(group, new Circuit(group));
+        }
+    }
+
+    public State getState(Group group) {
+        return mCircuits.get(group).getState();
+    }
+
+    /**
+     * Returns false if a request to the group would fail straight away, so callers can skip
+     * the work leading to it until the circuit lets requests through again.
+     */
+    public boolean allowsRequest(Group group) {
+        return mCircuits.get(group).allowsRequest();
+    }
+
+    public <T> Observable.Transformer<T, T> forGroup(final Group group) {
+        final Circuit circuit = mCircuits.get(group);
+        return new Observable.Transformer<T, T>() {
+            @Override
+            public Observable<T> call(final Observable<T> request) {
+                return Observable.defer(new Func0<Observable<T>>() {
+                    @Override
+                    public Observable<T> call() {
+                        if (!circuit.tryAcquire()) {
+                            return Observable.error(new CircuitOpenException(group));
+                        }
+                        return observeResult(request, new Outcome(circuit));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Like forGroup() for requests that emit a streamed body. Once the body is emitted, the
+     * request is only reported when the body has been read to the end, fails or is closed, so
+     * network errors while it downloads count as failures.
+     */
+    public Observable.Transformer<ResponseBody, ResponseBody> forStreamingGroup(
+            final Group group) {
+        final Circuit circuit = mCircuits.get(group);
+        return new Observable.Transformer<ResponseBody, ResponseBody>() {
+            @Override
+            public Observable<ResponseBody> call(final Observable<ResponseBody> request) {
+                return Observable.defer(new Func0<Observable<ResponseBody>>() {
+                    @Override
+                    public Observable<ResponseBody> call() {
+                        if (!circuit.tryAcquire()) {
+                            return Observable.error(new CircuitOpenException(group));
+                        }
+                        final Outcome outcome = new Outcome(circuit);
+                        return observeResult(request.map(
+                                new Func1<ResponseBody, ResponseBody>() {
+                                    @Override
+                                    public ResponseBody call(ResponseBody body) {
+                                        outcome.mReportedByBody = true;
+                                        return reportWhenRead(body, outcome);
+                                    }
+                                }), outcome);
+                    }
+                });
+            }
+        };
+    }
+
+    // Reports how the request ended, unless it emitted a body that reports it instead.
+    private static <T> Observable<T> observeResult(Observable<T> request, final Outcome outcome) {
+        return request
+                .doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        if (!outcome.mReportedByBody) outcome.onSuccess();
+                    }
+                })
+                .doOnError(new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable error) {
+                        outcome.onFailure(error);
+                    }
+                })
+                .doOnUnsubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        if (!outcome.mReportedByBody) outcome.onCancelled();
+                    }
+                });
+    }
+
+    // Returns a body that reports the request when it's read to the end, fails or is closed.
+    private static ResponseBody reportWhenRead(ResponseBody body, final Outcome outcome) {
+        ForwardingSource source = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read;
+                try {
+                    read = super.read(sink, byteCount);
+                } catch (IOException e) {
+                    outcome.onFailure(e);
+                    throw e;
+                }
+                if (read == -1) outcome.onSuccess();
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                outcome.onCancelled();
+                super.close();
+            }
+        };
+        return ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source));
+    }
+
+    // How a single request ended, reported to its circuit only once.
+    private static class Outcome {
+        private final Circuit mCircuit;
+        private final AtomicBoolean mReported = new AtomicBoolean();
+        volatile boolean mReportedByBody;
+
+        Outcome(Circuit circuit) {
+            mCircuit = circuit;
+        }
+
+        void onSuccess() {
+            if (mReported.compareAndSet(false, true)) mCircuit.onSuccess();
+        }
+
+        void onFailure(Throwable error) {
+            if (mReported.compareAndSet(false, true)) mCircuit.onFailure(error);
+        }
+
+        void onCancelled() {
+            if (mReported.compareAndSet(false, true)) mCircuit.onCancelled();
+        }
+    }
+
+    private class Circuit {
+        private final Group mGroup;
+        private State mState = State.CLOSED;
+        private int mFailures;
+        private long mOpenedAtMillis;
+        // Whether the single request allowed while half-open hasn't finished yet
+        private boolean mTrialInFlight;
+
+        Circuit(Group group) {
+            mGroup = group;
+        }
+
+        synchronized State getState() {
+            return mState;
+        }
+
+        synchronized boolean allowsRequest() {
+            switch (mState) {
+                case OPEN:
+                    return hasOpenTimePassed();
+                case HALF_OPEN:
+                    return !mTrialInFlight;
+                default:
+                    return true;
+            }
+        }
+
+        synchronized boolean tryAcquire() {
+            if (mState == State.OPEN && hasOpenTimePassed()) setState(State.HALF_OPEN);
+            if (mState == State.HALF_OPEN) {
+                if (mTrialInFlight) return false;
+                mTrialInFlight = true;
+                return true;
+            }
+            return mState == State.CLOSED;
+        }
+
+        synchronized void onSuccess() {
+            mTrialInFlight = false;
+            mFailures = 0;
+            setState(State.CLOSED);
+        }
+
+        synchronized void onFailure(Throwable error) {
+            // Any other error means the API answered, e.g. a 4xx response
+            if (!RetryPolicy.isRetryable(error)) {
+                onSuccess();
+                return;
+            }
+            mTrialInFlight = false;
+            // A request sent before the circuit opened doesn't keep it open for longer
+            if (mState == State.OPEN) return;
+            mFailures++;
+            if (mState == State.HALF_OPEN || mFailures >= mFailureThreshold) {
+                mOpenedAtMillis = mScheduler.now();
+                setState(State.OPEN);
+            }
+        }
+
+        synchronized void onCancelled() {
+            mTrialInFlight = false;
+        }
+
+        private boolean hasOpenTimePassed() {
+            return mScheduler.now() - mOpenedAtMillis >= mOpenMillis;
+        }
+
+        private void setState(State state) {
+            if (mState == state) return;
+            Timber.w("Circuit for %s requests is now %s", mGroup, state);
+            mState = state;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.ribot.app.data.remote;
+
+import java.util.List;
+
+import io.ribot.app.data.model.CheckIn;
+import io.ribot.app.data.model.CheckInRequest;
+import io.ribot.app.data.model.Encounter;
+import io.ribot.app.data.model.Ribot;
+import io.ribot.app.data.model.Venue;
+import io.ribot.app.data.remote.CircuitBreaker.Group;
+import okhttp3.ResponseBody;
+import rx.Observable;
+
+/**
+ * RibotService that sends the requests through the CircuitBreaker, so they fail straight away
+ * with CircuitOpenException while the API is down.
+ */
+public class CircuitBreakingRibotService implements RibotService {
+
+    private final RibotService mRibotService;
+    private final CircuitBreaker mCircuitBreaker;
+
+    public CircuitBreakingRibotService(RibotService ribotService,
+                                       CircuitBreaker circuitBreaker) {
+        mRibotService = ribotService;
+        mCircuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public Observable<SignInResponse> signIn(SignInRequest signInRequest) {
+        return mRibotService.signIn(signInRequest)
+                .compose(mCircuitBreaker.<SignInResponse>forGroup(Group.AUTH));
+    }
+
+    @Override
+    public Observable<List<Ribot>> getRibots(String embed) {
+        return mRibotService.getRibots(embed)
+                .compose(mCircuitBreaker.<List<Ribot>>forGroup(Group.RIBOTS));
+    }
+
+    @Override
+    public Observable<List<Venue>> getVenues() {
+        return mRibotService.getVenues()
+                .compose(mCircuitBreaker.<List<Venue>>forGroup(Group.VENUES));
+    }
+
+    @Override
+    public Observable<CheckIn> checkIn(String idempotencyKey, CheckInRequest checkInRequest) {
+        return mRibotService.checkIn(idempotencyKey, checkInRequest)
+                .compose(mCircuitBreaker.<CheckIn>forGroup(Group.CHECK_INS));
+    }
+
+    @Override
+    public Observable<CheckIn> updateCheckIn(String idempotencyKey, String checkInId,
+                                             UpdateCheckInRequest updateCheckInRequest) {
+        return mRibotService.updateCheckIn(idempotencyKey, checkInId, updateCheckInRequest)
+                .compose(mCircuitBreaker.<CheckIn>forGroup(Group.CHECK_INS));
+    }
+
+    @Override
+    public Observable<Encounter> performBeaconEncounter(String idempotencyKey, String beaconId) {
+        return mRibotService.performBeaconEncounter(idempotencyKey, beaconId)
+                .compose(mCircuitBreaker.<Encounter>forGroup(Group.ENCOUNTERS));
+    }
+
+    @Override
+    public Observable<ResponseBody> getRegisteredBeacons() {
+        return mRibotService.getRegisteredBeacons()
+                .compose(mCircuitBreaker.forStreamingGroup(Group.BEACONS));
+    }
+}
@@ -0,0 +1,14 @@
+package io.ribot.app.data.remote;
+
+import java.io.IOException;
+
+/**
+ * A request wasn't sent because the CircuitBreaker circuit of its group is open. It's an
+ * IOException so it's handled like a network error, e.g. outbox entries are kept to be replayed.
+ */
+public class CircuitOpenException extends IOException {
+
+    public CircuitOpenException(CircuitBreaker.Group group) {
+        super("Circuit for " + group + " requests is open");
+    }
+}
@@ -0,0 +1,254 @@
+package io.ribot.app.data.remote;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Per endpoint metrics of the API traffic, recorded by NetworkMetricsInterceptor into lock-free
+ * counters so they are cheap enough to keep on in release builds. Endpoints are identified by
+ * method and path, with the path segments that contain digits, i.e. ids, replaced by {id}.
+ */
+@Singleton
+public class NetworkMetrics {
+
+    // Upper bounds, in milliseconds, of the latency histogram buckets. The last bucket is open.
+    static final long[] LATENCY_BUCKETS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final ConcurrentMap<String, Endpoint> mEndpoints = new ConcurrentHashMap<>();
+
+    @Inject
+    public NetworkMetrics() {
+    }
+
+    /**
+     * Returns a snapshot of the metrics of every endpoint called so far, sorted by endpoint.
+     */
+    public List<EndpointSnapshot> getSnapshot() {
+        List<EndpointSnapshot> snapshots = new ArrayList<>(mEndpoints.size());
+        for (Map.Entry<String, Endpoint> entry : mEndpoints.entrySet()) {
+            snapshots.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        Collections.sort(snapshots, new Comparator<EndpointSnapshot>() {
+            @Override
+            public int compare(EndpointSnapshot lhs, EndpointSnapshot rhs) {
+                return lhs.endpoint.compareTo(rhs.endpoint);
+            }
+        });
+        return snapshots;
+    }
+
+    /**
+     * Returns the metrics of every endpoint in a human readable form, one line per endpoint.
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (EndpointSnapshot snapshot : getSnapshot()) {
+            builder.append(snapshot).append('\n');
+        }
+        return builder.toString();
+    }
+
+    public void reset() {
+        mEndpoints.clear();
+    }
+
+    Endpoint getEndpoint(String method, String path) {
+        String key = method + " " + normalizePath(path);
+        Endpoint endpoint = mEndpoints.get(key);
+        if (endpoint == null) {
+            Endpoint newEndpoint = new Endpoint();
+            endpoint = mEndpoints.putIfAbsent(key, newEndpoint);
+            if (endpoint == null) endpoint = newEndpoint;
+        }
+        return endpoint;
+    }
+
+    static String normalizePath(String path) {
+        StringBuilder builder = new StringBuilder(path.length());
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) continue;
+            builder.append('/');
+            builder.append(containsDigit(segment) ? "{id}" : segment);
+        }
+        return builder.length() == 0 ? "/" : builder.toString();
+    }
+
+    private static boolean containsDigit(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counters of a single endpoint.
+     */
+    static class Endpoint {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong cacheHits = new AtomicLong();
+        final AtomicLong followUps = new AtomicLong();
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+        final ConcurrentMap<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<>();
+        final Histogram timeToNetwork = new Histogram();
+        final Histogram timeToFirstByte = new Histogram();
+        final Histogram total = new Histogram();
+
+        void recordStatusCode(int code) {
+            AtomicLong count = statusCodes.get(code);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = statusCodes.putIfAbsent(code, newCount);
+                if (count == null) count = newCount;
+            }
+            count.incrementAndGet();
+        }
+
+        EndpointSnapshot snapshot(String endpoint) {
+            SortedMap<Integer, Long> codes = new TreeMap<>();
+            for (Map.Entry<Integer, AtomicLong> entry : statusCodes.entrySet()) {
+                codes.put(entry.getKey(), entry.getValue().get());
+            }
+            return new EndpointSnapshot(endpoint, calls.get(), failures.get(), cacheHits.get(),
+                    followUps.get(), requestBytes.get(), responseBytes.get(), codes,
+                    timeToNetwork.snapshot(), timeToFirstByte.snapshot(), total.snapshot());
+        }
+    }
+
+    /**
+     * Latency histogram with the fixed buckets in LATENCY_BUCKETS_MS.
+     */
+    static class Histogram {
+        private final AtomicLongArray mBuckets = new AtomicLongArray(LATENCY_BUCKETS_MS.length + 1);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSumMs = new AtomicLong();
+        private final AtomicLong mMaxMs = new AtomicLong();
+
+        void record(long durationNanos) {
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS_MS.length && durationMs > LATENCY_BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSumMs.addAndGet(durationMs);
+            long max;
+            do {
+                max = mMaxMs.get();
+            } while (durationMs > max && !mMaxMs.compareAndSet(max, durationMs));
+        }
+
+        LatencySnapshot snapshot() {
+            long[] buckets = new long[mBuckets.length()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mBuckets.get(i);
+            }
+            return new LatencySnapshot(buckets, mCount.get(), mSumMs.get(), mMaxMs.get());
+        }
+    }
+
+    /**
+     * Metrics of an endpoint at the time the snapshot was taken.
+     * Failures are the calls that threw an IOException or got a 5xx response.
+     * Follow-ups are the network attempts of a call after its first one: redirects, auth
+     * challenges and retries of a request already sent. Time to network goes from the start of
+     * the call until its first network attempt, it includes the cache lookup and the other
+     * interceptors as well as the connection, if no pooled one is available. Time to first byte
+     * is measured for every network attempt. Total goes from the start of the call until its
+     * body is consumed.
+     */
+    public static class EndpointSnapshot {
+        public final String endpoint;
+        public final long calls;
+        public final long failures;
+        public final long cacheHits;
+        public final long followUps;
+        public final long requestBytes;
+        public final long responseBytes;
+        public final SortedMap<Integer, Long> statusCodes;
+        public final LatencySnapshot timeToNetwork;
+        public final LatencySnapshot timeToFirstByte;
+        public final LatencySnapshot total;
+
+        EndpointSnapshot(String endpoint, long calls, long failures, long cacheHits,
+                         long followUps, long requestBytes, long responseBytes,
+                         SortedMap<Integer, Long> statusCodes, LatencySnapshot timeToNetwork,
+                         LatencySnapshot timeToFirstByte, LatencySnapshot total) {
+            this.endpoint = endpoint;
+            this.calls = calls;
+            this.failures = failures;
+            this.cacheHits = cacheHits;
+            this.followUps = followUps;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.statusCodes = Collections.unmodifiableSortedMap(statusCodes);
+            this.timeToNetwork = timeToNetwork;
+            this.timeToFirstByte = timeToFirstByte;
+            this.total = total;
+        }
+
+        @Override
+        public String toString() {
+            return endpoint + ": calls=" + calls + " failures=" + failures +
+                    " cacheHits=" + cacheHits + " followUps=" + followUps +
+                    " sent=" + requestBytes + "B received=" + responseBytes + "B" +
+                    " codes=" + statusCodes + " toNetwork[" + timeToNetwork + "]" +
+                    " ttfb[" + timeToFirstByte + "] total[" + total + "]";
+        }
+    }
+
+    public static class LatencySnapshot {
+        // Count per bucket, see LATENCY_BUCKETS_MS
+        private final long[] mBuckets;
+        public final long count;
+        public final long sumMs;
+        public final long maxMs;
+
+        LatencySnapshot(long[] buckets, long count, long sumMs, long maxMs) {
+            mBuckets = buckets;
+            this.count = count;
+            this.sumMs = sumMs;
+            this.maxMs = maxMs;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, e.g. 0.99, in milliseconds: the upper
+         * bound of the bucket it falls in, or the max if it falls in the last bucket.
+         */
+        public long getPercentileMs(double percentile) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) return Math.min(LATENCY_BUCKETS_MS[i], maxMs);
+            }
+            return maxMs;
+        }
+
+        public long getMeanMs() {
+            return count == 0 ? 0 : sumMs / count;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " mean=" + getMeanMs() + "ms p50<=" + getPercentileMs(0.5) +
+                    "ms p99<=" + getPercentileMs(0.99) + "ms max=" + maxMs + "ms";
+        }
+    }
+}
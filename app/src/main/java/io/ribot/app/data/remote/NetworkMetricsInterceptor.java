@@ -0,0 +1,190 @@
+package io.ribot.app.data.remote;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Records the calls into NetworkMetrics. It has to be added as the first application interceptor
+ * and getNetworkInterceptor() as a network interceptor, both are needed to tell apart the time
+ * spent before the first network attempt, waiting for each attempt and reading the body.
+ * Bodies are never buffered, bytes are counted as they are written and read.
+ */
+public class NetworkMetricsInterceptor implements Interceptor {
+
+    private final NetworkMetrics mNetworkMetrics;
+    // OkHttp runs the whole interceptor chain of a call on the thread that executes it, so this
+    // is how the network interceptor finds the call without touching the request tag.
+    private final ThreadLocal<CallMetrics> mCurrentCall = new ThreadLocal<>();
+    private final Interceptor mNetworkInterceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            return interceptNetwork(chain);
+        }
+    };
+
+    public NetworkMetricsInterceptor(NetworkMetrics networkMetrics) {
+        mNetworkMetrics = networkMetrics;
+    }
+
+    public Interceptor getNetworkInterceptor() {
+        return mNetworkInterceptor;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        NetworkMetrics.Endpoint endpoint =
+                mNetworkMetrics.getEndpoint(request.method(), request.url().encodedPath());
+        endpoint.calls.incrementAndGet();
+        final CallMetrics call = new CallMetrics(endpoint, System.nanoTime());
+        CallMetrics outerCall = mCurrentCall.get();
+        mCurrentCall.set(call);
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            endpoint.failures.incrementAndGet();
+            call.finish();
+            throw e;
+        } finally {
+            mCurrentCall.set(outerCall);
+        }
+        endpoint.recordStatusCode(response.code());
+        if (response.code() >= 500) endpoint.failures.incrementAndGet();
+        if (response.networkResponse() == null) endpoint.cacheHits.incrementAndGet();
+        if (response.body() == null) {
+            call.finish();
+            return response;
+        }
+        return response.newBuilder()
+                .body(observeBody(response.body(), null, new Runnable() {
+                    @Override
+                    public void run() {
+                        call.finish();
+                    }
+                }))
+                .build();
+    }
+
+    private Response interceptNetwork(Chain chain) throws IOException {
+        Request request = chain.request();
+        CallMetrics call = mCurrentCall.get();
+        if (call == null) return chain.proceed(request);
+
+        long attemptStart = System.nanoTime();
+        if (call.attempts.getAndIncrement() == 0) {
+            call.endpoint.timeToNetwork.record(attemptStart - call.startNanos);
+        }
+        if (request.body() != null) {
+            request = request.newBuilder()
+                    .method(request.method(),
+                            countBytes(request.body(), call.endpoint.requestBytes))
+                    .build();
+        }
+        Response response = chain.proceed(request);
+        call.endpoint.timeToFirstByte.record(System.nanoTime() - attemptStart);
+        if (response.body() == null) return response;
+        // Counted before the body is decompressed, so these are the bytes on the wire
+        return response.newBuilder()
+                .body(observeBody(response.body(), call.endpoint.responseBytes, null))
+                .build();
+    }
+
+    // Returns a body that counts the bytes written by the given one, the length of streamed
+    // bodies isn't known in advance.
+    private static RequestBody countBytes(final RequestBody body, final AtomicLong bytesWritten) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                return body.contentLength();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                BufferedSink countingSink = Okio.buffer(new ForwardingSink(sink) {
+                    @Override
+                    public void write(Buffer source, long byteCount) throws IOException {
+                        super.write(source, byteCount);
+                        bytesWritten.addAndGet(byteCount);
+                    }
+                });
+                body.writeTo(countingSink);
+                // Only flushes the buffer into sink, which is left open for OkHttp
+                countingSink.emit();
+            }
+        };
+    }
+
+    // Returns a body that counts the bytes read from the given one and runs onDone when it's
+    // exhausted, fails or is closed. Both are optional.
+    private static ResponseBody observeBody(ResponseBody body, final AtomicLong bytesRead,
+                                            final Runnable onDone) {
+        ForwardingSource source = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read;
+                try {
+                    read = super.read(sink, byteCount);
+                } catch (IOException e) {
+                    done();
+                    throw e;
+                }
+                if (read == -1) {
+                    done();
+                } else if (bytesRead != null) {
+                    bytesRead.addAndGet(read);
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                done();
+                super.close();
+            }
+
+            private void done() {
+                if (onDone != null) onDone.run();
+            }
+        };
+        return ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source));
+    }
+
+    private static class CallMetrics {
+        final NetworkMetrics.Endpoint endpoint;
+        final long startNanos;
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicBoolean finished = new AtomicBoolean();
+
+        CallMetrics(NetworkMetrics.Endpoint endpoint, long startNanos) {
+            this.endpoint = endpoint;
+            this.startNanos = startNanos;
+        }
+
+        void finish() {
+            if (!finished.compareAndSet(false, true)) return;
+            endpoint.total.record(System.nanoTime() - startNanos);
+            int attemptCount = attempts.get();
+            if (attemptCount > 1) endpoint.followUps.addAndGet(attemptCount - 1);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.ribot.app.data.remote;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import io.ribot.app.data.local.PreferencesHelper;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * For requests with the RibotService.NOT_MODIFIED_HEADER, turns a cached response the server
+ * revalidated with a 304 into an empty 304 response, but only if its validator is the one of the
+ * last response of the resource saved locally. Callers get an HttpException with code 304
+ * instead of the cached body, so they can skip parsing and saving data they already have.
+ * Any other response is returned as it is and its validator is kept as pending in preferences,
+ * the caller marks it as saved once the data is written, see
+ * PreferencesHelper.markValidatorSaved(). If the write fails or never finishes, the next
+ * response is returned with its body again. The header is not sent to the server.
+ */
+public class NotModifiedInterceptor implements Interceptor {
+
+    private final PreferencesHelper mPreferencesHelper;
+
+    public NotModifiedInterceptor(PreferencesHelper preferencesHelper) {
+        mPreferencesHelper = preferencesHelper;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String resource = request.header(RibotService.NOT_MODIFIED_HEADER);
+        if (resource == null) return chain.proceed(request);
+
+        Response response = chain.proceed(request.newBuilder()
+                .removeHeader(RibotService.NOT_MODIFIED_HEADER)
+                .build());
+        String validator = getValidator(response);
+        if (isRevalidated(response) && validator != null &&
+                validator.equals(mPreferencesHelper.getSavedValidator(resource))) {
+            ResponseBody body = response.body();
+            body.close();
+            return response.newBuilder()
+                    .code(HttpURLConnection.HTTP_NOT_MODIFIED)
+                    .message("Not Modified")
+                    .body(ResponseBody.create(body.contentType(), new byte[0]))
+                    .build();
+        }
+        if (response.isSuccessful()) {
+            mPreferencesHelper.putPendingValidator(resource, validator);
+        }
+        return response;
+    }
+
+    // True if the response is from the cache and the server confirmed it's still valid.
+    private static boolean isRevalidated(Response response) {
+        Response networkResponse = response.networkResponse();
+        return response.cacheResponse() != null && networkResponse != null &&
+                networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    @Nullable
+    private static String getValidator(Response response) {
+        String etag = response.header("ETag");
+        return etag != null ? etag : response.header("Last-Modified");
+    }
+}
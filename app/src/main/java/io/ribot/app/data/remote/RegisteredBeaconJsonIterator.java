@@ -0,0 +1,103 @@
+package io.ribot.app.data.remote;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import io.ribot.app.data.model.RegisteredBeacon;
+
+/**
+ * Reads a JSON array of registered beacons one beacon at a time, so the whole array is never
+ * held in memory. Only the fields saved in the database are read, the nested zone is skipped.
+ * The same RegisteredBeacon instance is returned by every call to next(), copy it if it has to
+ * outlive the iteration. Invalid JSON is thrown as JsonSyntaxException and read errors as
+ * JsonIOException. Once the array ends, the reader is read to the end, so a streamed response
+ * is known to be complete.
+ */
+public class RegisteredBeaconJsonIterator implements Iterator<RegisteredBeacon>, Closeable {
+
+    private final JsonReader mReader;
+    private final RegisteredBeacon mBeacon = new RegisteredBeacon();
+    private boolean mArrayStarted;
+    private boolean mArrayEnded;
+
+    public RegisteredBeaconJsonIterator(Reader reader) {
+        mReader = new JsonReader(reader);
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            if (mArrayEnded) return false;
+            if (!mArrayStarted) {
+                mReader.beginArray();
+                mArrayStarted = true;
+            }
+            if (mReader.hasNext()) return true;
+            mReader.endArray();
+            mArrayEnded = true;
+            // Reads up to the end, the reader fails if anything else follows the array
+            mReader.peek();
+            return false;
+        } catch (IOException e) {
+            throw toJsonException(e);
+        }
+    }
+
+    @Override
+    public RegisteredBeacon next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        try {
+            mBeacon.id = null;
+            mBeacon.uuid = null;
+            mBeacon.major = null;
+            mBeacon.minor = null;
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                switch (mReader.nextName()) {
+                    case "id":
+                        mBeacon.id = mReader.nextString();
+                        break;
+                    case "uuid":
+                        mBeacon.uuid = mReader.nextString();
+                        break;
+                    case "major":
+                        mBeacon.major = mReader.nextInt();
+                        break;
+                    case "minor":
+                        mBeacon.minor = mReader.nextInt();
+                        break;
+                    default:
+                        mReader.skipValue();
+                }
+            }
+            mReader.endObject();
+            return mBeacon;
+        } catch (IOException e) {
+            throw toJsonException(e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    // JsonReader reports invalid JSON with an IOException too, but reading it again won't help.
+    private static RuntimeException toJsonException(IOException e) {
+        if (e instanceof MalformedJsonException) return new JsonSyntaxException(e);
+        return new JsonIOException(e);
+    }
+}
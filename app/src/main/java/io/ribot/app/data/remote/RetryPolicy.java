@@ -0,0 +1,187 @@
+package io.ribot.app.data.remote;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrofit2.adapter.rxjava.HttpException;
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Retries failed API requests with exponential backoff and jitter. Apply it with
+ * compose(retryPolicy.<T>forRequest()).
+ * Only errors for which isRetryable() is true are retried, a 4xx response won't succeed by
+ * sending the same request again. All requests using the same policy share a retry budget that
+ * is refilled by successful requests, so when the API is down retries stop instead of
+ * multiplying the load.
+ */
+public class RetryPolicy {
+
+    private final int mMaxRetries;
+    private final long mInitialDelayMillis;
+    private final long mMaxDelayMillis;
+    private final double mJitter;
+    private final RetryBudget mBudget;
+    private final Scheduler mScheduler;
+    private final Random mRandom;
+
+    private RetryPolicy(Builder builder) {
+        mMaxRetries = builder.mMaxRetries;
+        mInitialDelayMillis = builder.mInitialDelayMillis;
+        mMaxDelayMillis = builder.mMaxDelayMillis;
+        mJitter = builder.mJitter;
+        mBudget = new RetryBudget(builder.mBudgetMaxTokens, builder.mBudgetTokensPerSuccess);
+        mScheduler = builder.mScheduler;
+        mRandom = builder.mRandom;
+    }
+
+    /**
+     * Returns true for errors that may not happen again, i.e. network errors and 5xx responses.
+     */
+    public static boolean isRetryable(Throwable error) {
+        // Thrown by the Gson converter as an IOException, but the same body would fail again
+        if (error instanceof MalformedJsonException) return false;
+        if (error instanceof IOException) return true;
+        // Network errors while a response is streamed, invalid JSON is a JsonSyntaxException,
+        // see RegisteredBeaconJsonIterator
+        if (error instanceof JsonIOException && error.getCause() instanceof IOException) {
+            return true;
+        }
+        return error instanceof HttpException && ((HttpException) error).code() >= 500;
+    }
+
+    public <T> Observable.Transformer<T, T> forRequest() {
+        return new Observable.Transformer<T, T>() {
+            @Override
+            public Observable<T> call(Observable<T> request) {
+                return request
+                        .doOnCompleted(new Action0() {
+                            @Override
+                            public void call() {
+                                mBudget.deposit();
+                            }
+                        })
+                        .retryWhen(new Func1<Observable<? extends Throwable>, Observable<?>>() {
+                            @Override
+                            public Observable<?> call(Observable<? extends Throwable> errors) {
+                                return retryOrFail(errors);
+                            }
+                        });
+            }
+        };
+    }
+
+    // Called once per subscription, so the number of retries isn't shared between requests.
+    private Observable<Long> retryOrFail(Observable<? extends Throwable> errors) {
+        final AtomicInteger retries = new AtomicInteger();
+        return errors.flatMap(new Func1<Throwable, Observable<Long>>() {
+            @Override
+            public Observable<Long> call(Throwable error) {
+                int retry = retries.incrementAndGet();
+                // Retrying while the circuit is open would fail straight away again
+                if (retry > mMaxRetries || !isRetryable(error) ||
+                        error instanceof CircuitOpenException || !mBudget.tryWithdraw()) {
+                    return Observable.error(error);
+                }
+                return Observable.timer(getDelayMillis(retry), TimeUnit.MILLISECONDS, mScheduler);
+            }
+        });
+    }
+
+    /**
+     * Returns the delay before the given retry, starting at 1. It doubles with every retry up to
+     * the max delay, and then the jitter takes a random part of it off so clients that failed
+     * at the same time don't retry at the same time.
+     */
+    private long getDelayMillis(int retry) {
+        double delay = mInitialDelayMillis * Math.pow(2, retry - 1);
+        delay = Math.min(delay, mMaxDelayMillis);
+        return (long) (delay * (1 - mJitter * mRandom.nextDouble()));
+    }
+
+    // Each retry takes one token and each success adds a fraction of one, so retries are
+    // limited to a ratio of the successful requests once the initial tokens are spent.
+    private static class RetryBudget {
+        private final double mMaxTokens;
+        private final double mTokensPerSuccess;
+        private double mTokens;
+
+        RetryBudget(double maxTokens, double tokensPerSuccess) {
+            mMaxTokens = maxTokens;
+            mTokensPerSuccess = tokensPerSuccess;
+            mTokens = maxTokens;
+        }
+
+        synchronized boolean tryWithdraw() {
+            if (mTokens < 1) return false;
+            mTokens--;
+            return true;
+        }
+
+        synchronized void deposit() {
+            mTokens = Math.min(mMaxTokens, mTokens + mTokensPerSuccess);
+        }
+    }
+
+    public static class Builder {
+        private int mMaxRetries = 3;
+        private long mInitialDelayMillis = 1000;
+        private long mMaxDelayMillis = 30000;
+        private double mJitter = 0.5;
+        private double mBudgetMaxTokens = 10;
+        private double mBudgetTokensPerSuccess = 0.2;
+        private Scheduler mScheduler = Schedulers.computation();
+        private Random mRandom = new Random();
+
+        public Builder maxRetries(int maxRetries) {
+            mMaxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder delay(long initialDelay, long maxDelay, TimeUnit unit) {
+            mInitialDelayMillis = unit.toMillis(initialDelay);
+            mMaxDelayMillis = unit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * Fraction of every delay, from 0 to 1, that is randomly taken off.
+         */
+        public Builder jitter(double jitter) {
+            mJitter = jitter;
+            return this;
+        }
+
+        /**
+         * Retries that can be done in a row before successful requests have to refill the
+         * budget, and the fraction of a retry each successful request adds to it.
+         */
+        public Builder budget(int maxTokens, double tokensPerSuccess) {
+            mBudgetMaxTokens = maxTokens;
+            mBudgetTokensPerSuccess = tokensPerSuccess;
+            return this;
+        }
+
+        public Builder scheduler(Scheduler scheduler) {
+            mScheduler = scheduler;
+            return this;
+        }
+
+        public Builder random(Random random) {
+            mRandom = random;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -5,16 +5,24 @@ import android.content.Context;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import java.io.File;
+import java.util.Date;
 import java.util.List;
 
 import io.ribot.app.BuildConfig;
+import io.ribot.app.data.local.PreferencesHelper;
+import io.ribot.app.data.local.SessionHelper;
 import io.ribot.app.data.model.CheckIn;
 import io.ribot.app.data.model.CheckInRequest;
 import io.ribot.app.data.model.Encounter;
-import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.data.model.Iso8601DateAdapter;
+import io.ribot.app.data.model.ModelTypeAdapterFactory;
 import io.ribot.app.data.model.Ribot;
 import io.ribot.app.data.model.Venue;
+import okhttp3.Cache;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
 import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
@@ -22,63 +30,110 @@ import retrofit2.converter.gson.GsonConverterFactory;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
 import retrofit2.http.Header;
+import retrofit2.http.Headers;
 import retrofit2.http.POST;
 import retrofit2.http.PUT;
 import retrofit2.http.Path;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 import rx.Observable;
 
 public interface RibotService {
 
     String ENDPOINT = "https://api.ribot.io/";
+    // Added to every request by AuthorizationInterceptor while there is a session.
     String AUTH_HEADER = "Authorization";
+    // Lets the API ignore a write it already received when the request is retried.
+    String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    // Requests with this header fail with a 304 HttpException if the server confirms the
+    // response last saved locally is still valid, see NotModifiedInterceptor. Its value names
+    // the resource the saved response is tracked under.
+    String NOT_MODIFIED_HEADER = "X-Not-Modified-As-Error";
+    String RESOURCE_RIBOTS = "ribots";
+    String RESOURCE_VENUES = "venues";
+    String RESOURCE_REGISTERED_BEACONS = "beacons";
 
     @POST("auth/sign-in")
     Observable<SignInResponse> signIn(@Body SignInRequest signInRequest);
 
+    @Headers(NOT_MODIFIED_HEADER + ": " + RESOURCE_RIBOTS)
     @GET("ribots")
-    Observable<List<Ribot>> getRibots(@Header(AUTH_HEADER) String authorization,
-                                      @Query("embed") String embed);
+    Observable<List<Ribot>> getRibots(@Query("embed") String embed);
 
+    @Headers(NOT_MODIFIED_HEADER + ": " + RESOURCE_VENUES)
     @GET("venues")
-    Observable<List<Venue>> getVenues(@Header(AUTH_HEADER) String authorization);
+    Observable<List<Venue>> getVenues();
 
     @POST("check-ins")
-    Observable<CheckIn> checkIn(@Header(AUTH_HEADER) String authorization,
+    Observable<CheckIn> checkIn(@Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
                                 @Body CheckInRequest checkInRequest);
 
     @PUT("check-ins/{checkInId}")
-    Observable<CheckIn> updateCheckIn(@Header(AUTH_HEADER) String authorization,
+    Observable<CheckIn> updateCheckIn(@Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
                                       @Path("checkInId") String checkInId,
                                       @Body UpdateCheckInRequest updateCheckInRequest);
 
     @POST("/beacons/{beaconId}/encounters")
-    Observable<Encounter> performBeaconEncounter(@Header(AUTH_HEADER) String authorization,
-                                    @Path("beaconId") String beaconId);
-
+    Observable<Encounter> performBeaconEncounter(
+            @Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+            @Path("beaconId") String beaconId);
+
+    /**
+     * The body is the JSON array of registered beacons. It's not buffered so it can be read
+     * while it downloads with RegisteredBeaconJsonIterator.
+     */
+    @Streaming
+    @Headers(NOT_MODIFIED_HEADER + ": " + RESOURCE_REGISTERED_BEACONS)
     @GET("/beacons")
-    Observable<List<RegisteredBeacon>> getRegisteredBeacons(
-            @Header(AUTH_HEADER) String authorization);
+    Observable<ResponseBody> getRegisteredBeacons();
 
 
     /******** Factory class that sets up a new ribot services *******/
     class Factory {
 
-        public static RibotService makeRibotService(Context context) {
+        public static final String HTTP_CACHE_DIR = "http";
+        public static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
+
+        public static Cache makeHttpCache(Context context) {
+            return new Cache(new File(context.getCacheDir(), HTTP_CACHE_DIR), HTTP_CACHE_SIZE);
+        }
+
+        public static RibotService makeRibotService(Context context, Cache httpCache,
+                                                    SessionHelper sessionHelper,
+                                                    PreferencesHelper preferencesHelper,
+                                                    NetworkMetrics networkMetrics) {
+            return makeRibotService(makeOkHttpClientBuilder(context, httpCache, sessionHelper,
+                    preferencesHelper, networkMetrics).build(),
+                    HttpUrl.parse(RibotService.ENDPOINT));
+        }
+
+        public static OkHttpClient.Builder makeOkHttpClientBuilder(
+                Context context, Cache httpCache, SessionHelper sessionHelper,
+                PreferencesHelper preferencesHelper, NetworkMetrics networkMetrics) {
+            // Bodies are not logged, logging them buffers the whole response and would defeat
+            // the streaming of getRegisteredBeacons() in debug builds.
             HttpLoggingInterceptor logging = new HttpLoggingInterceptor();
-            logging.setLevel(BuildConfig.DEBUG ? HttpLoggingInterceptor.Level.BODY
+            logging.setLevel(BuildConfig.DEBUG ? HttpLoggingInterceptor.Level.HEADERS
                     : HttpLoggingInterceptor.Level.NONE);
+            NetworkMetricsInterceptor metrics = new NetworkMetricsInterceptor(networkMetrics);
 
-            OkHttpClient okHttpClient = new OkHttpClient.Builder()
+            return new OkHttpClient.Builder()
+                    .cache(httpCache)
+                    .addInterceptor(metrics)
+                    .addInterceptor(new AuthorizationInterceptor(sessionHelper))
+                    .addInterceptor(new NotModifiedInterceptor(preferencesHelper))
                     .addInterceptor(new UnauthorisedInterceptor(context))
                     .addInterceptor(logging)
-                    .build();
+                    .addNetworkInterceptor(metrics.getNetworkInterceptor());
+        }
 
+        public static RibotService makeRibotService(OkHttpClient okHttpClient, HttpUrl endpoint) {
             Gson gson = new GsonBuilder()
-                    .setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+                    .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+                    .registerTypeAdapter(Date.class, new Iso8601DateAdapter())
                     .create();
             Retrofit retrofit = new Retrofit.Builder()
-                    .baseUrl(RibotService.ENDPOINT)
+                    .baseUrl(endpoint)
                     .client(okHttpClient)
                     .addConverterFactory(GsonConverterFactory.create(gson))
                     .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
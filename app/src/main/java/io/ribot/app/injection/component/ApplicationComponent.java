@@ -21,6 +21,7 @@ import io.ribot.app.injection.module.ApplicationModule;
 import io.ribot.app.service.AutoCheckInService;
 import io.ribot.app.service.BeaconsSyncService;
 import io.ribot.app.service.BootCompletedReceiver;
+import io.ribot.app.service.PrefetchService;
 
 @Singleton
 @Component(modules = ApplicationModule.class)
@@ -30,6 +31,7 @@ public interface ApplicationComponent {
     void inject(UnauthorisedInterceptor unauthorisedInterceptor);
     void inject(AutoCheckInService autoCheckInService);
     void inject(BeaconsSyncService beaconsSyncService);
+    void inject(PrefetchService prefetchService);
     void inject(BootCompletedReceiver bootCompletedReceiver);
 
     @ApplicationContext Context context();
@@ -10,8 +10,15 @@ import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import io.ribot.app.data.local.PreferencesHelper;
+import io.ribot.app.data.local.SessionHelper;
+import io.ribot.app.data.remote.CircuitBreaker;
+import io.ribot.app.data.remote.CircuitBreakingRibotService;
+import io.ribot.app.data.remote.NetworkMetrics;
+import io.ribot.app.data.remote.RetryPolicy;
 import io.ribot.app.data.remote.RibotService;
 import io.ribot.app.injection.ApplicationContext;
+import okhttp3.Cache;
 
 /**
  * Provide application-level dependencies. Mainly singleton object that can be injected from
@@ -44,8 +51,25 @@ public class ApplicationModule {
 
     @Provides
     @Singleton
-    RibotService provideRibotService() {
-        return RibotService.Factory.makeRibotService(mApplication);
+    Cache provideHttpCache() {
+        return RibotService.Factory.makeHttpCache(mApplication);
+    }
+
+    @Provides
+    @Singleton
+    RibotService provideRibotService(Cache httpCache, SessionHelper sessionHelper,
+                                     PreferencesHelper preferencesHelper,
+                                     NetworkMetrics networkMetrics,
+                                     CircuitBreaker circuitBreaker) {
+        RibotService ribotService = RibotService.Factory.makeRibotService(mApplication,
+                httpCache, sessionHelper, preferencesHelper, networkMetrics);
+        return new CircuitBreakingRibotService(ribotService, circuitBreaker);
+    }
+
+    @Provides
+    @Singleton
+    RetryPolicy provideRetryPolicy() {
+        return new RetryPolicy.Builder().build();
     }
 
     @Provides
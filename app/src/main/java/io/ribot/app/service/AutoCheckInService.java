@@ -1,46 +1,60 @@
 package io.ribot.app.service;
 
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 
 import com.estimote.sdk.Beacon;
 import com.estimote.sdk.BeaconManager;
 import com.estimote.sdk.Region;
-import com.estimote.sdk.Utils;
 import com.squareup.otto.Bus;
 import com.squareup.otto.Subscribe;
 
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
 import io.ribot.app.RibotApplication;
 import io.ribot.app.data.BusEvent;
 import io.ribot.app.data.DataManager;
+import io.ribot.app.data.local.RegisteredBeaconIndex;
 import io.ribot.app.data.model.CheckIn;
 import io.ribot.app.data.model.Encounter;
 import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.data.remote.CircuitBreaker;
 import io.ribot.app.util.AndroidComponentUtil;
+import io.ribot.app.util.BeaconSignalFilter;
 import io.ribot.app.util.DateUtil;
+import io.ribot.app.util.EncounterStateMachine;
+import io.ribot.app.util.RegionReconciler;
+import io.ribot.app.util.ScanScheduler;
+import rx.Observable;
 import rx.Subscriber;
 import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action1;
-import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
 public class AutoCheckInService extends Service implements
         BeaconManager.ServiceReadyCallback,
         BeaconManager.MonitoringListener,
-        BeaconManager.RangingListener {
+        BeaconManager.RangingListener,
+        EncounterStateMachine.Callback<RegisteredBeacon> {
+
+    private static final long SCAN_PERIODS_UPDATE_MINUTES = 15;
+    // Roughly when the system sends ACTION_BATTERY_LOW
+    private static final int BATTERY_LOW_PERCENT = 15;
 
     private BeaconManager mBeaconManager;
     private RegisteredBeacon mLatestEncounterBeacon;
@@ -48,10 +62,21 @@ public class AutoCheckInService extends Service implements
     private String mLatestEncounterCheckInId;
     private Subscription mCheckInSubscription;
     private Subscription mBeaconsUuidSubscription;
-    private Set<String> mMonitoredRegionsUuids;
+    private Subscription mBeaconIndexSubscription;
+    // Used to find the registered beacon of a ranged beacon without allocating. It's empty until
+    // loaded, ranged beacons are ignored until then.
+    private RegisteredBeaconIndex mBeaconIndex = RegisteredBeaconIndex.EMPTY;
+    private RegionReconciler mRegionReconciler;
+    private BeaconSignalFilter mSignalFilter;
+    private EncounterStateMachine<RegisteredBeacon> mEncounterStateMachine;
+    private RegisteredBeacon mNearestBeacon;
+    private ScanScheduler mScanScheduler;
+    private ScanScheduler.ScanPeriods mScanPeriods;
+    private Subscription mScanPeriodsSubscription;
 
     @Inject Bus mBus;
     @Inject DataManager mDataManager;
+    @Inject CircuitBreaker mCircuitBreaker;
 
     public static Intent getStartIntent(Context context) {
         return new Intent(context, AutoCheckInService.class);
@@ -66,12 +91,33 @@ public class AutoCheckInService extends Service implements
         super.onCreate();
         RibotApplication.get(this).getComponent().inject(this);
         mBus.register(this);
-        mMonitoredRegionsUuids = new HashSet<>();
+        mRegionReconciler = new RegionReconciler(mRegionReconcilerCallback);
+        RegisteredBeacon latestEncounterBeacon = getLatestEncounterBeacon();
+        if (latestEncounterBeacon != null) {
+            // Keeps monitoring the region the user was last seen in if there are too many
+            mRegionReconciler.onRegionUsed(latestEncounterBeacon.uuid,
+                    SystemClock.elapsedRealtime());
+        }
+        mSignalFilter = new BeaconSignalFilter();
+        mEncounterStateMachine = new EncounterStateMachine<>(this);
         mBeaconManager = new BeaconManager(this);
         mBeaconManager.setMonitoringListener(this);
         mBeaconManager.setRangingListener(this);
-        mBeaconManager.setForegroundScanPeriod(5000, 150000); // Scan during 5s every 2.5min
-        mBeaconManager.setBackgroundScanPeriod(10000, 300000); // Scan during 10s every 5min
+        mScanScheduler = new ScanScheduler();
+        mScanScheduler.setBatteryLow(isBatteryLow());
+        IntentFilter batteryFilter = new IntentFilter(Intent.ACTION_BATTERY_LOW);
+        batteryFilter.addAction(Intent.ACTION_BATTERY_OKAY);
+        registerReceiver(mBatteryReceiver, batteryFilter);
+        updateScanPeriods();
+        // Scan periods also change with time, e.g. at the end of office hours
+        mScanPeriodsSubscription = Observable.interval(SCAN_PERIODS_UPDATE_MINUTES,
+                TimeUnit.MINUTES, AndroidSchedulers.mainThread())
+                .subscribe(new Action1<Long>() {
+                    @Override
+                    public void call(Long tick) {
+                        updateScanPeriods();
+                    }
+                });
     }
 
     @Override
@@ -85,9 +131,12 @@ public class AutoCheckInService extends Service implements
         Timber.i("Destroying AutoCheckInService and disconnecting BeaconManager");
         if (mCheckInSubscription != null) mCheckInSubscription.unsubscribe();
         if (mBeaconsUuidSubscription != null) mBeaconsUuidSubscription.unsubscribe();
+        if (mBeaconIndexSubscription != null) mBeaconIndexSubscription.unsubscribe();
+        mScanPeriodsSubscription.unsubscribe();
+        unregisterReceiver(mBatteryReceiver);
         mBeaconManager.disconnect();
         mBeaconManager = null;
-        mMonitoredRegionsUuids = null;
+        mRegionReconciler = null;
         mBus.unregister(this);
         super.onDestroy();
     }
@@ -101,8 +150,9 @@ public class AutoCheckInService extends Service implements
     @Subscribe
     public void onBeaconsSyncCompleted(BusEvent.BeaconsSyncCompleted event) {
         Timber.i("Beacons sync completed, refreshing monitoring regions...");
-        // Connect will trigger a call to startMonitoringRegisteredBeaconUuids() that will
-        // start monitoring any new beacon saved after the sync.
+        // Connect will trigger a call to reconcileMonitoredRegions() that will start monitoring
+        // any new beacon UUID saved after the sync and stop monitoring the ones removed, and to
+        // loadBeaconIndex() so the new beacons can be encountered.
         mBeaconManager.connect(this);
     }
 
@@ -115,7 +165,8 @@ public class AutoCheckInService extends Service implements
 
     @Override
     public void onServiceReady() {
-        startMonitoringRegisteredBeaconUuids();
+        reconcileMonitoredRegions();
+        loadBeaconIndex();
     }
 
     /******** BeaconManager.MonitoringListener Implementation  ********/
@@ -124,17 +175,24 @@ public class AutoCheckInService extends Service implements
     public void onEnteredRegion(Region region, List<Beacon> list) {
         Timber.i("Entered region %s. Starting ranging...", region.getIdentifier());
         mBeaconManager.startRanging(region);
+        mRegionReconciler.onRegionUsed(region.getProximityUUID().toString(),
+                SystemClock.elapsedRealtime());
+        mScanScheduler.onActivity();
+        updateScanPeriods();
     }
 
     @Override
     public void onExitedRegion(Region region) {
         Timber.i("Exited region %s. Stopping ranging...", region.getIdentifier());
         mBeaconManager.stopRanging(region);
+        mScanScheduler.onActivity();
+        updateScanPeriods();
 
         RegisteredBeacon latestEncounterBeacon = getLatestEncounterBeacon();
         if (latestEncounterBeacon != null &&
                 latestEncounterBeacon.uuid.equalsIgnoreCase(region.getProximityUUID().toString())) {
-            performCheckOutLatestEncounter();
+            // Sent once the request in flight, if any, finishes, see EncounterStateMachine
+            mEncounterStateMachine.onCheckOut();
         }
     }
 
@@ -144,86 +202,195 @@ public class AutoCheckInService extends Service implements
     public void onBeaconsDiscovered(Region region, List<Beacon> list) {
         Timber.i("Beacons discovered in region %s are %d ", region.getIdentifier(), list.size());
         for (Beacon beacon : list) {
-            Timber.i(beacon.toString());
+            Timber.i("%s", beacon);
         }
         Beacon nearestBeacon = calculateNearestBeacon(list);
-        if (nearestBeacon == null) return;
+        Timber.i("Nearest beacon is %s", nearestBeacon);
+        RegisteredBeacon nearestRegisteredBeacon = findRegisteredBeacon(nearestBeacon);
+        if (nearestRegisteredBeacon != null && !nearestRegisteredBeacon.equals(mNearestBeacon)) {
+            // Scan more often while the user moves between zones
+            mScanScheduler.onActivity();
+        }
+        mNearestBeacon = nearestRegisteredBeacon;
+        updateScanPeriods();
+        // The state machine decides when the nearest beacon is stable enough to encounter it
+        mEncounterStateMachine.onNearestBeacon(nearestRegisteredBeacon,
+                SystemClock.elapsedRealtime());
+    }
+
+    /******** EncounterStateMachine.Callback Implementation ********/
 
-        Timber.i("Nearest beacon is " + nearestBeacon);
-        if (isSameAsTodayLatestEncounter(nearestBeacon)) {
+    @Override
+    public boolean performEncounter(RegisteredBeacon beacon) {
+        if (isSameAsTodayLatestEncounter(beacon)) {
             Timber.i("Skipping encounter. Beacon is same as today's latest successful encounter");
-        } else {
-            performEncounter(nearestBeacon);
+            return false;
         }
+        if (!mCircuitBreaker.allowsRequest(CircuitBreaker.Group.ENCOUNTERS)) {
+            // Encounters are retried on the next ranging cycle once the API is back
+            Timber.i("Skipping encounter. API is failing, circuit is open");
+            return false;
+        }
+        sendEncounter(beacon);
+        return true;
+    }
+
+    @Override
+    public boolean performCheckOut() {
+        String checkInId = getLatestEncounterCheckInId();
+        if (checkInId == null) {
+            Timber.e("Cannot check-out because latest encounter check-in ID is null");
+            return false;
+        }
+        sendCheckOut(checkInId);
+        return true;
     }
 
     /******** Helper methods ********/
 
+    private void updateScanPeriods() {
+        ScanScheduler.ScanPeriods scanPeriods = mScanScheduler.getScanPeriods();
+        if (scanPeriods.equals(mScanPeriods)) return;
+        Timber.i("Changing scan periods to %s", scanPeriods);
+        mScanPeriods = scanPeriods;
+        mBeaconManager.setForegroundScanPeriod(scanPeriods.foregroundScanMillis,
+                scanPeriods.foregroundWaitMillis);
+        mBeaconManager.setBackgroundScanPeriod(scanPeriods.backgroundScanMillis,
+                scanPeriods.backgroundWaitMillis);
+    }
+
+    // The battery changed broadcast is sticky, so its latest value is returned straight away.
+    private boolean isBatteryLow() {
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) return false;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 && level * 100 / scale <= BATTERY_LOW_PERCENT;
+    }
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mScanScheduler.setBatteryLow(Intent.ACTION_BATTERY_LOW.equals(intent.getAction()));
+            updateScanPeriods();
+        }
+    };
+
+    // Compares the beacons by their smoothed RSSI relative to their measured power at 1m, which
+    // is what Utils.computeAccuracy() estimates the distance from. A 0 RSSI is an invalid sample.
     @Nullable
     private Beacon calculateNearestBeacon(Collection<Beacon> beacons) {
+        long now = SystemClock.elapsedRealtime();
         Beacon nearestBeacon = null;
-        Double shortestDistance = null;
+        double shortestDistanceRatio = 0;
         for (Beacon beacon : beacons) {
-            double distance = Utils.computeAccuracy(beacon);
-            if (nearestBeacon != null) {
-                if (distance < shortestDistance) {
-                    nearestBeacon = beacon;
-                    shortestDistance = distance;
-                }
-            } else {
+            if (beacon.getRssi() == 0 || beacon.getMeasuredPower() == 0) continue;
+            double rssi = mSignalFilter.filter(beacon.getProximityUUID(), beacon.getMajor(),
+                    beacon.getMinor(), beacon.getRssi(), now);
+            double distanceRatio = rssi / beacon.getMeasuredPower();
+            if (nearestBeacon == null || distanceRatio < shortestDistanceRatio) {
                 nearestBeacon = beacon;
-                shortestDistance = distance;
+                shortestDistanceRatio = distanceRatio;
             }
         }
         return nearestBeacon;
     }
 
-    private void startMonitoringRegisteredBeaconUuids() {
+    // Looks the beacon up by the bits of its UUID, so ranging doesn't format the UUID as a
+    // string for every cycle. Returns null if the beacon is null or not registered.
+    @Nullable
+    private RegisteredBeacon findRegisteredBeacon(@Nullable Beacon beacon) {
+        if (beacon == null) return null;
+        UUID uuid = beacon.getProximityUUID();
+        return mBeaconIndex.find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                beacon.getMajor(), beacon.getMinor());
+    }
+
+    private void loadBeaconIndex() {
+        if (mBeaconIndexSubscription != null) mBeaconIndexSubscription.unsubscribe();
+        mBeaconIndexSubscription = mDataManager.getRegisteredBeaconIndex()
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<RegisteredBeaconIndex>() {
+                    @Override
+                    public void call(RegisteredBeaconIndex index) {
+                        mBeaconIndex = index;
+                        Timber.i("Loaded %d registered beacons", index.size());
+                    }
+                }, new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable e) {
+                        Timber.e(e, "Error loading registered beacons");
+                    }
+                });
+    }
+
+    private void reconcileMonitoredRegions() {
         // Each region we monitor matches a Venue in the API
         // All the beacons within the same Venue (region) have the same UUID an different
         // major/minor.
         if (mBeaconsUuidSubscription != null) mBeaconsUuidSubscription.unsubscribe();
         mBeaconsUuidSubscription = mDataManager.findRegisteredBeaconsUuids()
+                .toList()
                 .subscribeOn(Schedulers.io())
-                        // Filter UUIDs that match regions already being monitored
-                .filter(new Func1<String, Boolean>() {
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<List<String>>() {
                     @Override
-                    public Boolean call(String uuid) {
-                        boolean isAlreadyMonitoring = mMonitoredRegionsUuids.contains(uuid);
-                        if (isAlreadyMonitoring) {
-                            Timber.i("Skipping region with uuid %s. Already monitoring.", uuid);
-                        }
-                        return !isAlreadyMonitoring;
+                    public void call(List<String> uuids) {
+                        mRegionReconciler.reconcile(uuids);
+                        Timber.i("Monitoring %d regions", mRegionReconciler
+                                .getMonitoredUuids().size());
                     }
-                })
-                .subscribe(new Action1<String>() {
+                }, new Action1<Throwable>() {
                     @Override
-                    public void call(String uuid) {
-                        Timber.i("Starting monitoring region with UUID %s", uuid);
-                        Region region = new Region("region-" + uuid, UUID.fromString(uuid),
-                                null, null);
-                        mBeaconManager.startMonitoring(region);
-                        mMonitoredRegionsUuids.add(region.getProximityUUID().toString());
-                        // Possibly needs stopping monitoring of regions that not longer exit
+                    public void call(Throwable e) {
+                        Timber.e(e, "Error reading registered beacon UUIDs");
                     }
                 });
     }
 
-    private void performEncounter(Beacon beacon) {
+    // The reconciler passes lower case UUIDs, so the same UUID always has the same region.
+    private final RegionReconciler.Callback mRegionReconcilerCallback =
+            new RegionReconciler.Callback() {
+                @Override
+                public void startMonitoring(String uuid) {
+                    Timber.i("Starting monitoring region with UUID %s", uuid);
+                    mBeaconManager.startMonitoring(createRegion(uuid));
+                }
+
+                @Override
+                public void stopMonitoring(String uuid) {
+                    Timber.i("Stopping monitoring region with UUID %s", uuid);
+                    Region region = createRegion(uuid);
+                    mBeaconManager.stopRanging(region);
+                    mBeaconManager.stopMonitoring(region);
+                }
+            };
+
+    private static Region createRegion(String uuid) {
+        return new Region("region-" + uuid, UUID.fromString(uuid), null, null);
+    }
+
+    // EncounterStateMachine only sends a request when none is in flight, so the subscription
+    // is never replaced before it finishes. Results are observed on the main thread, where the
+    // state machine is called from.
+    private void sendEncounter(RegisteredBeacon beacon) {
         Timber.i("Performing encounter...");
-        if (mCheckInSubscription != null) mCheckInSubscription.unsubscribe();
-        mCheckInSubscription = mDataManager.performBeaconEncounter(
-                beacon.getProximityUUID().toString(), beacon.getMajor(), beacon.getMinor())
+        mCheckInSubscription = mDataManager.performBeaconEncounter(beacon.id)
                 .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Subscriber<Encounter>() {
                     @Override
                     public void onCompleted() {
-
+                        mEncounterStateMachine.onEncounterFinished(true,
+                                SystemClock.elapsedRealtime());
                     }
 
                     @Override
                     public void onError(Throwable e) {
                         Timber.e(e, "Performing encounter failed");
+                        mEncounterStateMachine.onEncounterFinished(false,
+                                SystemClock.elapsedRealtime());
                     }
 
                     @Override
@@ -231,6 +398,8 @@ public class AutoCheckInService extends Service implements
                         mLatestEncounterBeacon = encounter.beacon;
                         mLatestEncounterDate = encounter.encounterDate;
                         mLatestEncounterCheckInId = encounter.checkIn.id;
+                        mRegionReconciler.onRegionUsed(encounter.beacon.uuid,
+                                SystemClock.elapsedRealtime());
                         Timber.i("Encounter performed correctly at %s, %s" +
                                         " for beacon %s, major: %d, minor %d",
                                 encounter.beacon.zone.label,
@@ -242,26 +411,22 @@ public class AutoCheckInService extends Service implements
                 });
     }
 
-    private void performCheckOutLatestEncounter() {
+    private void sendCheckOut(String checkInId) {
         Timber.i("Checking out...");
-        String checkInId = getLatestEncounterCheckInId();
-        if (checkInId == null) {
-            Timber.e("Cannot check-out because latest encounter check-in ID is null");
-            return;
-        }
-        if (mCheckInSubscription != null) mCheckInSubscription.unsubscribe();
         mCheckInSubscription = mDataManager.checkOut(checkInId)
-                .retry(3)
                 .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Subscriber<CheckIn>() {
                     @Override
                     public void onCompleted() {
                         Timber.i("Checked out successfully!");
+                        mEncounterStateMachine.onCheckOutFinished(SystemClock.elapsedRealtime());
                     }
 
                     @Override
                     public void onError(Throwable e) {
                         Timber.e(e, "There was an error checking out");
+                        mEncounterStateMachine.onCheckOutFinished(SystemClock.elapsedRealtime());
                     }
 
                     @Override
@@ -299,15 +464,14 @@ public class AutoCheckInService extends Service implements
         return mLatestEncounterCheckInId;
     }
 
-    private boolean isSameAsTodayLatestEncounter(Beacon beacon) {
+    private boolean isSameAsTodayLatestEncounter(RegisteredBeacon beacon) {
         Date latestEncounterDate = getLatestEncounterDate();
         RegisteredBeacon latestEncounterBeacon = getLatestEncounterBeacon();
         if (latestEncounterDate != null && latestEncounterBeacon != null &&
                 DateUtil.isToday(latestEncounterDate.getTime())) {
-            return latestEncounterBeacon.hasSameUuidMajorMinor(beacon.getProximityUUID().toString(),
-                    beacon.getMajor(), beacon.getMinor());
+            return latestEncounterBeacon.hasSameUuidMajorMinor(beacon.uuid, beacon.major,
+                    beacon.minor);
         }
         return false;
     }
-
 }
@@ -10,23 +10,46 @@ import javax.inject.Inject;
 
 import io.ribot.app.RibotApplication;
 import io.ribot.app.data.DataManager;
+import io.ribot.app.data.remote.CircuitBreaker;
 import io.ribot.app.util.AndroidComponentUtil;
 import io.ribot.app.util.NetworkUtil;
+import rx.Observable;
 import rx.Subscriber;
 import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
+/**
+ * Replays the writes left in the outbox and then syncs the registered beacons. If there is no
+ * connection, it runs again when the connection is available.
+ */
 public class BeaconsSyncService extends Service {
 
+    private static final String EXTRA_OUTBOX_ONLY = "io.ribot.app.service.EXTRA_OUTBOX_ONLY";
+
     @Inject DataManager mDataManager;
+    @Inject CircuitBreaker mCircuitBreaker;
 
     private Subscription mSubscription;
+    // Set when the service is started while a sync is running, to sync again after it.
+    private boolean mSyncPending;
+    // Whether the pending sync only replays the outbox, false if any of the starts was a sync.
+    private boolean mPendingOutboxOnly;
+    private int mLastStartId;
 
     public static Intent getStartIntent(Context context) {
         return new Intent(context, BeaconsSyncService.class);
     }
 
+    /**
+     * Intent to only replay the outbox, without syncing the beacons.
+     */
+    public static Intent getReplayOutboxIntent(Context context) {
+        return getStartIntent(context).putExtra(EXTRA_OUTBOX_ONLY, true);
+    }
+
     public static boolean isRunning(Context context) {
         return AndroidComponentUtil.isServiceRunning(context, BeaconsSyncService.class);
     }
@@ -48,20 +71,54 @@ public class BeaconsSyncService extends Service {
             return START_NOT_STICKY;
         }
 
-        if (mSubscription != null && !mSubscription.isUnsubscribed()) mSubscription.unsubscribe();
-        mSubscription = mDataManager.syncRegisteredBeacons()
+        boolean outboxOnly = intent != null && intent.getBooleanExtra(EXTRA_OUTBOX_ONLY, false);
+        mLastStartId = startId;
+        if (mSubscription != null && !mSubscription.isUnsubscribed()) {
+            // The running sync is never cancelled, e.g. by an outbox replay requested after a
+            // network error, the sync runs again once it finishes.
+            Timber.i("Sync already running, syncing again once it finishes");
+            mPendingOutboxOnly = mSyncPending ? mPendingOutboxOnly && outboxOnly : outboxOnly;
+            mSyncPending = true;
+            return START_STICKY;
+        }
+        sync(outboxOnly);
+        return START_STICKY;
+    }
+
+    private void sync(boolean outboxOnly) {
+        if (!outboxOnly && !mCircuitBreaker.allowsRequest(CircuitBreaker.Group.BEACONS)) {
+            // The beacons are synced again on the next start once the circuit lets requests in
+            Timber.i("Skipping beacons sync, API is failing and the circuit is open");
+            outboxOnly = true;
+        }
+        Observable<Void> replayOutbox = mDataManager.replayOutbox()
+                .onErrorResumeNext(new Func1<Throwable, Observable<Void>>() {
+                    @Override
+                    public Observable<Void> call(Throwable e) {
+                        Timber.w(e, "Error replaying outbox, retrying on next connection.");
+                        AndroidComponentUtil.toggleComponent(BeaconsSyncService.this,
+                                SyncOnConnectionAvailable.class, true);
+                        return Observable.empty();
+                    }
+                });
+
+        // Results are observed on the main thread, where onStartCommand() checks the sync.
+        mSubscription = replayOutbox
+                .concatWith(outboxOnly ? Observable.<Void>empty()
+                        : mDataManager.syncRegisteredBeacons())
                 .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Subscriber<Void>() {
                     @Override
                     public void onCompleted() {
                         Timber.i("Synced successfully!");
-                        stopSelf(startId);
+                        onSyncFinished();
                     }
 
                     @Override
                     public void onError(Throwable e) {
                         Timber.w(e, "Error syncing.");
-                        stopSelf(startId);
+                        onSyncFinished();
                     }
 
                     @Override
@@ -69,8 +126,15 @@ public class BeaconsSyncService extends Service {
 
                     }
                 });
+    }
 
-        return START_STICKY;
+    private void onSyncFinished() {
+        if (mSyncPending) {
+            mSyncPending = false;
+            sync(mPendingOutboxOnly);
+        } else {
+            stopSelf(mLastStartId);
+        }
     }
 
     @Override
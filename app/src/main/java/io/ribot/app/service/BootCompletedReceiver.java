@@ -19,7 +19,7 @@ public class BootCompletedReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         RibotApplication.get(context).getComponent().inject(this);
-        if (mDataManager.getPreferencesHelper().getAccessToken() != null) {
+        if (mDataManager.getSessionHelper().isActive()) {
             context.startService(AutoCheckInService.getStartIntent(context));
         }
     }
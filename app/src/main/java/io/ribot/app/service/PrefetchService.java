@@ -0,0 +1,116 @@
+package io.ribot.app.service;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.List;
+
+import javax.inject.Inject;
+
+import io.ribot.app.RibotApplication;
+import io.ribot.app.data.DataManager;
+import io.ribot.app.data.model.Ribot;
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Started when the user signs in. It syncs the data the first screens need with
+ * DataManager.prefetch() and downloads the ribots' avatars into the image disk cache while the
+ * welcome screen is displayed, so the team screen opens with everything in place.
+ */
+public class PrefetchService extends Service {
+
+    @Inject DataManager mDataManager;
+
+    private Subscription mSubscription;
+
+    public static Intent getStartIntent(Context context) {
+        return new Intent(context, PrefetchService.class);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        RibotApplication.get(this).getComponent().inject(this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, final int startId) {
+        Timber.i("Starting prefetch...");
+        if (mSubscription != null && !mSubscription.isUnsubscribed()) mSubscription.unsubscribe();
+        mSubscription = mDataManager.prefetch()
+                .onErrorResumeNext(new Func1<Throwable, Observable<Void>>() {
+                    @Override
+                    public Observable<Void> call(Throwable e) {
+                        // The screens sync again on demand, warm the avatars of what was saved
+                        Timber.w(e, "Error prefetching");
+                        return Observable.empty();
+                    }
+                })
+                .concatWith(warmAvatars())
+                .subscribeOn(Schedulers.io())
+                .subscribe(new Subscriber<Void>() {
+                    @Override
+                    public void onCompleted() {
+                        Timber.i("Prefetch completed");
+                        stopSelf(startId);
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        Timber.w(e, "Error warming avatars");
+                        stopSelf(startId);
+                    }
+
+                    @Override
+                    public void onNext(Void aVoid) {
+
+                    }
+                });
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mSubscription != null) mSubscription.unsubscribe();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    // Glide downloads the avatars in the background, they don't need to finish before stopping.
+    private Observable<Void> warmAvatars() {
+        return mDataManager.getRibots()
+                .first()
+                .flatMapIterable(new Func1<List<Ribot>, Iterable<Ribot>>() {
+                    @Override
+                    public Iterable<Ribot> call(List<Ribot> ribots) {
+                        return ribots;
+                    }
+                })
+                .doOnNext(new Action1<Ribot>() {
+                    @Override
+                    public void call(Ribot ribot) {
+                        if (ribot.profile.avatar == null) return;
+                        Glide.with(getApplicationContext())
+                                .load(ribot.profile.avatar)
+                                .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL);
+                    }
+                })
+                .ignoreElements()
+                .cast(Void.class);
+    }
+}
@@ -19,7 +19,7 @@ public class LauncherActivity extends BaseActivity {
         super.onCreate(savedInstanceState);
         activityComponent().inject(this);
         Intent intent;
-        if (mDataManager.getPreferencesHelper().getAccessToken() != null) {
+        if (mDataManager.getSessionHelper().isActive()) {
             intent = MainActivity.getStartIntent(this, false);
         } else {
             intent = SignInActivity.getStartIntent(this, false);
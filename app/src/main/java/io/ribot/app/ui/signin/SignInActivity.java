@@ -29,6 +29,7 @@ import butterknife.OnClick;
 import io.ribot.app.R;
 import io.ribot.app.data.DataManager;
 import io.ribot.app.data.model.Profile;
+import io.ribot.app.service.PrefetchService;
 import io.ribot.app.ui.WelcomeActivity;
 import io.ribot.app.ui.base.BaseActivity;
 import io.ribot.app.util.DialogFactory;
@@ -177,6 +178,8 @@ public class SignInActivity extends BaseActivity implements SignInMvpView {
 
     @Override
     public void onSignInSuccessful(Profile signedInProfile) {
+        // Fetch the data of the first screens while the welcome screen is displayed
+        startService(PrefetchService.getStartIntent(this));
         // We only want to show the welcome screen for 2 seconds
         Intent intent = WelcomeActivity.newStartIntent(this, signedInProfile, 2000);
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
@@ -9,6 +9,7 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -44,6 +45,8 @@ public class RibotAdapter extends RecyclerView.Adapter<RibotAdapter.RibotHolder>
         holder.name.setText(ribot.profile.name.first);
         Glide.with(holder.itemView.getContext())
                 .load(ribot.profile.avatar)
+                // Also reads the original images downloaded by PrefetchService
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
                 .centerCrop()
                 .placeholder(R.drawable.profile_placeholder_large)
                 .into(holder.avatar);
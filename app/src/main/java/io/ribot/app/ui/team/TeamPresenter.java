@@ -9,7 +9,6 @@ import javax.inject.Inject;
 import io.ribot.app.data.DataManager;
 import io.ribot.app.data.model.Ribot;
 import io.ribot.app.ui.base.Presenter;
-import rx.Observable;
 import rx.Subscriber;
 import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
@@ -19,9 +18,11 @@ import timber.log.Timber;
 public class TeamPresenter implements Presenter<TeamMvpView> {
 
     private final DataManager mDataManager;
-    public Subscription mSubscription;
+    private Subscription mRibotsSubscription;
+    private Subscription mSyncSubscription;
     private TeamMvpView mMvpView;
-    private List<Ribot> mCachedRibots;
+    private List<Ribot> mRibots;
+    private boolean mSynced;
 
     @Inject
     public TeamPresenter(DataManager dataManager) {
@@ -36,27 +37,51 @@ public class TeamPresenter implements Presenter<TeamMvpView> {
     @Override
     public void detachView() {
         mMvpView = null;
-        if (mSubscription != null) mSubscription.unsubscribe();
-    }
-
-    public void loadRibots() {
-        loadRibots(false);
+        if (mRibotsSubscription != null) mRibotsSubscription.unsubscribe();
+        if (mSyncSubscription != null) mSyncSubscription.unsubscribe();
+        mRibotsSubscription = null;
     }
 
     /**
-     * Load the list of Ribots
-     * @param allowMemoryCacheVersion if true a cached version will be returned from memory,
-     *                                unless nothing is cached yet. Use false if you want an up
-     *                                to date version of the ribots.
+     * Load the list of Ribots. The ribots saved locally are displayed straight away while
+     * they are refreshed from the API. The list updates itself when the refresh finishes.
      */
-    public void loadRibots(boolean allowMemoryCacheVersion) {
+    public void loadRibots() {
         mMvpView.showRibotProgress(true);
-        if (mSubscription != null) mSubscription.unsubscribe();
-        mSubscription = getRibotsObservable(allowMemoryCacheVersion)
-                .subscribe(new Subscriber<List<Ribot>>() {
+        // The subscription is unsubscribed if it failed, so loading again subscribes again
+        if (mRibotsSubscription == null || mRibotsSubscription.isUnsubscribed()) {
+            mRibotsSubscription = mDataManager.getRibots()
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribeOn(Schedulers.io())
+                    .subscribe(new Subscriber<List<Ribot>>() {
+                        @Override
+                        public void onCompleted() {
+
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            Timber.e("There was an error loading the saved ribots " + e);
+                            mMvpView.showRibotProgress(false);
+                            mMvpView.showRibotsError();
+                        }
+
+                        @Override
+                        public void onNext(List<Ribot> ribots) {
+                            showRibots(ribots);
+                        }
+                    });
+        }
+        if (mSyncSubscription != null) mSyncSubscription.unsubscribe();
+        mSyncSubscription = mDataManager.syncRibots()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeOn(Schedulers.io())
+                .subscribe(new Subscriber<Void>() {
                     @Override
                     public void onCompleted() {
+                        mSynced = true;
                         mMvpView.showRibotProgress(false);
+                        if (mRibots != null && mRibots.isEmpty()) mMvpView.showEmptyMessage();
                     }
 
                     @Override
@@ -67,25 +92,20 @@ public class TeamPresenter implements Presenter<TeamMvpView> {
                     }
 
                     @Override
-                    public void onNext(List<Ribot> ribots) {
-                        mCachedRibots = ribots;
-                        if (!ribots.isEmpty()) {
-                            Collections.sort(ribots);
-                            mMvpView.showRibots(ribots);
-                        } else {
-                            mMvpView.showEmptyMessage();
-                        }
+                    public void onNext(Void aVoid) {
+
                     }
                 });
     }
 
-    private Observable<List<Ribot>> getRibotsObservable(boolean allowMemoryCacheVersion) {
-        if (allowMemoryCacheVersion && mCachedRibots != null) {
-            return Observable.just(mCachedRibots);
-        } else {
-            return mDataManager.getRibots()
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribeOn(Schedulers.io());
+    private void showRibots(List<Ribot> ribots) {
+        mRibots = ribots;
+        if (!ribots.isEmpty()) {
+            Collections.sort(ribots);
+            mMvpView.showRibots(ribots);
+        } else if (mSynced) {
+            // Only show the empty message once we know the API has no ribots either
+            mMvpView.showEmptyMessage();
         }
     }
 }
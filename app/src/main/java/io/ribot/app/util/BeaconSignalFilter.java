@@ -0,0 +1,126 @@
+package io.ribot.app.util;
+
+import java.util.UUID;
+
+/**
+ * Smooths the RSSI of each beacon, keyed by uuid, major and minor, with a one dimensional
+ * Kalman filter, so a single noisy sample doesn't make another beacon look like the nearest.
+ * The uncertainty of an estimate grows with the time since the beacon was last seen, so the
+ * filter follows real changes after a pause in scanning faster than after a short interval.
+ * State is kept in primitive arrays of a fixed capacity. Beacons not seen for longer than the
+ * stale time start again from their next sample, and when all the slots are taken the beacon
+ * seen least recently is evicted. Lookups scan the arrays, which is cheap for the few tens of
+ * beacons seen at once. It's not thread-safe.
+ */
+public class BeaconSignalFilter {
+
+    public static final int DEFAULT_CAPACITY = 32;
+    public static final long DEFAULT_STALE_MILLIS = 10 * 60 * 1000;
+    // Variances, in squared dBm, of the RSSI change per second and of a single RSSI sample.
+    public static final double DEFAULT_PROCESS_NOISE = 0.05;
+    public static final double DEFAULT_MEASUREMENT_NOISE = 16;
+
+    private final long mStaleMillis;
+    private final double mProcessNoise;
+    private final double mMeasurementNoise;
+    private final long[] mUuidMostSigBits;
+    private final long[] mUuidLeastSigBits;
+    private final long[] mMajorMinors;
+    private final long[] mLastSeenMillis;
+    private final boolean[] mOccupied;
+    private final double[] mEstimates;
+    private final double[] mVariances;
+    private int mSize;
+
+    public BeaconSignalFilter() {
+        this(DEFAULT_CAPACITY, DEFAULT_STALE_MILLIS, DEFAULT_PROCESS_NOISE,
+                DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    public BeaconSignalFilter(int capacity, long staleMillis, double processNoise,
+                              double measurementNoise) {
+        mStaleMillis = staleMillis;
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+        mUuidMostSigBits = new long[capacity];
+        mUuidLeastSigBits = new long[capacity];
+        mMajorMinors = new long[capacity];
+        mLastSeenMillis = new long[capacity];
+        mOccupied = new boolean[capacity];
+        mEstimates = new double[capacity];
+        mVariances = new double[capacity];
+    }
+
+    /**
+     * Adds an RSSI sample of the beacon taken at the given time and returns its smoothed RSSI.
+     * Times must come from a monotonic clock, e.g. SystemClock.elapsedRealtime().
+     */
+    public double filter(UUID uuid, int major, int minor, int rssi, long nowMillis) {
+        long mostSigBits = uuid.getMostSignificantBits();
+        long leastSigBits = uuid.getLeastSignificantBits();
+        long majorMinor = packMajorMinor(major, minor);
+        int slot = find(mostSigBits, leastSigBits, majorMinor);
+        if (slot < 0 || nowMillis - mLastSeenMillis[slot] > mStaleMillis) {
+            if (slot < 0) slot = takeSlot(nowMillis);
+            mUuidMostSigBits[slot] = mostSigBits;
+            mUuidLeastSigBits[slot] = leastSigBits;
+            mMajorMinors[slot] = majorMinor;
+            mLastSeenMillis[slot] = nowMillis;
+            mEstimates[slot] = rssi;
+            mVariances[slot] = mMeasurementNoise;
+            return rssi;
+        }
+
+        double elapsedSeconds = Math.max(0, nowMillis - mLastSeenMillis[slot]) / 1000d;
+        double variance = mVariances[slot] + mProcessNoise * elapsedSeconds;
+        double gain = variance / (variance + mMeasurementNoise);
+        mEstimates[slot] += gain * (rssi - mEstimates[slot]);
+        mVariances[slot] = (1 - gain) * variance;
+        mLastSeenMillis[slot] = nowMillis;
+        return mEstimates[slot];
+    }
+
+    /**
+     * Returns the number of beacons with a smoothed RSSI, including stale ones not evicted yet.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mOccupied.length; i++) {
+            mOccupied[i] = false;
+        }
+        mSize = 0;
+    }
+
+    private int find(long mostSigBits, long leastSigBits, long majorMinor) {
+        for (int i = 0; i < mOccupied.length; i++) {
+            if (mOccupied[i] && mMajorMinors[i] == majorMinor &&
+                    mUuidLeastSigBits[i] == leastSigBits && mUuidMostSigBits[i] == mostSigBits) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns a free slot, reusing the one of a stale beacon or evicting the least recent one
+    // if there are none left.
+    private int takeSlot(long nowMillis) {
+        int leastRecent = 0;
+        for (int i = 0; i < mOccupied.length; i++) {
+            if (!mOccupied[i]) {
+                mOccupied[i] = true;
+                mSize++;
+                return i;
+            }
+            if (nowMillis - mLastSeenMillis[i] > mStaleMillis) return i;
+            if (mLastSeenMillis[i] < mLastSeenMillis[leastRecent]) leastRecent = i;
+        }
+        return leastRecent;
+    }
+
+    private static long packMajorMinor(int major, int minor) {
+        return ((long) major << 32) | (minor & 0xffffffffL);
+    }
+}
@@ -15,4 +15,16 @@ public class DateUtil {
                 calendar.get(Calendar.MONTH) == todayMonth &&
                 calendar.get(Calendar.DAY_OF_MONTH) == todayDay;
     }
+
+    /**
+     * Returns the local day of the given time as an int in the format yyyyMMdd, e.g. 20160521.
+     * Day keys keep the chronological order so they can be compared and used in ranges.
+     */
+    public static int dayKey(long timeMilliseconds) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMilliseconds);
+        return calendar.get(Calendar.YEAR) * 10000 +
+                (calendar.get(Calendar.MONTH) + 1) * 100 +
+                calendar.get(Calendar.DAY_OF_MONTH);
+    }
 }
@@ -0,0 +1,208 @@
+package io.ribot.app.util;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Decides when to send an encounter or a check-out from the nearest beacon of every ranging
+ * cycle, so a beacon is only encountered once the user has settled near it.
+ * The candidate is the beacon that has been the nearest one in at least N of the last M ranging
+ * cycles, the most often nearest if there are several, so a cycle with another nearest beacon
+ * doesn't replace it. The candidate is encountered once:
+ * 1. It has been the candidate for at least the dwell time, counted from its oldest cycle in the
+ * window when it became the candidate.
+ * 2. The minimum interval has passed since the previous encounter was sent.
+ * 3. It's not the beacon of the latest successful encounter, unless there was a check-out since.
+ * Only one request is in flight at a time and none is ever cancelled. While one is in flight
+ * a confirmed encounter is queued, replacing any encounter queued before, and an encounter of
+ * the beacon in flight is dropped. A check-out is queued too and drops the queued encounter.
+ * Once the request in flight finishes, the queued check-out is sent first, otherwise the queued
+ * encounter if its beacon is still the candidate and the minimum interval has passed.
+ * Keys identify beacons with equals(). Times must come from a monotonic clock. It's not
+ * thread-safe, all the calls have to be made from the same thread.
+ */
+public class EncounterStateMachine<K> {
+
+    public static final int DEFAULT_CONFIRMATIONS = 2;
+    public static final int DEFAULT_WINDOW = 3;
+    public static final long DEFAULT_DWELL_MILLIS = 30 * 1000;
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 60 * 1000;
+
+    /**
+     * Sends the requests. They return false if the request wasn't sent, e.g. because the API is
+     * failing, otherwise onEncounterFinished() or onCheckOutFinished() must be called once it
+     * finishes. An encounter that wasn't sent is decided again on the next ranging cycle.
+     */
+    public interface Callback<K> {
+        boolean performEncounter(K beacon);
+
+        boolean performCheckOut();
+    }
+
+    private enum Request {
+        NONE, ENCOUNTER, CHECK_OUT
+    }
+
+    private final Callback<K> mCallback;
+    private final int mConfirmations;
+    private final long mDwellMillis;
+    private final long mMinIntervalMillis;
+    // Nearest beacons of the last ranging cycles, in a ring buffer. Null if there was none.
+    private final Object[] mWindow;
+    private final long[] mWindowMillis;
+    private int mWindowPosition;
+
+    @Nullable private K mCandidate;
+    private long mCandidateSinceMillis;
+    @Nullable private K mEncounteredBeacon;
+    private long mLastEncounterMillis;
+    private boolean mHasEncountered;
+    private Request mInFlight = Request.NONE;
+    @Nullable private K mInFlightBeacon;
+    @Nullable private K mQueuedBeacon;
+    private boolean mCheckOutQueued;
+
+    public EncounterStateMachine(Callback<K> callback) {
+        this(callback, DEFAULT_CONFIRMATIONS, DEFAULT_WINDOW, DEFAULT_DWELL_MILLIS,
+                DEFAULT_MIN_INTERVAL_MILLIS);
+    }
+
+    public EncounterStateMachine(Callback<K> callback, int confirmations, int window,
+                                 long dwellMillis, long minIntervalMillis) {
+        mCallback = callback;
+        mConfirmations = confirmations;
+        mDwellMillis = dwellMillis;
+        mMinIntervalMillis = minIntervalMillis;
+        mWindow = new Object[window];
+        mWindowMillis = new long[window];
+    }
+
+    /**
+     * Adds the nearest beacon of a ranging cycle, null if there was none. It may perform an
+     * encounter.
+     */
+    public void onNearestBeacon(@Nullable K nearest, long nowMillis) {
+        mWindow[mWindowPosition] = nearest;
+        mWindowMillis[mWindowPosition] = nowMillis;
+        mWindowPosition = (mWindowPosition + 1) % mWindow.length;
+        K majority = findMajority();
+        if (majority == null ? mCandidate != null : !majority.equals(mCandidate)) {
+            mCandidate = majority;
+            mCandidateSinceMillis = majority != null ? findOldestMillis(majority) : nowMillis;
+        }
+        if (!isCandidateConfirmed(nowMillis)) return;
+
+        if (mInFlight != Request.NONE) {
+            if (mInFlight == Request.ENCOUNTER && mCandidate.equals(mInFlightBeacon)) return;
+            if (!mCheckOutQueued) mQueuedBeacon = mCandidate;
+            return;
+        }
+        if (hasMinIntervalPassed(nowMillis)) performEncounter(mCandidate, nowMillis);
+    }
+
+    /**
+     * Performs a check-out now, or once the request in flight finishes.
+     */
+    public void onCheckOut() {
+        mQueuedBeacon = null;
+        if (mInFlight != Request.NONE) {
+            mCheckOutQueued = true;
+            return;
+        }
+        performCheckOut();
+    }
+
+    public void onEncounterFinished(boolean successful, long nowMillis) {
+        if (successful) mEncounteredBeacon = mInFlightBeacon;
+        mInFlightBeacon = null;
+        onRequestFinished(nowMillis);
+    }
+
+    public void onCheckOutFinished(long nowMillis) {
+        onRequestFinished(nowMillis);
+    }
+
+    public boolean isRequestInFlight() {
+        return mInFlight != Request.NONE;
+    }
+
+    private void onRequestFinished(long nowMillis) {
+        mInFlight = Request.NONE;
+        if (mCheckOutQueued) {
+            mCheckOutQueued = false;
+            performCheckOut();
+            return;
+        }
+        K queuedBeacon = mQueuedBeacon;
+        mQueuedBeacon = null;
+        if (queuedBeacon != null && queuedBeacon.equals(mCandidate) &&
+                isCandidateConfirmed(nowMillis) && hasMinIntervalPassed(nowMillis)) {
+            performEncounter(queuedBeacon, nowMillis);
+        }
+    }
+
+    private boolean hasMinIntervalPassed(long nowMillis) {
+        return !mHasEncountered || nowMillis - mLastEncounterMillis >= mMinIntervalMillis;
+    }
+
+    private boolean isCandidateConfirmed(long nowMillis) {
+        if (mCandidate == null || mCandidate.equals(mEncounteredBeacon)) return false;
+        return nowMillis - mCandidateSinceMillis >= mDwellMillis;
+    }
+
+    // Returns the beacon nearest in at least N cycles of the window and more often than any
+    // other, or null if there is none. Ties go to the candidate, then to the most recent.
+    @Nullable
+    private K findMajority() {
+        K majority = null;
+        int majorityCount = 0;
+        for (int i = 1; i <= mWindow.length; i++) {
+            K beacon = beaconAt((mWindowPosition - i + mWindow.length) % mWindow.length);
+            if (beacon == null) continue;
+            int count = 0;
+            for (Object other : mWindow) {
+                if (beacon.equals(other)) count++;
+            }
+            if (count > majorityCount ||
+                    (count == majorityCount && beacon.equals(mCandidate))) {
+                majority = beacon;
+                majorityCount = count;
+            }
+        }
+        return majorityCount >= mConfirmations ? majority : null;
+    }
+
+    // Time of the oldest cycle in the window the beacon was the nearest in.
+    private long findOldestMillis(K beacon) {
+        for (int i = 0; i < mWindow.length; i++) {
+            int position = (mWindowPosition + i) % mWindow.length;
+            if (beacon.equals(mWindow[position])) return mWindowMillis[position];
+        }
+        throw new IllegalStateException("Beacon not in the window " + beacon);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private K beaconAt(int position) {
+        return (K) mWindow[position];
+    }
+
+    // The request is marked in flight before it's sent in case it finishes straight away.
+    private void performEncounter(K beacon, long nowMillis) {
+        mInFlight = Request.ENCOUNTER;
+        mInFlightBeacon = beacon;
+        if (!mCallback.performEncounter(beacon)) {
+            mInFlight = Request.NONE;
+            mInFlightBeacon = null;
+            return;
+        }
+        mLastEncounterMillis = nowMillis;
+        mHasEncountered = true;
+    }
+
+    private void performCheckOut() {
+        // The next encounter of the same beacon starts a new check-in
+        mEncounteredBeacon = null;
+        mInFlight = Request.CHECK_OUT;
+        if (!mCallback.performCheckOut()) mInFlight = Request.NONE;
+    }
+}
@@ -0,0 +1,108 @@
+package io.ribot.app.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the monitored beacon regions, one per UUID, in line with the registered beacons.
+ * reconcile() starts monitoring the regions of new UUIDs and stops monitoring the ones no longer
+ * registered. At most a maximum number of regions are monitored, as every region is scanned for
+ * in each cycle; if there are more UUIDs, the most recently used regions are kept.
+ * UUIDs are compared ignoring case. It's not thread-safe.
+ */
+public class RegionReconciler {
+
+    public static final int DEFAULT_MAX_REGIONS = 20;
+
+    public interface Callback {
+        void startMonitoring(String uuid);
+
+        void stopMonitoring(String uuid);
+    }
+
+    private final Callback mCallback;
+    private final int mMaxRegions;
+    private final Set<String> mMonitoredUuids = new LinkedHashSet<>();
+    private final Map<String, Long> mLastUsedMillis = new HashMap<>();
+
+    public RegionReconciler(Callback callback) {
+        this(callback, DEFAULT_MAX_REGIONS);
+    }
+
+    public RegionReconciler(Callback callback, int maxRegions) {
+        mCallback = callback;
+        mMaxRegions = maxRegions;
+    }
+
+    /**
+     * Records that the region was used, e.g. entered or encountered, to rank it when there are
+     * more UUIDs than the maximum number of regions.
+     */
+    public void onRegionUsed(String uuid, long nowMillis) {
+        mLastUsedMillis.put(normalize(uuid), nowMillis);
+    }
+
+    /**
+     * Starts and stops monitoring regions so the ones monitored are the registered UUIDs, or the
+     * most recently used of them if there are too many.
+     */
+    public void reconcile(Collection<String> registeredUuids) {
+        Set<String> registered = new LinkedHashSet<>(registeredUuids.size());
+        for (String uuid : registeredUuids) {
+            registered.add(normalize(uuid));
+        }
+        mLastUsedMillis.keySet().retainAll(registered);
+
+        List<String> ranked = new ArrayList<>(registered);
+        Collections.sort(ranked, mByRecentUse);
+        Set<String> wanted =
+                new LinkedHashSet<>(ranked.subList(0, Math.min(ranked.size(), mMaxRegions)));
+
+        Iterator<String> iterator = mMonitoredUuids.iterator();
+        while (iterator.hasNext()) {
+            String uuid = iterator.next();
+            if (!wanted.contains(uuid)) {
+                iterator.remove();
+                mCallback.stopMonitoring(uuid);
+            }
+        }
+        for (String uuid : wanted) {
+            if (mMonitoredUuids.add(uuid)) mCallback.startMonitoring(uuid);
+        }
+    }
+
+    public Set<String> getMonitoredUuids() {
+        return Collections.unmodifiableSet(mMonitoredUuids);
+    }
+
+    // Most recently used first, then the ones never used. Ties are sorted by UUID.
+    private final Comparator<String> mByRecentUse = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            Long lhsLastUsed = mLastUsedMillis.get(lhs);
+            Long rhsLastUsed = mLastUsedMillis.get(rhs);
+            if (lhsLastUsed != null && rhsLastUsed != null) {
+                int compare = Long.compare(rhsLastUsed, lhsLastUsed);
+                if (compare != 0) return compare;
+            } else if (lhsLastUsed != null) {
+                return -1;
+            } else if (rhsLastUsed != null) {
+                return 1;
+            }
+            return lhs.compareTo(rhs);
+        }
+    };
+
+    private static String normalize(String uuid) {
+        return uuid.toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,154 @@
+package io.ribot.app.util;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Chooses how often beacons are scanned for from what the user has been doing. It keeps the
+ * time of the latest activity, i.e. entering a region or a change of nearest beacon, and
+ * whether the battery is low, and a Policy turns them into scan periods. The scheduler is only
+ * used as a clock, so tests can control the time with a TestScheduler.
+ * The service start counts as activity, the user may be arriving when the service starts.
+ */
+public class ScanScheduler {
+
+    public interface Policy {
+        /**
+         * Returns the scan periods for the local time now, the time since the latest activity
+         * and the battery level.
+         */
+        ScanPeriods getScanPeriods(Calendar now, long millisSinceActivity, boolean batteryLow);
+    }
+
+    private final Policy mPolicy;
+    private final Scheduler mClock;
+    private final TimeZone mTimeZone;
+    private long mLastActivityMillis;
+    private boolean mBatteryLow;
+
+    public ScanScheduler() {
+        this(new AdaptivePolicy(), Schedulers.computation(), TimeZone.getDefault());
+    }
+
+    public ScanScheduler(Policy policy, Scheduler clock, TimeZone timeZone) {
+        mPolicy = policy;
+        mClock = clock;
+        mTimeZone = timeZone;
+        mLastActivityMillis = clock.now();
+    }
+
+    public void onActivity() {
+        mLastActivityMillis = mClock.now();
+    }
+
+    public void setBatteryLow(boolean batteryLow) {
+        mBatteryLow = batteryLow;
+    }
+
+    public ScanPeriods getScanPeriods() {
+        long now = mClock.now();
+        Calendar calendar = Calendar.getInstance(mTimeZone);
+        calendar.setTimeInMillis(now);
+        return mPolicy.getScanPeriods(calendar, now - mLastActivityMillis, mBatteryLow);
+    }
+
+    /**
+     * Scans often for a few minutes after any activity, so a check-in follows the user closely
+     * while moving around, and then less and less often while the user stays in the same zone.
+     * Outside office hours, unless there was recent activity, and when the battery is low the
+     * time between scans is longer.
+     */
+    public static class AdaptivePolicy implements Policy {
+
+        public static final long ACTIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+        public static final long SETTLED_MILLIS = TimeUnit.MINUTES.toMillis(30);
+        public static final int OFFICE_HOURS_START = 8;
+        public static final int OFFICE_HOURS_END = 19;
+        public static final int OUTSIDE_OFFICE_HOURS_WAIT_MULTIPLIER = 4;
+        public static final int BATTERY_LOW_WAIT_MULTIPLIER = 2;
+
+        static final ScanPeriods ACTIVE = new ScanPeriods(5000, 15000, 10000, 30000);
+        static final ScanPeriods DEFAULT = new ScanPeriods(5000, 150000, 10000, 300000);
+        static final ScanPeriods SETTLED = new ScanPeriods(5000, 300000, 10000, 600000);
+
+        @Override
+        public ScanPeriods getScanPeriods(Calendar now, long millisSinceActivity,
+                                          boolean batteryLow) {
+            ScanPeriods periods;
+            if (millisSinceActivity < ACTIVE_MILLIS) {
+                periods = ACTIVE;
+            } else if (!isOfficeHours(now)) {
+                periods = DEFAULT.withWaitMultipliedBy(OUTSIDE_OFFICE_HOURS_WAIT_MULTIPLIER);
+            } else if (millisSinceActivity < SETTLED_MILLIS) {
+                periods = DEFAULT;
+            } else {
+                periods = SETTLED;
+            }
+            if (batteryLow) periods = periods.withWaitMultipliedBy(BATTERY_LOW_WAIT_MULTIPLIER);
+            return periods;
+        }
+
+        // Monday to Friday, from 8:00 to 19:00.
+        static boolean isOfficeHours(Calendar now) {
+            int dayOfWeek = now.get(Calendar.DAY_OF_WEEK);
+            int hour = now.get(Calendar.HOUR_OF_DAY);
+            return dayOfWeek != Calendar.SATURDAY && dayOfWeek != Calendar.SUNDAY &&
+                    hour >= OFFICE_HOURS_START && hour < OFFICE_HOURS_END;
+        }
+    }
+
+    /**
+     * How long to scan for and how long to wait between scans, with the app in the foreground
+     * and in the background, as given to BeaconManager.
+     */
+    public static final class ScanPeriods {
+        public final long foregroundScanMillis;
+        public final long foregroundWaitMillis;
+        public final long backgroundScanMillis;
+        public final long backgroundWaitMillis;
+
+        public ScanPeriods(long foregroundScanMillis, long foregroundWaitMillis,
+                           long backgroundScanMillis, long backgroundWaitMillis) {
+            this.foregroundScanMillis = foregroundScanMillis;
+            this.foregroundWaitMillis = foregroundWaitMillis;
+            this.backgroundScanMillis = backgroundScanMillis;
+            this.backgroundWaitMillis = backgroundWaitMillis;
+        }
+
+        public ScanPeriods withWaitMultipliedBy(int multiplier) {
+            return new ScanPeriods(foregroundScanMillis, foregroundWaitMillis * multiplier,
+                    backgroundScanMillis, backgroundWaitMillis * multiplier);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ScanPeriods that = (ScanPeriods) o;
+            return foregroundScanMillis == that.foregroundScanMillis &&
+                    foregroundWaitMillis == that.foregroundWaitMillis &&
+                    backgroundScanMillis == that.backgroundScanMillis &&
+                    backgroundWaitMillis == that.backgroundWaitMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (foregroundScanMillis ^ (foregroundScanMillis >>> 32));
+            result = 31 * result + (int) (foregroundWaitMillis ^ (foregroundWaitMillis >>> 32));
+            result = 31 * result + (int) (backgroundScanMillis ^ (backgroundScanMillis >>> 32));
+            result = 31 * result + (int) (backgroundWaitMillis ^ (backgroundWaitMillis >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("foreground scan %dms wait %dms, background scan %dms wait %dms",
+                    foregroundScanMillis, foregroundWaitMillis, backgroundScanMillis,
+                    backgroundWaitMillis);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package io.ribot.app.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+
+/**
+ * Shares one in-flight Observable per key among all its concurrent subscribers, so the same
+ * request started twice, e.g. by a refresh while it's already running, only does the work once.
+ * Subscribers that join late receive the items already emitted. The source is unsubscribed when
+ * the last subscriber leaves, and once it terminates the next subscription starts it again.
+ */
+public class SingleFlight {
+
+    private final Map<String, Observable<?>> mInFlight = new HashMap<>();
+
+    /**
+     * Returns an Observable that, when subscribed, joins the in-flight Observable for the key or
+     * starts a new one created by the factory.
+     */
+    public <T> Observable<T> share(final String key, final Func0<Observable<T>> factory) {
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                return getOrStart(key, factory);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Observable<T> getOrStart(final String key,
+                                                      Func0<Observable<T>> factory) {
+        Observable<T> inFlight = (Observable<T>) mInFlight.get(key);
+        if (inFlight != null) return inFlight;
+
+        final AtomicReference<Observable<T>> started = new AtomicReference<>();
+        Action0 forget = new Action0() {
+            @Override
+            public void call() {
+                forget(key, started.get());
+            }
+        };
+        started.set(factory.call()
+                .doOnUnsubscribe(forget)
+                .doAfterTerminate(forget)
+                .replay()
+                .refCount());
+        mInFlight.put(key, started.get());
+        return started.get();
+    }
+
+    private synchronized void forget(String key, Observable<?> observable) {
+        if (mInFlight.get(key) == observable) mInFlight.remove(key);
+    }
+}
@@ -0,0 +1,95 @@
+package io.ribot.app;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import io.ribot.app.util.BeaconSignalFilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BeaconSignalFilterTest {
+
+    static final UUID UUID_1 = UUID.fromString("B9407F30-F5F8-466E-AFF9-25556B57FE6D");
+    static final UUID UUID_2 = UUID.fromString("D0D3FA86-CA76-45EC-9BD9-6AF4A1A6D1E5");
+    static final long STALE_MILLIS = 60000;
+
+    BeaconSignalFilter mFilter;
+
+    @Before
+    public void setUp() {
+        mFilter = new BeaconSignalFilter(2, STALE_MILLIS,
+                BeaconSignalFilter.DEFAULT_PROCESS_NOISE,
+                BeaconSignalFilter.DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    @Test
+    public void firstSampleIsNotSmoothed() {
+        assertEquals(-70, mFilter.filter(UUID_1, 1, 1, -70, 0), 0);
+        assertEquals(1, mFilter.size());
+    }
+
+    @Test
+    public void smoothsNoisySamples() {
+        double min = 0;
+        double max = -100;
+        for (int i = 0; i < 60; i++) {
+            int rssi = i % 2 == 0 ? -60 : -80;
+            double filtered = mFilter.filter(UUID_1, 1, 1, rssi, i * 1000);
+            if (i < 10) continue;
+            min = Math.min(min, filtered);
+            max = Math.max(max, filtered);
+        }
+        // Samples jump 20 dBm while the filtered RSSI stays around the mean
+        assertTrue(max - min < 5);
+        assertTrue(min > -75 && max < -65);
+    }
+
+    @Test
+    public void followsChangesFasterAfterLongerIntervals() {
+        BeaconSignalFilter otherFilter = new BeaconSignalFilter();
+        for (int i = 0; i < 10; i++) {
+            mFilter.filter(UUID_1, 1, 1, -80, i * 1000);
+            otherFilter.filter(UUID_1, 1, 1, -80, i * 1000);
+        }
+        double afterShortInterval = mFilter.filter(UUID_1, 1, 1, -60, 10000);
+        double afterLongInterval = otherFilter.filter(UUID_1, 1, 1, -60, 50000);
+
+        assertTrue(afterShortInterval > -80);
+        assertTrue(afterLongInterval > afterShortInterval);
+    }
+
+    @Test
+    public void filtersEachBeaconSeparately() {
+        mFilter.filter(UUID_1, 1, 1, -60, 0);
+        mFilter.filter(UUID_1, 1, 2, -90, 0);
+
+        assertTrue(mFilter.filter(UUID_1, 1, 1, -60, 1000) > -61);
+        assertTrue(mFilter.filter(UUID_1, 1, 2, -90, 1000) < -89);
+        assertEquals(2, mFilter.size());
+    }
+
+    @Test
+    public void staleBeaconStartsAgain() {
+        mFilter.filter(UUID_1, 1, 1, -90, 0);
+        mFilter.filter(UUID_1, 1, 1, -90, 1000);
+
+        assertEquals(-60, mFilter.filter(UUID_1, 1, 1, -60, 1000 + STALE_MILLIS + 1), 0);
+        assertEquals(1, mFilter.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlySeenBeaconWhenFull() {
+        mFilter.filter(UUID_1, 1, 1, -90, 0);
+        mFilter.filter(UUID_2, 1, 1, -90, 1000);
+        mFilter.filter(UUID_1, 1, 1, -90, 2000);
+        // Takes the slot of UUID_2, seen least recently
+        mFilter.filter(UUID_2, 2, 2, -60, 3000);
+
+        assertEquals(2, mFilter.size());
+        assertTrue(mFilter.filter(UUID_1, 1, 1, -90, 4000) < -89);
+        assertEquals(-60, mFilter.filter(UUID_2, 1, 1, -60, 4000), 0);
+    }
+}
@@ -0,0 +1,206 @@
+package io.ribot.app;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ribot.app.data.remote.CircuitBreaker;
+import io.ribot.app.data.remote.CircuitBreaker.Group;
+import io.ribot.app.data.remote.CircuitBreaker.State;
+import io.ribot.app.data.remote.CircuitOpenException;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import retrofit2.Response;
+import retrofit2.adapter.rxjava.HttpException;
+import rx.Observable;
+import rx.functions.Func0;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long OPEN_SECONDS = 60;
+
+    TestScheduler mScheduler;
+    CircuitBreaker mCircuitBreaker;
+    AtomicInteger mRequests;
+
+    @Before
+    public void setUp() {
+        mScheduler = new TestScheduler();
+        mCircuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_SECONDS, TimeUnit.SECONDS,
+                mScheduler);
+        mRequests = new AtomicInteger();
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailuresAndFailsFast() {
+        failRequests(Group.ENCOUNTERS, FAILURE_THRESHOLD - 1);
+        assertEquals(State.CLOSED, mCircuitBreaker.getState(Group.ENCOUNTERS));
+
+        failRequests(Group.ENCOUNTERS, 1);
+        assertEquals(State.OPEN, mCircuitBreaker.getState(Group.ENCOUNTERS));
+        assertFalse(mCircuitBreaker.allowsRequest(Group.ENCOUNTERS));
+
+        mRequests.set(0);
+        TestSubscriber<String> testSubscriber = send(Group.ENCOUNTERS, successfulRequest());
+        testSubscriber.assertError(CircuitOpenException.class);
+        assertEquals(0, mRequests.get());
+    }
+
+    @Test
+    public void circuitsAreIndependentPerGroup() {
+        failRequests(Group.ENCOUNTERS, FAILURE_THRESHOLD);
+
+        assertEquals(State.OPEN, mCircuitBreaker.getState(Group.ENCOUNTERS));
+        assertEquals(State.CLOSED, mCircuitBreaker.getState(Group.CHECK_INS));
+        send(Group.CHECK_INS, successfulRequest()).assertCompleted();
+    }
+
+    @Test
+    public void successResetsFailures() {
+        failRequests(Group.BEACONS, FAILURE_THRESHOLD - 1);
+        send(Group.BEACONS, successfulRequest()).assertCompleted();
+        failRequests(Group.BEACONS, FAILURE_THRESHOLD - 1);
+
+        assertEquals(State.CLOSED, mCircuitBreaker.getState(Group.BEACONS));
+    }
+
+    @Test
+    public void clientErrorsDoNotCount() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            send(Group.CHECK_INS, Observable.<String>error(newHttpException(404)))
+                    .assertError(HttpException.class);
+        }
+        assertEquals(State.CLOSED, mCircuitBreaker.getState(Group.CHECK_INS));
+    }
+
+    @Test
+    public void halfOpenLetsOneRequestThroughAndClosesOnSuccess() {
+        failRequests(Group.VENUES, FAILURE_THRESHOLD);
+        mScheduler.advanceTimeBy(OPEN_SECONDS, TimeUnit.SECONDS);
+        assertTrue(mCircuitBreaker.allowsRequest(Group.VENUES));
+
+        PublishSubject<String> trial = PublishSubject.create();
+        TestSubscriber<String> trialSubscriber = send(Group.VENUES, trial);
+        assertEquals(State.HALF_OPEN, mCircuitBreaker.getState(Group.VENUES));
+        assertFalse(mCircuitBreaker.allowsRequest(Group.VENUES));
+        // Other requests fail fast while the trial request is in flight
+        send(Group.VENUES, successfulRequest()).assertError(CircuitOpenException.class);
+
+        trial.onNext("response");
+        trial.onCompleted();
+        trialSubscriber.assertCompleted();
+        assertEquals(State.CLOSED, mCircuitBreaker.getState(Group.VENUES));
+        send(Group.VENUES, successfulRequest()).assertCompleted();
+    }
+
+    @Test
+    public void halfOpenReopensOnFailure() {
+        failRequests(Group.RIBOTS, FAILURE_THRESHOLD);
+        mScheduler.advanceTimeBy(OPEN_SECONDS, TimeUnit.SECONDS);
+
+        failRequests(Group.RIBOTS, 1);
+        assertEquals(State.OPEN, mCircuitBreaker.getState(Group.RIBOTS));
+        mScheduler.advanceTimeBy(OPEN_SECONDS - 1, TimeUnit.SECONDS);
+        assertFalse(mCircuitBreaker.allowsRequest(Group.RIBOTS));
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        assertTrue(mCircuitBreaker.allowsRequest(Group.RIBOTS));
+    }
+
+    @Test
+    public void unsubscribedTrialLetsAnotherRequestThrough() {
+        failRequests(Group.AUTH, FAILURE_THRESHOLD);
+        mScheduler.advanceTimeBy(OPEN_SECONDS, TimeUnit.SECONDS);
+
+        send(Group.AUTH, PublishSubject.<String>create()).unsubscribe();
+        assertEquals(State.HALF_OPEN, mCircuitBreaker.getState(Group.AUTH));
+        send(Group.AUTH, successfulRequest()).assertCompleted();
+        assertEquals(State.CLOSED, mCircuitBreaker.getState(Group.AUTH));
+    }
+
+    @Test
+    public void streamingRequestIsReportedOnceBodyIsRead() throws IOException {
+        failRequests(Group.BEACONS, FAILURE_THRESHOLD);
+        mScheduler.advanceTimeBy(OPEN_SECONDS, TimeUnit.SECONDS);
+
+        TestSubscriber<ResponseBody> trialSubscriber = sendStreaming(Group.BEACONS,
+                ResponseBody.create(MediaType.parse("application/json"), "[]"));
+        trialSubscriber.assertCompleted();
+        assertEquals(State.HALF_OPEN, mCircuitBreaker.getState(Group.BEACONS));
+
+        assertEquals("[]", trialSubscriber.getOnNextEvents().get(0).string());
+        assertEquals(State.CLOSED, mCircuitBreaker.getState(Group.BEACONS));
+    }
+
+    @Test
+    public void streamingRequestFailsWhenBodyFails() {
+        failRequests(Group.BEACONS, FAILURE_THRESHOLD);
+        mScheduler.advanceTimeBy(OPEN_SECONDS, TimeUnit.SECONDS);
+
+        ForwardingSource failingSource = new ForwardingSource(new Buffer()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        TestSubscriber<ResponseBody> trialSubscriber = sendStreaming(Group.BEACONS,
+                ResponseBody.create(null, -1, Okio.buffer(failingSource)));
+        trialSubscriber.assertCompleted();
+        try {
+            trialSubscriber.getOnNextEvents().get(0).string();
+            fail("Reading the body should fail");
+        } catch (IOException e) {
+            assertEquals(State.OPEN, mCircuitBreaker.getState(Group.BEACONS));
+        }
+    }
+
+    private TestSubscriber<ResponseBody> sendStreaming(Group group, ResponseBody body) {
+        TestSubscriber<ResponseBody> testSubscriber = new TestSubscriber<>();
+        Observable.just(body)
+                .compose(mCircuitBreaker.forStreamingGroup(group))
+                .subscribe(testSubscriber);
+        return testSubscriber;
+    }
+
+    private void failRequests(Group group, int count) {
+        for (int i = 0; i < count; i++) {
+            send(group, Observable.<String>error(new IOException()))
+                    .assertError(IOException.class);
+        }
+    }
+
+    private TestSubscriber<String> send(Group group, Observable<String> request) {
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        request.compose(mCircuitBreaker.<String>forGroup(group)).subscribe(testSubscriber);
+        return testSubscriber;
+    }
+
+    private Observable<String> successfulRequest() {
+        return Observable.defer(new Func0<Observable<String>>() {
+            @Override
+            public Observable<String> call() {
+                mRequests.incrementAndGet();
+                return Observable.just("response");
+            }
+        });
+    }
+
+    private static HttpException newHttpException(int code) {
+        return new HttpException(Response.error(code,
+                ResponseBody.create(MediaType.parse("application/json"), "")));
+    }
+}
@@ -0,0 +1,122 @@
+package io.ribot.app;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.ribot.app.data.local.CursorObservable;
+import io.ribot.app.data.local.Db;
+import io.ribot.app.data.local.RowMapper;
+import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.test.common.MockModelFabric;
+import io.ribot.app.util.DefaultConfig;
+import rx.functions.Func0;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = DefaultConfig.EMULATE_SDK)
+public class CursorObservableTest {
+
+    final ReentrantLock mLock = new ReentrantLock();
+
+    @Test
+    public void emitsAllRowsAndClosesCursor() {
+        List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(5);
+        final MatrixCursor cursor = newBeaconCursor(beacons);
+
+        TestSubscriber<RegisteredBeacon> testSubscriber = new TestSubscriber<>();
+        CursorObservable.create(mLock, just(cursor), Db.BeaconTable.MAPPER)
+                .subscribe(testSubscriber);
+
+        for (RegisteredBeacon beacon : beacons) {
+            beacon.zone = null;
+        }
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertReceivedOnNext(beacons);
+        testSubscriber.assertCompleted();
+        assertTrue(cursor.isClosed());
+        assertFalse(mLock.isLocked());
+    }
+
+    @Test
+    public void holdsLockWhileReading() {
+        MatrixCursor cursor = newBeaconCursor(MockModelFabric.newRegisteredBeaconList(2));
+
+        TestSubscriber<RegisteredBeacon> testSubscriber = new TestSubscriber<RegisteredBeacon>() {
+            @Override
+            public void onNext(RegisteredBeacon beacon) {
+                assertTrue(mLock.isHeldByCurrentThread());
+                super.onNext(beacon);
+            }
+        };
+        CursorObservable.create(mLock, just(cursor), Db.BeaconTable.MAPPER)
+                .subscribe(testSubscriber);
+
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValueCount(2);
+        assertFalse(mLock.isLocked());
+    }
+
+    @Test
+    public void stopsReadingWhenUnsubscribed() {
+        List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(10);
+        final MatrixCursor cursor = newBeaconCursor(beacons);
+
+        TestSubscriber<RegisteredBeacon> testSubscriber = new TestSubscriber<>();
+        CursorObservable.create(mLock, just(cursor), Db.BeaconTable.MAPPER)
+                .take(2)
+                .subscribe(testSubscriber);
+
+        testSubscriber.assertValueCount(2);
+        testSubscriber.assertCompleted();
+        assertTrue(cursor.getPosition() < beacons.size() - 1);
+        assertTrue(cursor.isClosed());
+    }
+
+    @Test
+    public void mapperReusesHolder() {
+        MatrixCursor cursor = newBeaconCursor(MockModelFabric.newRegisteredBeaconList(3));
+        RowMapper<RegisteredBeacon> mapper = Db.BeaconTable.MAPPER.create(cursor);
+        RegisteredBeacon holder = new RegisteredBeacon();
+        while (cursor.moveToNext()) {
+            assertSame(holder, mapper.map(cursor, holder));
+        }
+        cursor.close();
+    }
+
+    private static MatrixCursor newBeaconCursor(List<RegisteredBeacon> beacons) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                Db.BeaconTable.COLUMN_ID, Db.BeaconTable.COLUMN_UUID,
+                Db.BeaconTable.COLUMN_MAJOR, Db.BeaconTable.COLUMN_MINOR});
+        for (RegisteredBeacon beacon : beacons) {
+            List<Object> row = new ArrayList<>();
+            row.add(beacon.id);
+            row.add(beacon.uuid);
+            row.add(beacon.major);
+            row.add(beacon.minor);
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static Func0<Cursor> just(final Cursor cursor) {
+        return new Func0<Cursor>() {
+            @Override
+            public Cursor call() {
+                return cursor;
+            }
+        };
+    }
+}
@@ -3,34 +3,61 @@ package io.ribot.app;
 import android.accounts.Account;
 import android.text.format.DateUtils;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.ribot.app.data.BeaconNotRegisteredException;
 import io.ribot.app.data.BusEvent;
 import io.ribot.app.data.DataManager;
 import io.ribot.app.data.local.DatabaseHelper;
+import io.ribot.app.data.local.HistoryHelper;
+import io.ribot.app.data.local.OutboxHelper;
 import io.ribot.app.data.local.PreferencesHelper;
+import io.ribot.app.data.local.SessionHelper;
 import io.ribot.app.data.model.CheckIn;
 import io.ribot.app.data.model.CheckInRequest;
 import io.ribot.app.data.model.Encounter;
+import io.ribot.app.data.model.OutboxEntry;
 import io.ribot.app.data.model.RegisteredBeacon;
 import io.ribot.app.data.model.Ribot;
 import io.ribot.app.data.model.Venue;
 import io.ribot.app.data.remote.GoogleAuthHelper;
+import io.ribot.app.data.remote.RegisteredBeaconJsonIterator;
+import io.ribot.app.data.remote.RetryPolicy;
 import io.ribot.app.data.remote.RibotService;
 import io.ribot.app.test.common.MockModelFabric;
 import io.ribot.app.util.EventPosterHelper;
+import okhttp3.Cache;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+import retrofit2.adapter.rxjava.HttpException;
 import rx.Observable;
+import rx.functions.Func0;
 import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyListOf;
@@ -38,6 +65,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -47,17 +75,33 @@ import static org.mockito.Mockito.when;
 @RunWith(MockitoJUnitRunner.class)
 public class DataManagerTest {
 
+    @Rule public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
     @Mock RibotService mMockRibotsService;
     @Mock DatabaseHelper mMockDatabaseHelper;
     @Mock PreferencesHelper mMockPreferencesHelper;
+    @Mock SessionHelper mMockSessionHelper;
     @Mock GoogleAuthHelper mMockGoogleAuthHelper;
     @Mock EventPosterHelper mMockEventPosterHelper;
+    @Mock HistoryHelper mMockHistoryHelper;
+    @Mock OutboxHelper mMockOutboxHelper;
+    TestScheduler mRetryScheduler;
     DataManager mDataManager;
 
     @Before
     public void setUp() {
+        mRetryScheduler = new TestScheduler();
         mDataManager = new DataManager(mMockRibotsService, mMockDatabaseHelper,
-                mMockPreferencesHelper, mMockEventPosterHelper, mMockGoogleAuthHelper);
+                mMockPreferencesHelper, mMockSessionHelper, mMockEventPosterHelper,
+                mMockGoogleAuthHelper, mMockHistoryHelper, mMockOutboxHelper,
+                new Cache(mTemporaryFolder.getRoot(), 1024 * 1024),
+                new RetryPolicy.Builder().scheduler(mRetryScheduler).jitter(0).build());
+        when(mMockOutboxHelper.add(any(OutboxEntry.class)))
+                .thenAnswer(new Answer<Observable<OutboxEntry>>() {
+                    @Override
+                    public Observable<OutboxEntry> answer(InvocationOnMock invocation) {
+                        return Observable.just((OutboxEntry) invocation.getArguments()[0]);
+                    }
+                });
     }
 
     @Test
@@ -82,7 +126,7 @@ public class DataManagerTest {
         testSubscriber.assertCompleted();
         testSubscriber.assertNoErrors();
 
-        verify(mMockPreferencesHelper).putAccessToken(signInResponse.accessToken);
+        verify(mMockSessionHelper).start(signInResponse.accessToken);
         verify(mMockPreferencesHelper).putSignedInRibot(signInResponse.ribot);
     }
 
@@ -90,10 +134,12 @@ public class DataManagerTest {
     public void signOutCompletes() {
         doReturn(Observable.empty())
                 .when(mMockDatabaseHelper)
-                .clearTables();
+                .resetDatabase();
 
         TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
         mDataManager.signOut().subscribe(testSubscriber);
+        testSubscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        testSubscriber.assertNoErrors();
         testSubscriber.assertCompleted();
     }
 
@@ -101,33 +147,111 @@ public class DataManagerTest {
     public void signOutClearsData() {
         doReturn(Observable.empty())
                 .when(mMockDatabaseHelper)
-                .clearTables();
+                .resetDatabase();
 
-        mDataManager.signOut().subscribe(new TestSubscriber<Void>());
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.signOut().subscribe(testSubscriber);
+        testSubscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
 
-        verify(mMockDatabaseHelper).clearTables();
+        verify(mMockDatabaseHelper).resetDatabase();
+        verify(mMockSessionHelper).end();
         verify(mMockPreferencesHelper).clear();
+        verify(mMockEventPosterHelper).postEventSafely(any(BusEvent.UserSignedOut.class));
     }
 
     @Test
     public void getRibots() {
         List<Ribot> ribots = MockModelFabric.newRibotList(17);
         doReturn(Observable.just(ribots))
-                .when(mMockRibotsService)
-                .getRibots(anyString(), anyString());
+                .when(mMockDatabaseHelper)
+                .getRibots();
 
         TestSubscriber<List<Ribot>> testSubscriber = new TestSubscriber<>();
         mDataManager.getRibots().subscribe(testSubscriber);
-        testSubscriber.assertCompleted();
         testSubscriber.assertValueCount(1);
         testSubscriber.assertValue(ribots);
     }
 
+    @Test
+    public void syncRibotsSavesRibots() {
+        List<Ribot> ribots = MockModelFabric.newRibotList(17);
+        doReturn(Observable.just(ribots))
+                .when(mMockRibotsService)
+                .getRibots(anyString());
+        doReturn(Observable.empty())
+                .when(mMockDatabaseHelper)
+                .setRibots(anyListOf(Ribot.class));
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.syncRibots().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        verify(mMockDatabaseHelper).setRibots(ribots);
+        verify(mMockPreferencesHelper).markValidatorSaved(RibotService.RESOURCE_RIBOTS);
+    }
+
+    @Test
+    public void syncRibotsWhenSaveFails() {
+        doReturn(Observable.just(MockModelFabric.newRibotList(3)))
+                .when(mMockRibotsService)
+                .getRibots(anyString());
+        doReturn(Observable.error(new RuntimeException()))
+                .when(mMockDatabaseHelper)
+                .setRibots(anyListOf(Ribot.class));
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.syncRibots().subscribe(testSubscriber);
+        testSubscriber.assertError(RuntimeException.class);
+
+        // The next sync must get the ribots again even if the API finds them not modified
+        verify(mMockPreferencesHelper, never()).markValidatorSaved(anyString());
+    }
+
+    @Test
+    public void syncRibotsWhenNotModified() {
+        doReturn(Observable.error(newNotModifiedException()))
+                .when(mMockRibotsService)
+                .getRibots(anyString());
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.syncRibots().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        verify(mMockDatabaseHelper, never()).setRibots(anyListOf(Ribot.class));
+        verify(mMockPreferencesHelper, never()).markValidatorSaved(anyString());
+    }
+
+    @Test
+    public void syncRibotsSharesRequestInFlight() {
+        PublishSubject<List<Ribot>> response = PublishSubject.create();
+        doReturn(response)
+                .when(mMockRibotsService)
+                .getRibots(anyString());
+        doReturn(Observable.empty())
+                .when(mMockDatabaseHelper)
+                .setRibots(anyListOf(Ribot.class));
+
+        TestSubscriber<Void> first = new TestSubscriber<>();
+        TestSubscriber<Void> second = new TestSubscriber<>();
+        mDataManager.syncRibots().subscribe(first);
+        mDataManager.syncRibots().subscribe(second);
+        List<Ribot> ribots = MockModelFabric.newRibotList(5);
+        response.onNext(ribots);
+        response.onCompleted();
+
+        first.assertCompleted();
+        second.assertCompleted();
+        verify(mMockRibotsService, times(1)).getRibots(anyString());
+        verify(mMockDatabaseHelper, times(1)).setRibots(ribots);
+    }
+
     @Test
     public void getVenuesWhenEmptyCache() {
         List<Venue> venuesApi = MockModelFabric.newVenueList(10);
         stubRibotServiceGetVenues(Observable.just(venuesApi));
-        stubPreferencesHelperGetVenues(Observable.<List<Venue>>empty());
+        stubDatabaseHelperGetVenues(Observable.<List<Venue>>empty());
 
         TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
         mDataManager.getVenues().subscribe(testSubscriber);
@@ -135,14 +259,14 @@ public class DataManagerTest {
         testSubscriber.assertValueCount(1);
         testSubscriber.assertReceivedOnNext(Collections.singletonList(venuesApi));
         // Check that the API result is cached
-        verify(mMockPreferencesHelper).putVenues(venuesApi);
+        verify(mMockDatabaseHelper).setVenues(venuesApi);
     }
 
     @Test
     public void getVenuesWhenDataCachedSameAsApi() {
         List<Venue> venues = MockModelFabric.newVenueList(10);
         stubRibotServiceGetVenues(Observable.just(venues));
-        stubPreferencesHelperGetVenues(Observable.just(venues));
+        stubDatabaseHelperGetVenues(Observable.just(venues));
 
         TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
         mDataManager.getVenues().subscribe(testSubscriber);
@@ -156,7 +280,7 @@ public class DataManagerTest {
         List<Venue> venuesApi = MockModelFabric.newVenueList(10);
         List<Venue> venuesCache = MockModelFabric.newVenueList(4);
         stubRibotServiceGetVenues(Observable.just(venuesApi));
-        stubPreferencesHelperGetVenues(Observable.just(venuesCache));
+        stubDatabaseHelperGetVenues(Observable.just(venuesCache));
 
         TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
         mDataManager.getVenues().subscribe(testSubscriber);
@@ -164,14 +288,14 @@ public class DataManagerTest {
         testSubscriber.assertValueCount(2);
         testSubscriber.assertReceivedOnNext(Arrays.asList(venuesCache, venuesApi));
         // Check that the new API result is cached
-        verify(mMockPreferencesHelper).putVenues(venuesApi);
+        verify(mMockDatabaseHelper).setVenues(venuesApi);
     }
 
     @Test
     public void getVenuesWhenDataCachedAndApiFails() {
         List<Venue> venuesCache = MockModelFabric.newVenueList(4);
         stubRibotServiceGetVenues(Observable.<List<Venue>>error(new RuntimeException()));
-        stubPreferencesHelperGetVenues(Observable.just(venuesCache));
+        stubDatabaseHelperGetVenues(Observable.just(venuesCache));
 
         TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
         mDataManager.getVenues().subscribe(testSubscriber);
@@ -180,6 +304,20 @@ public class DataManagerTest {
         testSubscriber.assertReceivedOnNext(Collections.singletonList(venuesCache));
     }
 
+    @Test
+    public void getVenuesWhenDataCachedAndApiNotModified() {
+        List<Venue> venuesCache = MockModelFabric.newVenueList(4);
+        stubRibotServiceGetVenues(Observable.<List<Venue>>error(newNotModifiedException()));
+        stubDatabaseHelperGetVenues(Observable.just(venuesCache));
+
+        TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
+        mDataManager.getVenues().subscribe(testSubscriber);
+        testSubscriber.assertCompleted();
+        testSubscriber.assertValueCount(1);
+        testSubscriber.assertReceivedOnNext(Collections.singletonList(venuesCache));
+        verify(mMockDatabaseHelper, never()).setVenues(anyListOf(Venue.class));
+    }
+
     @Test
     public void checkInSuccessful() {
         CheckIn checkIn = MockModelFabric.newCheckInWithLabel();
@@ -194,6 +332,9 @@ public class DataManagerTest {
         testSubscriber.assertReceivedOnNext(Collections.singletonList(checkIn));
         // Check that is saved in preferences
         verify(mMockPreferencesHelper).putLatestCheckIn(checkIn);
+        verify(mMockHistoryHelper).recordCheckIn(anyString(), eq(checkIn));
+        verify(mMockOutboxHelper).add(any(OutboxEntry.class));
+        verify(mMockOutboxHelper).removeEntries(anyListOf(Long.class));
     }
 
     @Test
@@ -211,6 +352,50 @@ public class DataManagerTest {
         verify(mMockPreferencesHelper, never()).putLatestCheckIn(any(CheckIn.class));
     }
 
+    @Test
+    public void checkInFailWithNetworkErrorKeepsOutboxEntry() {
+        CheckInRequest request = CheckInRequest.fromLabel(MockModelFabric.randomString());
+        doReturn(Observable.error(new IOException()))
+                .when(mMockRibotsService)
+                .checkIn(anyString(), eq(request));
+
+        TestSubscriber<CheckIn> testSubscriber = new TestSubscriber<>();
+        mDataManager.checkIn(request).subscribe(testSubscriber);
+        testSubscriber.assertNoTerminalEvent();
+        mRetryScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        testSubscriber.assertError(IOException.class);
+
+        verify(mMockRibotsService, times(4)).checkIn(anyString(), eq(request));
+        verify(mMockOutboxHelper).add(any(OutboxEntry.class));
+        verify(mMockOutboxHelper, never()).removeEntries(anyListOf(Long.class));
+        verify(mMockEventPosterHelper).postEventSafely(any(BusEvent.OutboxPending.class));
+    }
+
+    @Test
+    public void checkInRetriesAfterNetworkError() {
+        CheckInRequest request = CheckInRequest.fromLabel(MockModelFabric.randomString());
+        final CheckIn checkIn = MockModelFabric.newCheckInWithVenue();
+        final AtomicInteger attempts = new AtomicInteger();
+        doReturn(Observable.defer(new Func0<Observable<CheckIn>>() {
+            @Override
+            public Observable<CheckIn> call() {
+                if (attempts.incrementAndGet() == 1) return Observable.error(new IOException());
+                return Observable.just(checkIn);
+            }
+        })).when(mMockRibotsService).checkIn(anyString(), eq(request));
+
+        TestSubscriber<CheckIn> testSubscriber = new TestSubscriber<>();
+        mDataManager.checkIn(request).subscribe(testSubscriber);
+        mRetryScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        testSubscriber.assertCompleted();
+        testSubscriber.assertReceivedOnNext(Collections.singletonList(checkIn));
+
+        assertEquals(2, attempts.get());
+        verify(mMockOutboxHelper).removeEntries(anyListOf(Long.class));
+        verify(mMockEventPosterHelper, never())
+                .postEventSafely(any(BusEvent.OutboxPending.class));
+    }
+
     @Test
     public void getTodayLatestCheckIn() {
         CheckIn checkIn = MockModelFabric.newCheckInWithVenue();
@@ -253,6 +438,7 @@ public class DataManagerTest {
         testSubscriber.assertValue(encounter);
 
         verify(mMockPreferencesHelper).putLatestEncounter(encounter);
+        verify(mMockHistoryHelper).recordEncounter(anyString(), eq(encounter));
     }
 
     @Test
@@ -269,6 +455,7 @@ public class DataManagerTest {
         testSubscriber.assertNoValues();
 
         verify(mMockPreferencesHelper, never()).putLatestEncounter(any(Encounter.class));
+        verify(mMockHistoryHelper, never()).recordEncounter(anyString(), any(Encounter.class));
     }
 
     @Test
@@ -307,23 +494,80 @@ public class DataManagerTest {
     @Test
     public void syncRegisteredBeacons() {
         List<RegisteredBeacon> registeredBeacons = MockModelFabric.newRegisteredBeaconList(3);
-        doReturn(Observable.just(registeredBeacons))
-                .when(mMockRibotsService)
-                .getRegisteredBeacons(anyString());
-        doReturn(Observable.empty())
+        stubRibotServiceGetRegisteredBeacons(registeredBeacons);
+        doReturn(Observable.just(true))
                 .when(mMockDatabaseHelper)
-                .setRegisteredBeacons(anyListOf(RegisteredBeacon.class));
-
+                .setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class));
 
         TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
         mDataManager.syncRegisteredBeacons().subscribe(testSubscriber);
         testSubscriber.assertNoErrors();
         testSubscriber.assertCompleted();
 
-        verify(mMockDatabaseHelper).setRegisteredBeacons(registeredBeacons);
+        verify(mMockDatabaseHelper).setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class));
         verify(mMockEventPosterHelper).postEventSafely(any(BusEvent.BeaconsSyncCompleted.class));
     }
 
+    @Test
+    public void syncRegisteredBeaconsWhenNothingChanged() {
+        List<RegisteredBeacon> registeredBeacons = MockModelFabric.newRegisteredBeaconList(3);
+        stubRibotServiceGetRegisteredBeacons(registeredBeacons);
+        doReturn(Observable.just(false))
+                .when(mMockDatabaseHelper)
+                .setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class));
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.syncRegisteredBeacons().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        verify(mMockEventPosterHelper, never())
+                .postEventSafely(any(BusEvent.BeaconsSyncCompleted.class));
+    }
+
+    @Test
+    public void syncRegisteredBeaconsWhenNotModified() {
+        doReturn(Observable.error(newNotModifiedException()))
+                .when(mMockRibotsService)
+                .getRegisteredBeacons();
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.syncRegisteredBeacons().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        verify(mMockDatabaseHelper, never())
+                .setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class));
+        verify(mMockEventPosterHelper, never())
+                .postEventSafely(any(BusEvent.BeaconsSyncCompleted.class));
+    }
+
+    @Test
+    public void syncRegisteredBeaconsDoesNotRetryMalformedBody() {
+        doReturn(Observable.just(ResponseBody.create(MediaType.parse("application/json"),
+                "[{\"id\" \"1\"}]")))
+                .when(mMockRibotsService)
+                .getRegisteredBeacons();
+        when(mMockDatabaseHelper.setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class)))
+                .thenAnswer(new Answer<Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> answer(InvocationOnMock invocation) {
+                        RegisteredBeaconJsonIterator beacons =
+                                (RegisteredBeaconJsonIterator) invocation.getArguments()[0];
+                        while (beacons.hasNext()) beacons.next();
+                        return Observable.just(true);
+                    }
+                });
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.syncRegisteredBeacons().subscribe(testSubscriber);
+        mRetryScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        testSubscriber.assertError(JsonSyntaxException.class);
+
+        verify(mMockDatabaseHelper, times(1))
+                .setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class));
+    }
+
     @Test
     public void checkOutCompletesAndEmitsCheckIn() {
         Encounter encounter = MockModelFabric.newEncounter();
@@ -353,6 +597,7 @@ public class DataManagerTest {
         mDataManager.checkOut(checkIn.id).subscribe();
 
         verify(mMockPreferencesHelper).putLatestCheckIn(checkIn);
+        verify(mMockHistoryHelper).recordCheckOut(anyString(), eq(checkIn));
     }
 
     @Test
@@ -370,18 +615,165 @@ public class DataManagerTest {
         verify(mMockPreferencesHelper).clearLatestEncounter();
     }
 
+    @Test
+    public void replayOutbox() {
+        OutboxEntry checkInEntry = newOutboxEntry(OutboxEntry.forCheckIn(
+                CheckInRequest.fromLabel(MockModelFabric.randomString())), 1);
+        OutboxEntry encounterEntry =
+                newOutboxEntry(OutboxEntry.forEncounter(MockModelFabric.randomString()), 2);
+        stubOutboxHelperGetOldestEntries(Arrays.asList(checkInEntry, encounterEntry));
+        CheckIn checkIn = MockModelFabric.newCheckInWithLabel();
+        Encounter encounter = MockModelFabric.newEncounter();
+        doReturn(Observable.just(checkIn))
+                .when(mMockRibotsService)
+                .checkIn(eq(checkInEntry.idempotencyKey), eq(checkInEntry.checkInRequest));
+        doReturn(Observable.just(encounter))
+                .when(mMockRibotsService)
+                .performBeaconEncounter(eq(encounterEntry.idempotencyKey),
+                        eq(encounterEntry.targetId));
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.replayOutbox().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        verify(mMockOutboxHelper).removeEntries(Arrays.asList(1L, 2L));
+        verify(mMockPreferencesHelper).putLatestCheckIn(checkIn);
+        verify(mMockPreferencesHelper).putLatestEncounter(encounter);
+        // History is keyed by the entries so it's recorded once even if they are sent again
+        verify(mMockHistoryHelper).recordCheckIn(checkInEntry.idempotencyKey, checkIn);
+        verify(mMockHistoryHelper).recordEncounter(encounterEntry.idempotencyKey, encounter);
+    }
+
+    @Test
+    public void replayOutboxStopsOnNetworkError() {
+        OutboxEntry failingEntry =
+                newOutboxEntry(OutboxEntry.forCheckOut(MockModelFabric.randomString()), 1);
+        OutboxEntry nextEntry =
+                newOutboxEntry(OutboxEntry.forEncounter(MockModelFabric.randomString()), 2);
+        stubOutboxHelperGetOldestEntries(Arrays.asList(failingEntry, nextEntry));
+        doReturn(Observable.error(new IOException()))
+                .when(mMockRibotsService)
+                .updateCheckIn(anyString(), anyString(),
+                        any(RibotService.UpdateCheckInRequest.class));
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.replayOutbox().subscribe(testSubscriber);
+        testSubscriber.assertError(IOException.class);
+
+        verify(mMockOutboxHelper).removeEntries(Collections.<Long>emptyList());
+        verify(mMockRibotsService, never())
+                .performBeaconEncounter(anyString(), anyString());
+    }
+
+    @Test
+    public void replayOutboxDropsRejectedAndStaleEntries() {
+        OutboxEntry rejectedEntry = newOutboxEntry(OutboxEntry.forCheckIn(
+                CheckInRequest.fromLabel(MockModelFabric.randomString())), 1);
+        OutboxEntry staleEntry =
+                newOutboxEntry(OutboxEntry.forEncounter(MockModelFabric.randomString()), 2);
+        staleEntry.createdDate.setTime(System.currentTimeMillis() - DateUtils.DAY_IN_MILLIS);
+        stubOutboxHelperGetOldestEntries(Arrays.asList(rejectedEntry, staleEntry));
+        HttpException badRequest = new HttpException(
+                Response.error(400, ResponseBody.create(null, "")));
+        doReturn(Observable.error(badRequest))
+                .when(mMockRibotsService)
+                .checkIn(anyString(), any(CheckInRequest.class));
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.replayOutbox().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        verify(mMockOutboxHelper).removeEntries(Arrays.asList(1L, 2L));
+        verify(mMockRibotsService, never())
+                .performBeaconEncounter(anyString(), anyString());
+    }
+
+    @Test
+    public void prefetchSyncsRibotsVenuesAndRegisteredBeacons() {
+        List<Ribot> ribots = MockModelFabric.newRibotList(5);
+        doReturn(Observable.just(ribots))
+                .when(mMockRibotsService)
+                .getRibots(anyString());
+        doReturn(Observable.empty())
+                .when(mMockDatabaseHelper)
+                .setRibots(anyListOf(Ribot.class));
+        List<Venue> venues = MockModelFabric.newVenueList(3);
+        stubRibotServiceGetVenues(Observable.just(venues));
+        stubDatabaseHelperGetVenues(Observable.<List<Venue>>empty());
+        stubRibotServiceGetRegisteredBeacons(MockModelFabric.newRegisteredBeaconList(3));
+        doReturn(Observable.just(true))
+                .when(mMockDatabaseHelper)
+                .setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class));
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.prefetch().subscribe(testSubscriber);
+        testSubscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        verify(mMockDatabaseHelper).setRibots(ribots);
+        verify(mMockDatabaseHelper).setVenues(venues);
+        verify(mMockDatabaseHelper).setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class));
+    }
+
+    @Test
+    public void prefetchSyncsEverythingWhenOneFails() {
+        doReturn(Observable.error(new RuntimeException()))
+                .when(mMockRibotsService)
+                .getRibots(anyString());
+        List<Venue> venues = MockModelFabric.newVenueList(3);
+        stubRibotServiceGetVenues(Observable.just(venues));
+        stubDatabaseHelperGetVenues(Observable.<List<Venue>>empty());
+        stubRibotServiceGetRegisteredBeacons(MockModelFabric.newRegisteredBeaconList(3));
+        doReturn(Observable.just(true))
+                .when(mMockDatabaseHelper)
+                .setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class));
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDataManager.prefetch().subscribe(testSubscriber);
+        testSubscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        testSubscriber.assertError(RuntimeException.class);
+
+        verify(mMockDatabaseHelper).setVenues(venues);
+        verify(mMockDatabaseHelper).setRegisteredBeacons(any(RegisteredBeaconJsonIterator.class));
+    }
+
     /*********************** Helper methods ***********************/
 
     private void stubRibotServiceGetVenues(Observable<List<Venue>> observable) {
         doReturn(observable)
                 .when(mMockRibotsService)
-                .getVenues(anyString());
+                .getVenues();
+        doReturn(Observable.just(true))
+                .when(mMockDatabaseHelper)
+                .setVenues(anyListOf(Venue.class));
     }
 
-    private void stubPreferencesHelperGetVenues(Observable<List<Venue>> observable) {
+    private void stubDatabaseHelperGetVenues(Observable<List<Venue>> observable) {
         doReturn(observable)
-                .when(mMockPreferencesHelper)
-                .getVenuesAsObservable();
+                .when(mMockDatabaseHelper)
+                .getVenues();
+    }
+
+    private OutboxEntry newOutboxEntry(OutboxEntry entry, long id) {
+        entry.id = id;
+        return entry;
+    }
+
+    private void stubOutboxHelperGetOldestEntries(List<OutboxEntry> entries) {
+        doReturn(Observable.just(entries))
+                .when(mMockOutboxHelper)
+                .getOldestEntries(DataManager.OUTBOX_BATCH_SIZE);
+    }
+
+    private void stubRibotServiceGetRegisteredBeacons(List<RegisteredBeacon> beacons) {
+        ResponseBody body = ResponseBody.create(MediaType.parse("application/json"),
+                new Gson().toJson(beacons));
+        doReturn(Observable.just(body))
+                .when(mMockRibotsService)
+                .getRegisteredBeacons();
     }
 
     private void stubRibotServiceUpdateCheckIn(CheckIn checkIn) {
@@ -391,6 +783,16 @@ public class DataManagerTest {
                         any(RibotService.UpdateCheckInRequest.class));
     }
 
+    // The exception Retrofit emits when the API responds 304 Not Modified
+    private static HttpException newNotModifiedException() {
+        okhttp3.Response rawResponse = new okhttp3.Response.Builder()
+                .request(new Request.Builder().url("http://localhost/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(304)
+                .build();
+        return new HttpException(Response.error(ResponseBody.create(null, ""), rawResponse));
+    }
+
     private void stubPreferencesHelperLatestEncounter(Encounter encounter) {
         when(mMockPreferencesHelper.getLatestEncounterBeacon()).thenReturn(encounter.beacon);
         when(mMockPreferencesHelper.getLatestEncounterCheckInId()).thenReturn(encounter.checkIn.id);
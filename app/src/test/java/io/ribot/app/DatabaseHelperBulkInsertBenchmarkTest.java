@@ -0,0 +1,104 @@
+package io.ribot.app;
+
+import android.database.Cursor;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import io.ribot.app.data.local.DatabaseHelper;
+import io.ribot.app.data.local.Db;
+import io.ribot.app.data.local.DbOpenHelper;
+import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.test.common.MockModelFabric;
+import io.ribot.app.util.Benchmark;
+import io.ribot.app.util.BenchmarkReporter;
+import io.ribot.app.util.DefaultConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the throughput of insertRegisteredBeacons(), which writes the beacons with a
+ * compiled statement, against inserting ContentValues row by row. Absolute numbers under
+ * Robolectric are not representative of a device but the ratio between both paths is.
+ */
+@Category(Benchmark.class)
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = DefaultConfig.EMULATE_SDK)
+public class DatabaseHelperBulkInsertBenchmarkTest {
+
+    final DatabaseHelper mDatabaseHelper =
+            new DatabaseHelper(new DbOpenHelper(RuntimeEnvironment.application));
+    final BenchmarkReporter mReporter = new BenchmarkReporter(getClass());
+
+    @Before
+    public void setUp() {
+        mDatabaseHelper.clearTables().subscribe();
+    }
+
+    @Test
+    public void insert10kBeacons() {
+        compareInsertPaths(10000);
+    }
+
+    @Test
+    public void insert100kBeacons() {
+        compareInsertPaths(100000);
+    }
+
+    private void compareInsertPaths(int count) {
+        List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(count);
+
+        long start = System.nanoTime();
+        insertWithContentValues(beacons);
+        long contentValuesMs = (System.nanoTime() - start) / 1000000;
+        assertEquals(count, countBeacons());
+        mDatabaseHelper.clearTables().subscribe();
+
+        start = System.nanoTime();
+        mDatabaseHelper.insertRegisteredBeacons(beacons).subscribe();
+        long bulkMs = (System.nanoTime() - start) / 1000000;
+        assertEquals(count, countBeacons());
+
+        mReporter.report("Inserting %d beacons: ContentValues %d ms (%d rows/s), " +
+                        "compiled statement %d ms (%d rows/s)", count,
+                contentValuesMs, rowsPerSecond(count, contentValuesMs),
+                bulkMs, rowsPerSecond(count, bulkMs));
+        assertTrue("Compiled statement slower than ContentValues", bulkMs <= contentValuesMs);
+    }
+
+    private void insertWithContentValues(List<RegisteredBeacon> beacons) {
+        BriteDatabase db = mDatabaseHelper.getBriteDb();
+        BriteDatabase.Transaction transaction = db.newTransaction();
+        try {
+            for (RegisteredBeacon beacon : beacons) {
+                db.insert(Db.BeaconTable.TABLE_NAME, Db.BeaconTable.toContentValues(beacon));
+            }
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+    }
+
+    private int countBeacons() {
+        Cursor cursor = mDatabaseHelper.getBriteDb()
+                .query("SELECT COUNT(*) FROM " + Db.BeaconTable.TABLE_NAME);
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+
+    private static long rowsPerSecond(int rows, long millis) {
+        return millis > 0 ? rows * 1000L / millis : rows * 1000L;
+    }
+}
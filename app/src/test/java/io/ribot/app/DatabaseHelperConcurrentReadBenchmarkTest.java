@@ -0,0 +1,108 @@
+package io.ribot.app;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.ribot.app.data.local.DatabaseHelper;
+import io.ribot.app.data.local.DbOpenHelper;
+import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.test.common.MockModelFabric;
+import io.ribot.app.util.Benchmark;
+import io.ribot.app.util.BenchmarkReporter;
+import io.ribot.app.util.DefaultConfig;
+import rx.observers.TestSubscriber;
+
+/**
+ * Measures the latency of encounter lookups, i.e. findRegisteredBeacon(), while
+ * setRegisteredBeacons() keeps syncing the beacons on another thread, and compares it with the
+ * latency when the database is idle. Absolute numbers under Robolectric are not representative
+ * of a device but the ratio between both runs is.
+ */
+@Category(Benchmark.class)
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = DefaultConfig.EMULATE_SDK)
+public class DatabaseHelperConcurrentReadBenchmarkTest {
+
+    private static final int BEACON_COUNT = 10000;
+    private static final int LOOKUP_COUNT = 2000;
+
+    final DatabaseHelper mDatabaseHelper =
+            new DatabaseHelper(new DbOpenHelper(RuntimeEnvironment.application));
+    final BenchmarkReporter mReporter = new BenchmarkReporter(getClass());
+
+    @Before
+    public void setUp() {
+        mDatabaseHelper.clearTables().subscribe();
+    }
+
+    @Test
+    public void lookupsWhileSyncing() throws InterruptedException {
+        final List<RegisteredBeacon> beacons =
+                MockModelFabric.newRegisteredBeaconList(BEACON_COUNT);
+        mDatabaseHelper.setRegisteredBeacons(beacons).subscribe();
+
+        long[] idleLatencies = measureLookups(beacons);
+
+        final AtomicBoolean syncing = new AtomicBoolean(true);
+        final CountDownLatch firstSyncStarted = new CountDownLatch(1);
+        final int[] syncs = new int[1];
+        Thread syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Alternate between two beacon lists so every sync rewrites the table
+                List<RegisteredBeacon> otherBeacons =
+                        MockModelFabric.newRegisteredBeaconList(BEACON_COUNT);
+                while (syncing.get()) {
+                    firstSyncStarted.countDown();
+                    mDatabaseHelper.setRegisteredBeacons(
+                            syncs[0] % 2 == 0 ? otherBeacons : beacons).subscribe();
+                    syncs[0]++;
+                }
+            }
+        });
+        syncThread.start();
+        firstSyncStarted.await();
+        long[] syncingLatencies = measureLookups(beacons);
+        syncing.set(false);
+        syncThread.join();
+
+        mReporter.report("Lookups of %d beacons, idle: %s", BEACON_COUNT,
+                describe(idleLatencies));
+        mReporter.report("Lookups of %d beacons, during %d syncs: %s", BEACON_COUNT, syncs[0],
+                describe(syncingLatencies));
+    }
+
+    // Returns the latency of every lookup in microseconds, sorted.
+    private long[] measureLookups(List<RegisteredBeacon> beacons) {
+        long[] latencies = new long[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            RegisteredBeacon beacon = beacons.get(i % beacons.size());
+            TestSubscriber<RegisteredBeacon> testSubscriber = new TestSubscriber<>();
+            long start = System.nanoTime();
+            mDatabaseHelper.findRegisteredBeacon(beacon.uuid, beacon.major, beacon.minor)
+                    .subscribe(testSubscriber);
+            latencies[i] = (System.nanoTime() - start) / 1000;
+            // The beacon may be missing if a sync with the other list just committed
+            testSubscriber.assertNoErrors();
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static String describe(long[] sortedLatencies) {
+        return String.format("p50 %d us, p99 %d us, max %d us",
+                sortedLatencies[sortedLatencies.length / 2],
+                sortedLatencies[sortedLatencies.length * 99 / 100],
+                sortedLatencies[sortedLatencies.length - 1]);
+    }
+}
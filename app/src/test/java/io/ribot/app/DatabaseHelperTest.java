@@ -2,6 +2,9 @@ package io.ribot.app;
 
 import android.database.Cursor;
 
+import com.google.gson.Gson;
+import com.squareup.sqlbrite.SqlBrite;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -9,14 +12,21 @@ import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 
 import io.ribot.app.data.local.DatabaseHelper;
 import io.ribot.app.data.local.Db;
 import io.ribot.app.data.local.DbOpenHelper;
+import io.ribot.app.data.local.RegisteredBeaconIndex;
 import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.data.model.Ribot;
+import io.ribot.app.data.model.Venue;
+import io.ribot.app.data.remote.RegisteredBeaconJsonIterator;
 import io.ribot.app.test.common.MockModelFabric;
 import io.ribot.app.util.DefaultConfig;
 import rx.observers.TestSubscriber;
@@ -35,6 +45,57 @@ public class DatabaseHelperTest {
         mDatabaseHelper.clearTables().subscribe();
     }
 
+    @Test
+    public void clearTablesNotifiesSubscribers() {
+        RegisteredBeacon beacon = MockModelFabric.newRegisteredBeacon();
+        mDatabaseHelper.setRegisteredBeacons(Collections.singletonList(beacon)).subscribe();
+        List<Ribot> ribots = MockModelFabric.newRibotList(3);
+        mDatabaseHelper.setRibots(ribots).subscribe();
+        // Loads the beacon index
+        mDatabaseHelper.findRegisteredBeacon(beacon.uuid, beacon.major, beacon.minor).subscribe();
+        TestSubscriber<List<Ribot>> ribotsSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getRibots().subscribe(ribotsSubscriber);
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.clearTables().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        Collections.sort(ribots);
+        ribotsSubscriber.assertReceivedOnNext(Arrays.asList(ribots, new ArrayList<Ribot>()));
+        ribotsSubscriber.unsubscribe();
+        TestSubscriber<RegisteredBeacon> beaconSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.findRegisteredBeacon(beacon.uuid, beacon.major, beacon.minor)
+                .subscribe(beaconSubscriber);
+        beaconSubscriber.assertNoValues();
+        beaconSubscriber.assertCompleted();
+    }
+
+    @Test
+    public void resetDatabaseDeletesData() {
+        RegisteredBeacon beacon = MockModelFabric.newRegisteredBeacon();
+        mDatabaseHelper.setRegisteredBeacons(Collections.singletonList(beacon)).subscribe();
+        mDatabaseHelper.setRibots(MockModelFabric.newRibotList(3)).subscribe();
+        // Loads the beacon index
+        mDatabaseHelper.findRegisteredBeacon(beacon.uuid, beacon.major, beacon.minor).subscribe();
+
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.resetDatabase().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        TestSubscriber<RegisteredBeacon> beaconSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.findRegisteredBeacon(beacon.uuid, beacon.major, beacon.minor)
+                .subscribe(beaconSubscriber);
+        beaconSubscriber.assertNoValues();
+        TestSubscriber<List<Ribot>> ribotsSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getRibots().first().subscribe(ribotsSubscriber);
+        ribotsSubscriber.assertValue(Collections.<Ribot>emptyList());
+        // The database is created again when it's next used
+        mDatabaseHelper.setRegisteredBeacons(Collections.singletonList(beacon)).subscribe();
+        checkBeaconsSavedSuccessfully(Collections.singletonList(beacon));
+    }
+
     @Test
     public void findRegisteredBeacon() {
         RegisteredBeacon beaconToFind = MockModelFabric.newRegisteredBeacon();
@@ -56,14 +117,57 @@ public class DatabaseHelperTest {
         testSubscriber.assertCompleted();
     }
 
+    @Test
+    public void getRegisteredBeaconIndex() {
+        RegisteredBeacon beacon = MockModelFabric.newRegisteredBeacon();
+        mDatabaseHelper.setRegisteredBeacons(Collections.singletonList(beacon)).subscribe();
+
+        TestSubscriber<RegisteredBeaconIndex> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getRegisteredBeaconIndex().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+
+        RegisteredBeaconIndex index = testSubscriber.getOnNextEvents().get(0);
+        UUID uuid = UUID.fromString(beacon.uuid);
+        beacon.zone = null;
+        assertEquals(1, index.size());
+        assertEquals(beacon, index.find(uuid.getMostSignificantBits(),
+                uuid.getLeastSignificantBits(), beacon.major, beacon.minor));
+    }
+
+    @Test
+    public void findRegisteredBeaconAfterSync() {
+        List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(3);
+        mDatabaseHelper.setRegisteredBeacons(beacons).subscribe();
+        // Loads the beacon index so the sync below has to rebuild it
+        mDatabaseHelper.findRegisteredBeacon(MockModelFabric.randomString(), 0, 0).subscribe();
+
+        RegisteredBeacon newBeacon = MockModelFabric.newRegisteredBeacon();
+        mDatabaseHelper.setRegisteredBeacons(Arrays.asList(beacons.get(0), newBeacon))
+                .subscribe();
+
+        TestSubscriber<RegisteredBeacon> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.findRegisteredBeacon(newBeacon.uuid, newBeacon.major, newBeacon.minor)
+                .subscribe(testSubscriber);
+        newBeacon.zone = null;
+        testSubscriber.assertValue(newBeacon);
+
+        RegisteredBeacon deletedBeacon = beacons.get(1);
+        testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.findRegisteredBeacon(deletedBeacon.uuid, deletedBeacon.major,
+                deletedBeacon.minor).subscribe(testSubscriber);
+        testSubscriber.assertNoValues();
+        testSubscriber.assertCompleted();
+    }
+
     @Test
     public void setRegisteredBeacons() {
         List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(3);
-        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        TestSubscriber<Boolean> testSubscriber = new TestSubscriber<>();
         mDatabaseHelper.setRegisteredBeacons(beacons).subscribe(testSubscriber);
 
         testSubscriber.assertNoErrors();
-        testSubscriber.assertNoValues();
+        testSubscriber.assertValue(true);
         testSubscriber.assertCompleted();
 
         checkBeaconsSavedSuccessfully(beacons);
@@ -75,11 +179,11 @@ public class DatabaseHelperTest {
         mDatabaseHelper.setRegisteredBeacons(existingBeacons).subscribe();
 
         List<RegisteredBeacon> newBeacons = MockModelFabric.newRegisteredBeaconList(5);
-        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        TestSubscriber<Boolean> testSubscriber = new TestSubscriber<>();
         mDatabaseHelper.setRegisteredBeacons(newBeacons).subscribe(testSubscriber);
 
         testSubscriber.assertNoErrors();
-        testSubscriber.assertNoValues();
+        testSubscriber.assertValue(true);
         testSubscriber.assertCompleted();
 
         checkBeaconsSavedSuccessfully(newBeacons);
@@ -90,12 +194,12 @@ public class DatabaseHelperTest {
         List<RegisteredBeacon> existingBeacons = MockModelFabric.newRegisteredBeaconList(10);
         mDatabaseHelper.setRegisteredBeacons(existingBeacons).subscribe();
 
-        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        TestSubscriber<Boolean> testSubscriber = new TestSubscriber<>();
         mDatabaseHelper.setRegisteredBeacons(new ArrayList<RegisteredBeacon>())
                 .subscribe(testSubscriber);
 
         testSubscriber.assertNoErrors();
-        testSubscriber.assertNoValues();
+        testSubscriber.assertValue(true);
         testSubscriber.assertCompleted();
 
         Cursor cursor = mDatabaseHelper.getBriteDb()
@@ -103,6 +207,92 @@ public class DatabaseHelperTest {
         assertEquals(0, cursor.getCount());
     }
 
+    @Test
+    public void setRegisteredBeaconsWithSameDataDoesNotChangeTable() {
+        List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(10);
+        mDatabaseHelper.setRegisteredBeacons(beacons).subscribe();
+
+        TestSubscriber<Boolean> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.setRegisteredBeacons(beacons).subscribe(testSubscriber);
+
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValue(false);
+        testSubscriber.assertCompleted();
+
+        checkBeaconsSavedSuccessfully(beacons);
+    }
+
+    @Test
+    public void setRegisteredBeaconsAppliesDelta() {
+        RegisteredBeacon unchangedBeacon = MockModelFabric.newRegisteredBeacon();
+        RegisteredBeacon updatedBeacon = MockModelFabric.newRegisteredBeacon();
+        RegisteredBeacon deletedBeacon = MockModelFabric.newRegisteredBeacon();
+        mDatabaseHelper.setRegisteredBeacons(
+                Arrays.asList(unchangedBeacon, updatedBeacon, deletedBeacon)).subscribe();
+
+        updatedBeacon.minor = updatedBeacon.minor + 1;
+        RegisteredBeacon insertedBeacon = MockModelFabric.newRegisteredBeacon();
+        TestSubscriber<Boolean> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.setRegisteredBeacons(
+                Arrays.asList(unchangedBeacon, updatedBeacon, insertedBeacon))
+                .subscribe(testSubscriber);
+
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValue(true);
+        testSubscriber.assertCompleted();
+
+        checkBeaconsSavedSuccessfully(
+                Arrays.asList(unchangedBeacon, updatedBeacon, insertedBeacon));
+    }
+
+    @Test
+    public void setRegisteredBeaconsFromJsonStream() {
+        List<RegisteredBeacon> existingBeacons = MockModelFabric.newRegisteredBeaconList(5);
+        mDatabaseHelper.setRegisteredBeacons(existingBeacons).subscribe();
+
+        List<RegisteredBeacon> beacons = new ArrayList<>(existingBeacons.subList(0, 2));
+        beacons.addAll(MockModelFabric.newRegisteredBeaconList(3));
+        RegisteredBeaconJsonIterator iterator =
+                new RegisteredBeaconJsonIterator(new StringReader(new Gson().toJson(beacons)));
+        TestSubscriber<Boolean> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.setRegisteredBeacons(iterator).subscribe(testSubscriber);
+
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValue(true);
+        testSubscriber.assertCompleted();
+
+        checkBeaconsSavedSuccessfully(beacons);
+    }
+
+    @Test
+    public void insertRegisteredBeacons() {
+        List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(10);
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.insertRegisteredBeacons(beacons).subscribe(testSubscriber);
+
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertNoValues();
+        testSubscriber.assertCompleted();
+
+        checkBeaconsSavedSuccessfully(beacons);
+    }
+
+    @Test
+    public void insertRegisteredBeaconsNotifiesOnce() {
+        TestSubscriber<SqlBrite.Query> querySubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getBriteDb()
+                .createQuery(Db.BeaconTable.TABLE_NAME, "SELECT * FROM " +
+                        Db.BeaconTable.TABLE_NAME)
+                .subscribe(querySubscriber);
+
+        mDatabaseHelper.insertRegisteredBeacons(MockModelFabric.newRegisteredBeaconList(50))
+                .subscribe();
+
+        // Initial query plus a single notification for all the inserts
+        querySubscriber.assertValueCount(2);
+        querySubscriber.unsubscribe();
+    }
+
     @Test
     public void findRegisteredBeaconsUuids() {
         RegisteredBeacon beacon1 = MockModelFabric.newRegisteredBeacon();
@@ -120,6 +310,123 @@ public class DatabaseHelperTest {
         testSubscriber.assertCompleted();
     }
 
+    @Test
+    public void setAndGetRibots() {
+        List<Ribot> ribots = MockModelFabric.newRibotList(5);
+        ribots.get(0).latestCheckIn = MockModelFabric.newCheckInWithVenue();
+        ribots.get(1).latestCheckIn = MockModelFabric.newCheckInWithLabel();
+        TestSubscriber<Void> setSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.setRibots(ribots).subscribe(setSubscriber);
+        setSubscriber.assertNoErrors();
+        setSubscriber.assertCompleted();
+
+        TestSubscriber<List<Ribot>> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getRibots().subscribe(testSubscriber);
+
+        Collections.sort(ribots);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValue(ribots);
+        testSubscriber.unsubscribe();
+    }
+
+    @Test
+    public void getRibotsEmitsWhenRibotsChange() {
+        TestSubscriber<List<Ribot>> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getRibots().subscribe(testSubscriber);
+
+        List<Ribot> ribots = MockModelFabric.newRibotList(3);
+        mDatabaseHelper.setRibots(ribots).subscribe();
+
+        Collections.sort(ribots);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertReceivedOnNext(Arrays.asList(new ArrayList<Ribot>(), ribots));
+        testSubscriber.unsubscribe();
+    }
+
+    @Test
+    public void setRibotsAppliesDelta() {
+        List<Ribot> ribots = MockModelFabric.newRibotList(4);
+        ribots.get(0).latestCheckIn = MockModelFabric.newCheckInWithVenue();
+        ribots.get(1).latestCheckIn = MockModelFabric.newCheckInWithLabel();
+        mDatabaseHelper.setRibots(ribots).subscribe();
+
+        TestSubscriber<SqlBrite.Query> querySubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getBriteDb()
+                .createQuery(Arrays.asList(Db.RibotTable.TABLE_NAME, Db.CheckInTable.TABLE_NAME),
+                        Db.RibotTable.SELECT_ALL_WITH_LATEST_CHECK_IN)
+                .subscribe(querySubscriber);
+        mDatabaseHelper.setRibots(ribots).subscribe();
+        // Same ribots so only the initial query
+        querySubscriber.assertValueCount(1);
+
+        // Change one, remove one with a check-in, add one and replace a check-in
+        ribots.get(3).profile.bio = MockModelFabric.randomString();
+        ribots.remove(1);
+        ribots.add(MockModelFabric.newRibot());
+        ribots.get(0).latestCheckIn = MockModelFabric.newCheckInWithLabel();
+        mDatabaseHelper.setRibots(ribots).subscribe();
+        // A single notification for all the changes
+        querySubscriber.assertValueCount(2);
+        querySubscriber.unsubscribe();
+
+        TestSubscriber<List<Ribot>> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getRibots().subscribe(testSubscriber);
+        Collections.sort(ribots);
+        testSubscriber.assertValue(ribots);
+        testSubscriber.unsubscribe();
+
+        Cursor cursor = mDatabaseHelper.getBriteDb()
+                .query("SELECT * FROM " + Db.CheckInTable.TABLE_NAME);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    @Test
+    public void setAndGetVenues() {
+        List<Venue> venues = MockModelFabric.newVenueList(10);
+        TestSubscriber<Boolean> setSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.setVenues(venues).subscribe(setSubscriber);
+        setSubscriber.assertValue(true);
+
+        TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getVenues().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValue(venues);
+        testSubscriber.assertCompleted();
+    }
+
+    @Test
+    public void getVenuesWhenEmpty() {
+        TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getVenues().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertNoValues();
+        testSubscriber.assertCompleted();
+    }
+
+    @Test
+    public void setVenuesAppliesDelta() {
+        List<Venue> venues = MockModelFabric.newVenueList(4);
+        mDatabaseHelper.setVenues(venues).subscribe();
+
+        TestSubscriber<Boolean> sameSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.setVenues(venues).subscribe(sameSubscriber);
+        sameSubscriber.assertValue(false);
+
+        // Change one, remove one, add one and reorder
+        venues.get(0).label = MockModelFabric.randomString();
+        venues.remove(1);
+        venues.add(MockModelFabric.newVenue());
+        Collections.reverse(venues);
+        TestSubscriber<Boolean> deltaSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.setVenues(venues).subscribe(deltaSubscriber);
+        deltaSubscriber.assertValue(true);
+
+        TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
+        mDatabaseHelper.getVenues().subscribe(testSubscriber);
+        testSubscriber.assertValue(venues);
+    }
+
     private void checkBeaconsSavedSuccessfully(List<RegisteredBeacon> expectedBeacons) {
         Cursor cursor = mDatabaseHelper.getBriteDb()
                 .query("SELECT * FROM " + Db.BeaconTable.TABLE_NAME);
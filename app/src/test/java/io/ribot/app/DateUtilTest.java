@@ -2,10 +2,12 @@ package io.ribot.app;
 
 import org.junit.Test;
 
+import java.util.Calendar;
 import java.util.Date;
 
 import io.ribot.app.util.DateUtil;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class DateUtilTest {
@@ -19,4 +21,13 @@ public class DateUtilTest {
     public void isTodayFalse() {
         assertTrue(DateUtil.isToday(new Date().getTime() - 24 * 60 * 60 * 100));
     }
+
+    @Test
+    public void dayKey() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2016, Calendar.MAY, 21, 23, 59);
+        assertEquals(20160521, DateUtil.dayKey(calendar.getTimeInMillis()));
+        calendar.set(2016, Calendar.DECEMBER, 1, 0, 0);
+        assertEquals(20161201, DateUtil.dayKey(calendar.getTimeInMillis()));
+    }
 }
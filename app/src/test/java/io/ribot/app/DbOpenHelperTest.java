@@ -0,0 +1,180 @@
+package io.ribot.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.ribot.app.data.local.Db;
+import io.ribot.app.data.local.DbOpenHelper;
+import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.test.common.MockModelFabric;
+import io.ribot.app.util.DefaultConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = DefaultConfig.EMULATE_SDK)
+public class DbOpenHelperTest {
+
+    // Schema of the first version of the database, before any migration existed.
+    private static final String[] SCHEMA_VERSION_1 = {
+            "CREATE TABLE beacon (id TEXT PRIMARY KEY,uuid TEXT NOT NULL," +
+                    "major INTEGER NOT NULL,minor INTEGER NOT NULL );"
+    };
+
+    final Context mContext = RuntimeEnvironment.application;
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DbOpenHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromEveryPastVersionMatchesFreshSchema() {
+        List<String> freshSchema = readSchema(new DbOpenHelper(mContext).getReadableDatabase());
+        mContext.deleteDatabase(DbOpenHelper.DATABASE_NAME);
+
+        for (int version = 1; version < DbOpenHelper.DATABASE_VERSION; version++) {
+            createDatabaseAtVersion(version);
+
+            List<String> upgradedSchema =
+                    readSchema(new DbOpenHelper(mContext).getReadableDatabase());
+            assertEquals("Upgrade from version " + version, freshSchema, upgradedSchema);
+            mContext.deleteDatabase(DbOpenHelper.DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void upgradeFromEveryPastVersionKeepsBeacons() {
+        for (int version = 1; version < DbOpenHelper.DATABASE_VERSION; version++) {
+            createDatabaseAtVersion(version);
+            RegisteredBeacon beacon = MockModelFabric.newRegisteredBeacon();
+            SQLiteDatabase oldDb =
+                    mContext.openOrCreateDatabase(DbOpenHelper.DATABASE_NAME, 0, null);
+            oldDb.insert(Db.BeaconTable.TABLE_NAME, null, Db.BeaconTable.toContentValues(beacon));
+            oldDb.close();
+
+            SQLiteDatabase db = new DbOpenHelper(mContext).getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT * FROM " + Db.BeaconTable.TABLE_NAME, null);
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            beacon.zone = null;
+            assertEquals(beacon, Db.BeaconTable.parseCursor(cursor));
+            cursor.close();
+            db.close();
+            mContext.deleteDatabase(DbOpenHelper.DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void usesWriteAheadLogging() {
+        SQLiteDatabase db = new DbOpenHelper(mContext).getWritableDatabase();
+        assertEquals("wal", queryPragma(db, "journal_mode"));
+        // Transactions run on the primary connection, the one configured in onConfigure()
+        db.beginTransaction();
+        try {
+            assertEquals(String.valueOf(-DbOpenHelper.PAGE_CACHE_SIZE_KB),
+                    queryPragma(db, "cache_size"));
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    @Test
+    public void deleteDatabaseWaitsForReadLock() throws Exception {
+        final DbOpenHelper dbOpenHelper = new DbOpenHelper(mContext);
+        dbOpenHelper.getWritableDatabase();
+        final CountDownLatch deleted = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dbOpenHelper.deleteDatabase();
+                deleted.countDown();
+            }
+        });
+
+        dbOpenHelper.getReadLock().lock();
+        try {
+            thread.start();
+            assertFalse(deleted.await(200, TimeUnit.MILLISECONDS));
+            assertTrue(mContext.getDatabasePath(DbOpenHelper.DATABASE_NAME).exists());
+        } finally {
+            dbOpenHelper.getReadLock().unlock();
+        }
+        assertTrue(deleted.await(5, TimeUnit.SECONDS));
+        assertFalse(mContext.getDatabasePath(DbOpenHelper.DATABASE_NAME).exists());
+    }
+
+    private static String queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Recreate the database file as it was at the given version and close it.
+    private void createDatabaseAtVersion(int version) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DbOpenHelper.DATABASE_NAME, 0, null);
+        for (String statement : SCHEMA_VERSION_1) {
+            db.execSQL(statement);
+        }
+        // Same as SQLiteOpenHelper, which upgrades within a single transaction
+        db.beginTransaction();
+        try {
+            DbOpenHelper.migrate(db, 1, version);
+            db.setVersion(version);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    // List of tables and indexes with their columns, e.g. "table beacon: id TEXT 1, uuid..."
+    private List<String> readSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT type, name FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata' " +
+                "ORDER BY type, name", null);
+        while (cursor.moveToNext()) {
+            String type = cursor.getString(0);
+            String name = cursor.getString(1);
+            StringBuilder entry = new StringBuilder(type + " " + name + ":");
+            Cursor columns = db.rawQuery("PRAGMA " +
+                    (type.equals("index") ? "index_info" : "table_info") + "(" + name + ")", null);
+            while (columns.moveToNext()) {
+                entry.append(' ').append(columns.getString(columns.getColumnIndex("name")));
+                if (type.equals("table")) {
+                    entry.append(' ')
+                            .append(columns.getString(columns.getColumnIndex("type")))
+                            .append(' ')
+                            .append(columns.getInt(columns.getColumnIndex("notnull")));
+                }
+                entry.append(',');
+            }
+            columns.close();
+            schema.add(entry.toString());
+        }
+        cursor.close();
+        db.close();
+        return schema;
+    }
+}
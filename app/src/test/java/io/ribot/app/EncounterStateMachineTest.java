@@ -0,0 +1,209 @@
+package io.ribot.app;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.ribot.app.util.EncounterStateMachine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EncounterStateMachineTest {
+
+    static final long DWELL_MILLIS = 10000;
+    static final long MIN_INTERVAL_MILLIS = 60000;
+    static final String CHECK_OUT = "check-out";
+
+    List<String> mRequests;
+    boolean mSendRequests;
+    EncounterStateMachine<String> mStateMachine;
+
+    @Before
+    public void setUp() {
+        mRequests = new ArrayList<>();
+        mSendRequests = true;
+        // Confirmed when nearest in 2 of the last 3 cycles
+        mStateMachine = new EncounterStateMachine<>(new EncounterStateMachine.Callback<String>() {
+            @Override
+            public boolean performEncounter(String beacon) {
+                if (mSendRequests) mRequests.add(beacon);
+                return mSendRequests;
+            }
+
+            @Override
+            public boolean performCheckOut() {
+                if (mSendRequests) mRequests.add(CHECK_OUT);
+                return mSendRequests;
+            }
+        }, 2, 3, DWELL_MILLIS, MIN_INTERVAL_MILLIS);
+    }
+
+    @Test
+    public void encountersBeaconOnceConfirmed() {
+        mStateMachine.onNearestBeacon("a", 0);
+        assertTrue(mRequests.isEmpty());
+        mStateMachine.onNearestBeacon("a", DWELL_MILLIS);
+
+        assertEquals(Collections.singletonList("a"), mRequests);
+        assertTrue(mStateMachine.isRequestInFlight());
+    }
+
+    @Test
+    public void ignoresBeaconNearestInFewerThanNOfMCycles() {
+        mStateMachine.onNearestBeacon("a", 0);
+        mStateMachine.onNearestBeacon("b", 20000);
+        mStateMachine.onNearestBeacon("c", 40000);
+        mStateMachine.onNearestBeacon("a", 60000);
+        mStateMachine.onNearestBeacon(null, 80000);
+
+        assertTrue(mRequests.isEmpty());
+    }
+
+    @Test
+    public void outlierDuringDwellTimeDoesNotResetIt() {
+        mStateMachine.onNearestBeacon("a", 0);
+        mStateMachine.onNearestBeacon("b", DWELL_MILLIS / 2);
+        mStateMachine.onNearestBeacon("a", DWELL_MILLIS);
+
+        assertEquals(Collections.singletonList("a"), mRequests);
+    }
+
+    @Test
+    public void outlierDoesNotReplaceCandidate() {
+        mStateMachine.onNearestBeacon("a", 0);
+        mStateMachine.onNearestBeacon("a", DWELL_MILLIS / 2);
+        mStateMachine.onNearestBeacon("b", DWELL_MILLIS - 1);
+        assertTrue(mRequests.isEmpty());
+        mStateMachine.onNearestBeacon("a", DWELL_MILLIS);
+
+        assertEquals(Collections.singletonList("a"), mRequests);
+    }
+
+    @Test
+    public void dwellTimeRestartsWhenMajorityChanges() {
+        mStateMachine.onNearestBeacon("a", 0);
+        mStateMachine.onNearestBeacon("a", 1000);
+        mStateMachine.onNearestBeacon("b", 2000);
+        // b replaces a, counting from its oldest cycle in the window
+        mStateMachine.onNearestBeacon("b", 3000);
+        mStateMachine.onNearestBeacon("b", DWELL_MILLIS);
+        assertTrue(mRequests.isEmpty());
+        mStateMachine.onNearestBeacon("b", DWELL_MILLIS + 2000);
+
+        assertEquals(Collections.singletonList("b"), mRequests);
+    }
+
+    @Test
+    public void waitsForDwellTime() {
+        mStateMachine.onNearestBeacon("a", 0);
+        mStateMachine.onNearestBeacon("a", DWELL_MILLIS - 1);
+        assertTrue(mRequests.isEmpty());
+        mStateMachine.onNearestBeacon("a", DWELL_MILLIS);
+        assertEquals(Collections.singletonList("a"), mRequests);
+    }
+
+    @Test
+    public void doesNotEncounterSameBeaconAgain() {
+        encounter("a", 0);
+        mStateMachine.onNearestBeacon("a", 100000);
+        mStateMachine.onNearestBeacon("a", 200000);
+
+        assertEquals(Collections.singletonList("a"), mRequests);
+    }
+
+    @Test
+    public void waitsForMinIntervalBetweenEncounters() {
+        encounter("a", 0);
+        long start = DWELL_MILLIS;
+        mStateMachine.onNearestBeacon("b", start);
+        mStateMachine.onNearestBeacon("b", start + DWELL_MILLIS);
+        assertEquals(Collections.singletonList("a"), mRequests);
+
+        mStateMachine.onNearestBeacon("b", start + MIN_INTERVAL_MILLIS);
+        assertEquals(Arrays.asList("a", "b"), mRequests);
+    }
+
+    @Test
+    public void queuesLatestEncounterWhileRequestInFlight() {
+        confirm("a", 0);
+        confirm("b", 100000);
+        confirm("c", 200000);
+        // a is never cancelled, c replaced b in the queue
+        assertEquals(Collections.singletonList("a"), mRequests);
+
+        mStateMachine.onEncounterFinished(true, 300000);
+        assertEquals(Arrays.asList("a", "c"), mRequests);
+    }
+
+    @Test
+    public void dropsQueuedEncounterOfBeaconNoLongerNearest() {
+        confirm("a", 0);
+        confirm("b", 100000);
+        mStateMachine.onNearestBeacon("c", 200000);
+        mStateMachine.onNearestBeacon(null, 210000);
+
+        mStateMachine.onEncounterFinished(true, 300000);
+        assertEquals(Collections.singletonList("a"), mRequests);
+        assertFalse(mStateMachine.isRequestInFlight());
+    }
+
+    @Test
+    public void queuedCheckOutIsSentFirstAndDropsQueuedEncounter() {
+        confirm("a", 0);
+        confirm("b", 100000);
+        mStateMachine.onCheckOut();
+        assertEquals(Collections.singletonList("a"), mRequests);
+
+        mStateMachine.onEncounterFinished(true, 200000);
+        assertEquals(Arrays.asList("a", CHECK_OUT), mRequests);
+        mStateMachine.onCheckOutFinished(200000);
+        assertEquals(Arrays.asList("a", CHECK_OUT), mRequests);
+    }
+
+    @Test
+    public void encountersSameBeaconAgainAfterCheckOut() {
+        encounter("a", 0);
+        mStateMachine.onCheckOut();
+        mStateMachine.onCheckOutFinished(DWELL_MILLIS);
+        mStateMachine.onNearestBeacon("a", 100000);
+
+        assertEquals(Arrays.asList("a", CHECK_OUT, "a"), mRequests);
+    }
+
+    @Test
+    public void encounterNotSentIsDecidedAgainNextCycle() {
+        mSendRequests = false;
+        confirm("a", 0);
+        assertFalse(mStateMachine.isRequestInFlight());
+
+        mSendRequests = true;
+        mStateMachine.onNearestBeacon("a", 100000);
+        assertEquals(Collections.singletonList("a"), mRequests);
+    }
+
+    @Test
+    public void failedEncounterIsRetriedNextCycle() {
+        confirm("a", 0);
+        mStateMachine.onEncounterFinished(false, DWELL_MILLIS);
+        mStateMachine.onNearestBeacon("a", 100000);
+
+        assertEquals(Arrays.asList("a", "a"), mRequests);
+    }
+
+    // Makes the beacon the nearest one for two cycles, enough to confirm it.
+    private void confirm(String beacon, long startMillis) {
+        mStateMachine.onNearestBeacon(beacon, startMillis);
+        mStateMachine.onNearestBeacon(beacon, startMillis + DWELL_MILLIS);
+    }
+
+    private void encounter(String beacon, long startMillis) {
+        confirm(beacon, startMillis);
+        mStateMachine.onEncounterFinished(true, startMillis + DWELL_MILLIS);
+    }
+}
@@ -0,0 +1,137 @@
+package io.ribot.app;
+
+import android.text.format.DateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Date;
+import java.util.List;
+
+import io.ribot.app.data.local.DatabaseHelper;
+import io.ribot.app.data.local.Db;
+import io.ribot.app.data.local.DbOpenHelper;
+import io.ribot.app.data.local.HistoryHelper;
+import io.ribot.app.data.model.CheckIn;
+import io.ribot.app.data.model.Encounter;
+import io.ribot.app.data.model.HistoryEntry;
+import io.ribot.app.test.common.MockModelFabric;
+import io.ribot.app.util.DefaultConfig;
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = DefaultConfig.EMULATE_SDK)
+public class HistoryHelperTest {
+
+    final DbOpenHelper mDbOpenHelper = new DbOpenHelper(RuntimeEnvironment.application);
+    final DatabaseHelper mDatabaseHelper = new DatabaseHelper(mDbOpenHelper);
+    final HistoryHelper mHistoryHelper =
+            new HistoryHelper(mDbOpenHelper, mDatabaseHelper, Schedulers.immediate());
+
+    @Before
+    public void setUp() {
+        mDatabaseHelper.clearTables().subscribe();
+    }
+
+    @Test
+    public void recordAndGetHistory() {
+        CheckIn checkIn = MockModelFabric.newCheckInWithLabel();
+        Encounter encounter = MockModelFabric.newEncounter();
+        mHistoryHelper.recordCheckIn(MockModelFabric.randomString(), checkIn);
+        mHistoryHelper.recordEncounter(MockModelFabric.randomString(), encounter);
+
+        List<HistoryEntry> entries = getHistory(new Date(), new Date());
+        assertEquals(2, entries.size());
+        HistoryEntry checkInEntry = entries.get(0);
+        assertEquals(HistoryEntry.Type.CHECK_IN, checkInEntry.type);
+        assertEquals(checkIn.id, checkInEntry.checkInId);
+        assertEquals(checkIn.label, checkInEntry.locationName);
+        assertEquals(1, checkInEntry.count);
+        HistoryEntry encounterEntry = entries.get(1);
+        assertEquals(HistoryEntry.Type.ENCOUNTER, encounterEntry.type);
+        assertEquals(encounter.checkIn.id, encounterEntry.checkInId);
+        assertEquals(encounter.beacon.zone.label, encounterEntry.zoneLabel);
+        assertEquals(encounter.encounterDate, encounterEntry.date);
+    }
+
+    @Test
+    public void recordSameIdempotencyKeyOnlyOnce() {
+        String idempotencyKey = MockModelFabric.randomString();
+        Encounter encounter = MockModelFabric.newEncounter();
+        mHistoryHelper.recordEncounter(idempotencyKey, encounter);
+        mHistoryHelper.recordEncounter(idempotencyKey, encounter);
+        mHistoryHelper.recordEncounter(MockModelFabric.randomString(), encounter);
+
+        assertEquals(2, getHistory(new Date(), new Date()).size());
+    }
+
+    @Test
+    public void getHistoryOnlyReturnsEntriesInRange() {
+        long now = System.currentTimeMillis();
+        insertEncounter(MockModelFabric.newEncounter(), now - 2 * DateUtils.DAY_IN_MILLIS);
+        insertEncounter(MockModelFabric.newEncounter(), now - DateUtils.DAY_IN_MILLIS);
+        insertEncounter(MockModelFabric.newEncounter(), now);
+
+        Date yesterday = new Date(now - DateUtils.DAY_IN_MILLIS);
+        assertEquals(1, getHistory(yesterday, yesterday).size());
+        assertEquals(2, getHistory(yesterday, new Date(now)).size());
+    }
+
+    @Test
+    public void maintenanceCompactsOldEntries() {
+        long now = System.currentTimeMillis();
+        long oldDate = now - (HistoryHelper.COMPACTION_DAYS + 1) * DateUtils.DAY_IN_MILLIS;
+        Encounter encounter = MockModelFabric.newEncounter();
+        insertEncounter(encounter, oldDate);
+        insertEncounter(encounter, oldDate + DateUtils.MINUTE_IN_MILLIS);
+        insertEncounter(encounter, oldDate + 2 * DateUtils.MINUTE_IN_MILLIS);
+
+        recordEncounterTriggeringMaintenance(now);
+
+        List<HistoryEntry> oldEntries = getHistory(new Date(oldDate), new Date(oldDate));
+        assertEquals(1, oldEntries.size());
+        HistoryEntry compacted = oldEntries.get(0);
+        assertEquals(3, compacted.count);
+        assertEquals(oldDate, compacted.date.getTime());
+        assertEquals(oldDate + 2 * DateUtils.MINUTE_IN_MILLIS, compacted.endDate.getTime());
+        assertEquals(1, getHistory(new Date(now), new Date(now)).size());
+    }
+
+    @Test
+    public void maintenanceDeletesExpiredEntries() {
+        long now = System.currentTimeMillis();
+        long expiredDate = now - (HistoryHelper.RETENTION_DAYS + 1) * DateUtils.DAY_IN_MILLIS;
+        insertEncounter(MockModelFabric.newEncounter(), expiredDate);
+
+        recordEncounterTriggeringMaintenance(now);
+
+        assertEquals(1, getHistory(new Date(expiredDate), new Date(now)).size());
+    }
+
+    // The first write of a HistoryHelper runs the maintenance, relative to the current time.
+    private void recordEncounterTriggeringMaintenance(long date) {
+        Encounter encounter = MockModelFabric.newEncounter();
+        encounter.encounterDate = new Date(date);
+        mHistoryHelper.recordEncounter(MockModelFabric.randomString(), encounter);
+    }
+
+    private void insertEncounter(Encounter encounter, long date) {
+        encounter.encounterDate = new Date(date);
+        mDatabaseHelper.getBriteDb().insert(Db.HistoryTable.TABLE_NAME,
+                Db.HistoryTable.toContentValues(encounter));
+    }
+
+    private List<HistoryEntry> getHistory(Date fromDay, Date toDay) {
+        TestSubscriber<List<HistoryEntry>> testSubscriber = new TestSubscriber<>();
+        mHistoryHelper.getHistory(fromDay, toDay).first().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        return testSubscriber.getOnNextEvents().get(0);
+    }
+}
@@ -0,0 +1,115 @@
+package io.ribot.app;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.ribot.app.data.model.Iso8601DateAdapter;
+import io.ribot.app.util.Benchmark;
+import io.ribot.app.util.BenchmarkReporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the throughput of reading and writing dates with Iso8601DateAdapter against the
+ * SimpleDateFormat based adapter Gson creates for setDateFormat(), which dates used to go
+ * through. Both run on one thread and on several at once, where the shared SimpleDateFormat is
+ * contended. Iso8601DateAdapter must be at least as fast in both cases.
+ */
+@Category(Benchmark.class)
+public class Iso8601DateAdapterBenchmarkTest {
+
+    private static final int DATES = 200000;
+    private static final int THREADS = 4;
+
+    final BenchmarkReporter mReporter = new BenchmarkReporter(getClass());
+
+    @Test
+    public void throughput() throws Exception {
+        TypeAdapter<Date> simpleDateFormatAdapter = new GsonBuilder()
+                .setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+                .create()
+                .getAdapter(Date.class);
+        TypeAdapter<Date> isoAdapter = new GsonBuilder()
+                .registerTypeAdapter(Date.class, new Iso8601DateAdapter())
+                .create()
+                .getAdapter(Date.class);
+        List<String> simpleDateFormatJson = toJson(simpleDateFormatAdapter);
+        List<String> isoJson = toJson(isoAdapter);
+
+        // Warm up
+        readAndWrite(simpleDateFormatAdapter, simpleDateFormatJson);
+        readAndWrite(isoAdapter, isoJson);
+
+        long simpleDateFormatRate = measure(simpleDateFormatAdapter, simpleDateFormatJson, 1);
+        long simpleDateFormatThreadsRate =
+                measure(simpleDateFormatAdapter, simpleDateFormatJson, THREADS);
+        long isoRate = measure(isoAdapter, isoJson, 1);
+        long isoThreadsRate = measure(isoAdapter, isoJson, THREADS);
+
+        mReporter.report("SimpleDateFormat: %d dates/s, %d dates/s on %d threads",
+                simpleDateFormatRate, simpleDateFormatThreadsRate, THREADS);
+        mReporter.report("Iso8601DateAdapter: %d dates/s, %d dates/s on %d threads",
+                isoRate, isoThreadsRate, THREADS);
+        assertTrue("Iso8601DateAdapter slower than SimpleDateFormat",
+                isoRate >= simpleDateFormatRate);
+        assertTrue("Iso8601DateAdapter slower than SimpleDateFormat on " + THREADS + " threads",
+                isoThreadsRate >= simpleDateFormatThreadsRate);
+    }
+
+    // Returns the dates read and written per second, in total across all threads.
+    private static long measure(final TypeAdapter<Date> adapter, final List<String> json,
+                                int threads) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        readAndWrite(adapter, json);
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - startNanos;
+        // Failures on the other threads would otherwise go unnoticed
+        if (error.get() != null) throw new AssertionError(error.get());
+        return (long) threads * json.size() * 1000000000L / nanos;
+    }
+
+    private static void readAndWrite(TypeAdapter<Date> adapter, List<String> json)
+            throws IOException {
+        for (String date : json) {
+            assertEquals(date, adapter.toJson(adapter.fromJson(date)));
+        }
+    }
+
+    private static List<String> toJson(TypeAdapter<Date> adapter) {
+        List<String> json = new ArrayList<>(DATES);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < DATES; i++) {
+            json.add(adapter.toJson(new Date(now - i * 60000L)));
+        }
+        return json;
+    }
+}
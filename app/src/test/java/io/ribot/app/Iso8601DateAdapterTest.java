@@ -0,0 +1,113 @@
+package io.ribot.app;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import io.ribot.app.data.model.Iso8601DateAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class Iso8601DateAdapterTest {
+
+    final SimpleDateFormat mUtcFormat = newUtcFormat();
+
+    @Test
+    public void formatsAndParsesLikeSimpleDateFormat() {
+        Random random = new Random(42);
+        // From 1970 to 2100
+        for (int i = 0; i < 10000; i++) {
+            long time = (long) (random.nextDouble() * 4102444800000L);
+            String formatted = Iso8601DateAdapter.format(time);
+            assertEquals(mUtcFormat.format(new Date(time)), formatted);
+            assertEquals(time, Iso8601DateAdapter.parse(formatted));
+        }
+    }
+
+    @Test
+    public void formatsBeforeEpoch() throws ParseException {
+        long time = mUtcFormat.parse("1969-12-31T23:59:59.999Z").getTime();
+        assertEquals("1969-12-31T23:59:59.999Z", Iso8601DateAdapter.format(time));
+    }
+
+    @Test
+    public void parsesOffsets() throws ParseException {
+        long time = mUtcFormat.parse("2016-05-21T09:30:00.000Z").getTime();
+        assertEquals(time, Iso8601DateAdapter.parse("2016-05-21T10:30:00.000+01:00"));
+        assertEquals(time, Iso8601DateAdapter.parse("2016-05-21T10:30:00+0100"));
+        assertEquals(time, Iso8601DateAdapter.parse("2016-05-21T10:30:00+01"));
+        assertEquals(time, Iso8601DateAdapter.parse("2016-05-21T08:00:00-01:30"));
+        // No offset is read as UTC
+        assertEquals(time, Iso8601DateAdapter.parse("2016-05-21T09:30:00"));
+    }
+
+    @Test
+    public void parsesFractions() throws ParseException {
+        long time = mUtcFormat.parse("2016-05-21T09:30:00.120Z").getTime();
+        assertEquals(time, Iso8601DateAdapter.parse("2016-05-21T09:30:00.12Z"));
+        assertEquals(time, Iso8601DateAdapter.parse("2016-05-21T09:30:00.120999Z"));
+    }
+
+    @Test
+    public void rejectsInvalidDates() {
+        String[] invalidDates = {"", "2016-05-21", "2016-02-30T00:00:00Z",
+                "2016-05-21T24:00:00Z", "2016-05-21 09:30:00Z", "2016-05-21T09:30:00.Z",
+                "2016-05-21T09:30:00+1", "2016-05-21T09:30:00ZZ", "2016-0a-21T09:30:00Z"};
+        for (String date : invalidDates) {
+            try {
+                Iso8601DateAdapter.parse(date);
+                fail("Parsed invalid date " + date);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void readsAndWritesJson() {
+        Gson gson = new GsonBuilder()
+                .registerTypeAdapter(Date.class, new Iso8601DateAdapter())
+                .create();
+        Date date = new Date(1463823000123L);
+        assertEquals("\"2016-05-21T09:30:00.123Z\"", gson.toJson(date));
+        assertEquals(date, gson.fromJson("\"2016-05-21T09:30:00.123Z\"", Date.class));
+        assertNull(gson.fromJson("null", Date.class));
+    }
+
+    @Test
+    public void readsFallbackPattern() {
+        String legacyPattern = "yyyy-MM-dd'T'HH:mm:ss.SSSz";
+        Gson gson = new GsonBuilder()
+                .registerTypeAdapter(Date.class, new Iso8601DateAdapter(legacyPattern))
+                .create();
+        Date date = new Date(1463823000123L);
+        String legacyDate = new SimpleDateFormat(legacyPattern, Locale.US).format(date);
+
+        assertEquals(date, gson.fromJson("\"" + legacyDate + "\"", Date.class));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void readInvalidDateThrows() {
+        new GsonBuilder()
+                .registerTypeAdapter(Date.class, new Iso8601DateAdapter())
+                .create()
+                .fromJson("\"21/05/2016\"", Date.class);
+    }
+
+    private static SimpleDateFormat newUtcFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+}
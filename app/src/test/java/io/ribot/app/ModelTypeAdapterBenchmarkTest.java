@@ -0,0 +1,112 @@
+package io.ribot.app;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import io.ribot.app.data.model.ModelTypeAdapterFactory;
+import io.ribot.app.data.model.Ribot;
+import io.ribot.app.util.Benchmark;
+import io.ribot.app.util.BenchmarkReporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares parsing a team of 500 ribots with the streaming adapters of ModelTypeAdapterFactory
+ * against reflective binding, both the first parse with a new Gson instance and the steady state.
+ * The streaming adapters must be at least as fast as reflection and, on JVMs that report
+ * allocations per thread, allocate no more.
+ */
+@Category(Benchmark.class)
+public class ModelTypeAdapterBenchmarkTest {
+
+    private static final int TEAM_SIZE = 500;
+    private static final int WARM_UP_PARSES = 20;
+    private static final int PARSES = 50;
+
+    final BenchmarkReporter mReporter = new BenchmarkReporter(getClass());
+
+    @Test
+    public void parseTeam() {
+        String json = newGson(false).toJson(ModelTypeAdapterFactoryTest.newTeam(TEAM_SIZE),
+                ModelTypeAdapterFactoryTest.RIBOT_LIST_TYPE);
+
+        // First use includes building the adapters, which is where reflection is slowest
+        long reflectiveFirstParseNanos = measureFirstParse(newGson(false), json);
+        long streamingFirstParseNanos = measureFirstParse(newGson(true), json);
+        Result reflective = measureParses(newGson(false), json);
+        Result streaming = measureParses(newGson(true), json);
+
+        mReporter.report("Team of %d ribots, %d KB of JSON", TEAM_SIZE, json.length() / 1024);
+        mReporter.report("First parse: reflective %d us, streaming %d us",
+                reflectiveFirstParseNanos / 1000, streamingFirstParseNanos / 1000);
+        mReporter.report("Reflective: %s", reflective);
+        mReporter.report("Streaming: %s", streaming);
+        assertTrue("Streaming slower than reflection",
+                streaming.nanosPerParse <= reflective.nanosPerParse);
+        assertTrue("Streaming allocates more than reflection",
+                streaming.bytesPerParse <= reflective.bytesPerParse);
+    }
+
+    private static Gson newGson(boolean streaming) {
+        GsonBuilder builder = new GsonBuilder()
+                .setDateFormat(ModelTypeAdapterFactoryTest.DATE_FORMAT);
+        if (streaming) builder.registerTypeAdapterFactory(new ModelTypeAdapterFactory());
+        return builder.create();
+    }
+
+    private static long measureFirstParse(Gson gson, String json) {
+        long start = System.nanoTime();
+        parse(gson, json);
+        return System.nanoTime() - start;
+    }
+
+    private static Result measureParses(Gson gson, String json) {
+        for (int i = 0; i < WARM_UP_PARSES; i++) {
+            parse(gson, json);
+        }
+        long startBytes = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < PARSES; i++) {
+            parse(gson, json);
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = getAllocatedBytes() - startBytes;
+        return new Result(nanos / PARSES, startBytes < 0 ? -1 : bytes / PARSES);
+    }
+
+    private static void parse(Gson gson, String json) {
+        List<Ribot> team = gson.fromJson(json, ModelTypeAdapterFactoryTest.RIBOT_LIST_TYPE);
+        assertEquals(TEAM_SIZE, team.size());
+    }
+
+    // Bytes allocated by the current thread so far, or -1 if the JVM doesn't report them.
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class Result {
+        final long nanosPerParse;
+        final long bytesPerParse;
+
+        Result(long nanosPerParse, long bytesPerParse) {
+            this.nanosPerParse = nanosPerParse;
+            this.bytesPerParse = bytesPerParse;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d us and %s per parse", nanosPerParse / 1000,
+                    bytesPerParse < 0 ? "unknown allocations" : bytesPerParse / 1024 + " KB");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.ribot.app;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+import io.ribot.app.data.model.CheckIn;
+import io.ribot.app.data.model.Encounter;
+import io.ribot.app.data.model.ModelTypeAdapterFactory;
+import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.data.model.Ribot;
+import io.ribot.app.test.common.MockModelFabric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ModelTypeAdapterFactoryTest {
+
+    static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+    static final Type RIBOT_LIST_TYPE = new TypeToken<List<Ribot>>() { }.getType();
+
+    final Gson mReflectiveGson = new GsonBuilder()
+            .setDateFormat(DATE_FORMAT)
+            .create();
+    final Gson mGson = new GsonBuilder()
+            .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+            .setDateFormat(DATE_FORMAT)
+            .create();
+
+    @Test
+    public void writesSameJsonAsReflection() {
+        List<Ribot> team = newTeam(20);
+        assertEquals(mReflectiveGson.toJson(team, RIBOT_LIST_TYPE),
+                mGson.toJson(team, RIBOT_LIST_TYPE));
+    }
+
+    @Test
+    public void readsJsonWrittenByReflection() {
+        List<Ribot> team = newTeam(20);
+        String json = mReflectiveGson.toJson(team, RIBOT_LIST_TYPE);
+        assertEquals(team, mGson.fromJson(json, RIBOT_LIST_TYPE));
+    }
+
+    @Test
+    public void skipsUnknownFieldsAndReadsNulls() {
+        String json = "{\"id\":\"1\",\"unknown\":{\"a\":[1,2]},\"label\":null," +
+                "\"isCheckedOut\":null,\"venue\":{\"id\":\"2\",\"latitude\":\"51.5\"}}";
+        CheckIn checkIn = mGson.fromJson(json, CheckIn.class);
+
+        assertEquals("1", checkIn.id);
+        assertNull(checkIn.label);
+        assertFalse(checkIn.isCheckedOut);
+        assertEquals("2", checkIn.venue.id);
+        assertEquals(51.5f, checkIn.venue.latitude, 0);
+    }
+
+    @Test
+    public void writesAndReadsEncounter() {
+        Encounter encounter = MockModelFabric.newEncounter();
+        encounter.beacon.zone.venue = MockModelFabric.newVenue();
+        assertEquals(encounter, mGson.fromJson(mGson.toJson(encounter), Encounter.class));
+    }
+
+    @Test
+    public void writesSameBeaconJsonAsReflection() {
+        List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(5);
+        assertEquals(mReflectiveGson.toJson(beacons), mGson.toJson(beacons));
+    }
+
+    // Ribots with every kind of nested model, as returned by GET /ribots?embed=latestCheckIn
+    static List<Ribot> newTeam(int size) {
+        List<Ribot> team = MockModelFabric.newRibotList(size);
+        for (int i = 0; i < team.size(); i++) {
+            if (i % 3 == 0) continue;
+            CheckIn checkIn = i % 2 == 0 ? MockModelFabric.newCheckInWithVenue()
+                    : MockModelFabric.newCheckInWithLabel();
+            if (i % 4 == 0) checkIn.latestBeaconEncounter = MockModelFabric.newEncounter();
+            team.get(i).latestCheckIn = checkIn;
+        }
+        return team;
+    }
+}
@@ -0,0 +1,194 @@
+package io.ribot.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import io.ribot.app.data.remote.NetworkMetrics;
+import io.ribot.app.data.remote.NetworkMetricsInterceptor;
+import okhttp3.Cache;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.BufferedSink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NetworkMetricsTest {
+
+    @Rule public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    final MockWebServer mServer = new MockWebServer();
+    final NetworkMetrics mNetworkMetrics = new NetworkMetrics();
+    OkHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer.start();
+        NetworkMetricsInterceptor interceptor = new NetworkMetricsInterceptor(mNetworkMetrics);
+        mClient = new OkHttpClient.Builder()
+                .cache(new Cache(mTemporaryFolder.getRoot(), 1024 * 1024))
+                .addInterceptor(interceptor)
+                .addNetworkInterceptor(interceptor.getNetworkInterceptor())
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void recordsCall() throws IOException {
+        mServer.enqueue(new MockResponse().setBody("hello"));
+
+        Request request = new Request.Builder()
+                .url(mServer.url("/beacons/5f3a/encounters"))
+                .post(RequestBody.create(MediaType.parse("text/plain"), "abc"))
+                .build();
+        assertEquals("hello", mClient.newCall(request).execute().body().string());
+
+        NetworkMetrics.EndpointSnapshot snapshot = getOnlySnapshot();
+        assertEquals("POST /beacons/{id}/encounters", snapshot.endpoint);
+        assertEquals(1, snapshot.calls);
+        assertEquals(0, snapshot.failures);
+        assertEquals(0, snapshot.followUps);
+        assertEquals(3, snapshot.requestBytes);
+        assertEquals(5, snapshot.responseBytes);
+        assertEquals(Collections.singletonMap(200, 1L), snapshot.statusCodes);
+        assertEquals(1, snapshot.timeToNetwork.count);
+        assertEquals(1, snapshot.timeToFirstByte.count);
+        assertEquals(1, snapshot.total.count);
+    }
+
+    @Test
+    public void recordsCacheHit() throws IOException {
+        mServer.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "max-age=60")
+                .setBody("venues"));
+
+        get("/venues").body().string();
+        get("/venues").body().string();
+
+        NetworkMetrics.EndpointSnapshot snapshot = getOnlySnapshot();
+        assertEquals(2, snapshot.calls);
+        assertEquals(1, snapshot.cacheHits);
+        assertEquals(6, snapshot.responseBytes);
+        assertEquals(Collections.singletonMap(200, 2L), snapshot.statusCodes);
+        assertEquals(1, snapshot.timeToFirstByte.count);
+        assertEquals(2, snapshot.total.count);
+    }
+
+    @Test
+    public void recordsFailure() throws IOException {
+        mServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        mClient = mClient.newBuilder().retryOnConnectionFailure(false).build();
+        try {
+            get("/ribots");
+            fail("The server disconnects, the call should fail");
+        } catch (IOException e) {
+            NetworkMetrics.EndpointSnapshot snapshot = getOnlySnapshot();
+            assertEquals(1, snapshot.calls);
+            assertEquals(1, snapshot.failures);
+            assertEquals(1, snapshot.total.count);
+        }
+    }
+
+    @Test
+    public void recordsServerErrorAsFailure() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        get("/ribots").body().close();
+
+        NetworkMetrics.EndpointSnapshot snapshot = getOnlySnapshot();
+        assertEquals(1, snapshot.failures);
+        assertEquals(Collections.singletonMap(503, 1L), snapshot.statusCodes);
+    }
+
+    @Test
+    public void recordsBytesOfStreamedRequest() throws IOException {
+        mServer.enqueue(new MockResponse());
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.parse("text/plain");
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.writeUtf8("streamed");
+            }
+        };
+        Request request = new Request.Builder()
+                .url(mServer.url("/beacons/5f3a/encounters"))
+                .post(body)
+                .build();
+        mClient.newCall(request).execute().body().close();
+
+        assertEquals(8, getOnlySnapshot().requestBytes);
+    }
+
+    @Test
+    public void keepsRequestTag() throws IOException {
+        mServer.enqueue(new MockResponse());
+        Object tag = new Object();
+        Request request = new Request.Builder().url(mServer.url("/ribots")).tag(tag).build();
+        Response response = mClient.newCall(request).execute();
+        response.body().close();
+
+        assertSame(tag, response.request().tag());
+        assertEquals(1, getOnlySnapshot().timeToNetwork.count);
+    }
+
+    @Test
+    public void recordsRedirectAsFollowUp() throws IOException {
+        mServer.enqueue(new MockResponse()
+                .setResponseCode(302)
+                .setHeader("Location", mServer.url("/ribots")));
+        mServer.enqueue(new MockResponse().setBody("ribots"));
+
+        assertEquals("ribots", get("/ribots").body().string());
+
+        NetworkMetrics.EndpointSnapshot snapshot = getOnlySnapshot();
+        assertEquals(1, snapshot.calls);
+        assertEquals(1, snapshot.followUps);
+        assertEquals(1, snapshot.timeToNetwork.count);
+        assertEquals(2, snapshot.timeToFirstByte.count);
+    }
+
+    @Test
+    public void dumpHasOneLinePerEndpoint() throws IOException {
+        mServer.enqueue(new MockResponse());
+        mServer.enqueue(new MockResponse());
+        get("/ribots").body().close();
+        get("/venues").body().close();
+
+        String[] lines = mNetworkMetrics.dump().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("GET /ribots: calls=1"));
+        assertTrue(lines[1].startsWith("GET /venues: calls=1"));
+    }
+
+    private Response get(String path) throws IOException {
+        return mClient.newCall(new Request.Builder().url(mServer.url(path)).build()).execute();
+    }
+
+    private NetworkMetrics.EndpointSnapshot getOnlySnapshot() {
+        List<NetworkMetrics.EndpointSnapshot> snapshots = mNetworkMetrics.getSnapshot();
+        assertEquals(1, snapshots.size());
+        return snapshots.get(0);
+    }
+}
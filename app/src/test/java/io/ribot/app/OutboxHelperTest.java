@@ -0,0 +1,72 @@
+package io.ribot.app;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.ribot.app.data.local.DatabaseHelper;
+import io.ribot.app.data.local.DbOpenHelper;
+import io.ribot.app.data.local.OutboxHelper;
+import io.ribot.app.data.model.CheckInRequest;
+import io.ribot.app.data.model.OutboxEntry;
+import io.ribot.app.test.common.MockModelFabric;
+import io.ribot.app.util.DefaultConfig;
+import rx.observers.TestSubscriber;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = DefaultConfig.EMULATE_SDK)
+public class OutboxHelperTest {
+
+    final DatabaseHelper mDatabaseHelper =
+            new DatabaseHelper(new DbOpenHelper(RuntimeEnvironment.application));
+    final OutboxHelper mOutboxHelper = new OutboxHelper(mDatabaseHelper);
+
+    @Before
+    public void setUp() {
+        mDatabaseHelper.clearTables().subscribe();
+    }
+
+    @Test
+    public void addAndGetOldestEntries() {
+        OutboxEntry checkIn = OutboxEntry.forCheckIn(
+                CheckInRequest.fromLabel(MockModelFabric.randomString(), 51.5f, -0.1f));
+        OutboxEntry checkOut = OutboxEntry.forCheckOut(MockModelFabric.randomString());
+        OutboxEntry encounter = OutboxEntry.forEncounter(MockModelFabric.randomString());
+        mOutboxHelper.add(checkIn).subscribe();
+        mOutboxHelper.add(checkOut).subscribe();
+        mOutboxHelper.add(encounter).subscribe();
+
+        assertEquals(Arrays.asList(checkIn, checkOut), getOldestEntries(2));
+        assertEquals(Arrays.asList(checkIn, checkOut, encounter), getOldestEntries(10));
+    }
+
+    @Test
+    public void removeEntries() {
+        OutboxEntry first = OutboxEntry.forEncounter(MockModelFabric.randomString());
+        OutboxEntry second = OutboxEntry.forEncounter(MockModelFabric.randomString());
+        OutboxEntry third = OutboxEntry.forEncounter(MockModelFabric.randomString());
+        mOutboxHelper.add(first).subscribe();
+        mOutboxHelper.add(second).subscribe();
+        mOutboxHelper.add(third).subscribe();
+
+        mOutboxHelper.removeEntries(Arrays.asList(first.id, third.id));
+
+        assertEquals(Arrays.asList(second), getOldestEntries(10));
+    }
+
+    private List<OutboxEntry> getOldestEntries(int maxEntries) {
+        TestSubscriber<List<OutboxEntry>> testSubscriber = new TestSubscriber<>();
+        mOutboxHelper.getOldestEntries(maxEntries).subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertCompleted();
+        return testSubscriber.getOnNextEvents().get(0);
+    }
+}
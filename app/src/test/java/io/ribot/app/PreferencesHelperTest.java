@@ -8,13 +8,11 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import java.util.Collections;
-import java.util.List;
 
 import io.ribot.app.data.local.PreferencesHelper;
 import io.ribot.app.data.model.CheckIn;
 import io.ribot.app.data.model.Encounter;
 import io.ribot.app.data.model.Ribot;
-import io.ribot.app.data.model.Venue;
 import io.ribot.app.test.common.MockModelFabric;
 import io.ribot.app.util.DefaultConfig;
 import rx.observers.TestSubscriber;
@@ -48,31 +46,6 @@ public class PreferencesHelperTest {
         assertEquals(ribot, mPreferencesHelper.getSignedInRibot());
     }
 
-    @Test
-    public void putAndGetVenues() {
-        List<Venue> venues = MockModelFabric.newVenueList(10);
-        mPreferencesHelper.putVenues(venues);
-        assertEquals(venues, mPreferencesHelper.getVenues());
-    }
-
-    @Test
-    public void getVenuesAsObservable() {
-        List<Venue> venues = MockModelFabric.newVenueList(10);
-        mPreferencesHelper.putVenues(venues);
-        TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
-        mPreferencesHelper.getVenuesAsObservable().subscribe(testSubscriber);
-        testSubscriber.assertCompleted();
-        testSubscriber.assertReceivedOnNext(Collections.singletonList(venues));
-    }
-
-    @Test
-    public void getVenuesAsObservableWhenEmpty() {
-        TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
-        mPreferencesHelper.getVenuesAsObservable().subscribe(testSubscriber);
-        testSubscriber.assertCompleted();
-        testSubscriber.assertNoValues();
-    }
-
     @Test
     public void putAndGetLatestCheckIn() {
         CheckIn checkIn = MockModelFabric.newCheckInWithVenue();
@@ -0,0 +1,100 @@
+package io.ribot.app;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.ribot.app.util.RegionReconciler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RegionReconcilerTest {
+
+    static final String UUID_1 = "b9407f30-f5f8-466e-aff9-25556b57fe6d";
+    static final String UUID_2 = "e2c56db5-dffb-48d2-b060-d0f5a71096e0";
+    static final String UUID_3 = "f7826da6-4fa2-4e98-8024-bc5b71e0893e";
+
+    List<String> mStarted;
+    List<String> mStopped;
+    RegionReconciler.Callback mCallback;
+
+    @Before
+    public void setUp() {
+        mStarted = new ArrayList<>();
+        mStopped = new ArrayList<>();
+        mCallback = new RegionReconciler.Callback() {
+            @Override
+            public void startMonitoring(String uuid) {
+                mStarted.add(uuid);
+            }
+
+            @Override
+            public void stopMonitoring(String uuid) {
+                mStopped.add(uuid);
+            }
+        };
+    }
+
+    @Test
+    public void startsMonitoringNewUuidsOnlyOnce() {
+        RegionReconciler reconciler = new RegionReconciler(mCallback);
+        reconciler.reconcile(Arrays.asList(UUID_1, UUID_2));
+        reconciler.reconcile(Arrays.asList(UUID_1, UUID_2, UUID_3));
+
+        assertEquals(Arrays.asList(UUID_1, UUID_2, UUID_3), mStarted);
+        assertTrue(mStopped.isEmpty());
+    }
+
+    @Test
+    public void stopsMonitoringRemovedUuids() {
+        RegionReconciler reconciler = new RegionReconciler(mCallback);
+        reconciler.reconcile(Arrays.asList(UUID_1, UUID_2));
+        reconciler.reconcile(Collections.singletonList(UUID_2));
+
+        assertEquals(Collections.singletonList(UUID_1), mStopped);
+        assertEquals(Collections.singleton(UUID_2), reconciler.getMonitoredUuids());
+    }
+
+    @Test
+    public void comparesUuidsIgnoringCase() {
+        RegionReconciler reconciler = new RegionReconciler(mCallback);
+        reconciler.reconcile(Collections.singletonList(UUID_1.toUpperCase()));
+        reconciler.reconcile(Collections.singletonList(UUID_1));
+
+        assertEquals(Collections.singletonList(UUID_1), mStarted);
+        assertTrue(mStopped.isEmpty());
+    }
+
+    @Test
+    public void keepsMostRecentlyUsedRegionsWhenOverTheLimit() {
+        RegionReconciler reconciler = new RegionReconciler(mCallback, 2);
+        reconciler.onRegionUsed(UUID_3, 1000);
+        reconciler.onRegionUsed(UUID_2, 2000);
+        reconciler.reconcile(Arrays.asList(UUID_1, UUID_2, UUID_3));
+
+        assertEquals(Arrays.asList(UUID_2, UUID_3), mStarted);
+
+        reconciler.onRegionUsed(UUID_1, 3000);
+        reconciler.reconcile(Arrays.asList(UUID_1, UUID_2, UUID_3));
+
+        assertEquals(Collections.singletonList(UUID_3), mStopped);
+        assertEquals(Arrays.asList(UUID_2, UUID_3, UUID_1), mStarted);
+    }
+
+    @Test
+    public void forgetsUseOfRemovedUuids() {
+        RegionReconciler reconciler = new RegionReconciler(mCallback, 1);
+        reconciler.onRegionUsed(UUID_2, 1000);
+        reconciler.reconcile(Collections.singletonList(UUID_1));
+        reconciler.reconcile(Arrays.asList(UUID_1, UUID_2));
+
+        // UUID_2 was used before it was removed, so it doesn't replace UUID_1
+        assertEquals(Collections.singletonList(UUID_1), mStarted);
+        assertTrue(mStopped.isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+package io.ribot.app;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import io.ribot.app.data.local.RegisteredBeaconIndex;
+import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.test.common.MockModelFabric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RegisteredBeaconIndexTest {
+
+    @Test
+    public void findBeacons() {
+        List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(500);
+        RegisteredBeaconIndex index = new RegisteredBeaconIndex(beacons);
+
+        assertEquals(beacons.size(), index.size());
+        for (RegisteredBeacon beacon : beacons) {
+            assertSame(beacon, index.find(beacon.uuid, beacon.major, beacon.minor));
+        }
+    }
+
+    @Test
+    public void findBeaconWithUuidBits() {
+        RegisteredBeacon beacon = MockModelFabric.newRegisteredBeacon();
+        RegisteredBeaconIndex index = new RegisteredBeaconIndex(Arrays.asList(beacon));
+        UUID uuid = UUID.fromString(beacon.uuid);
+
+        assertSame(beacon, index.find(uuid.getMostSignificantBits(),
+                uuid.getLeastSignificantBits(), beacon.major, beacon.minor));
+    }
+
+    @Test
+    public void findBeaconIgnoresUuidCase() {
+        RegisteredBeacon beacon = MockModelFabric.newRegisteredBeacon();
+        RegisteredBeaconIndex index = new RegisteredBeaconIndex(Arrays.asList(beacon));
+
+        assertSame(beacon, index.find(beacon.uuid.toUpperCase(), beacon.major, beacon.minor));
+    }
+
+    @Test
+    public void findBeaconWithDifferentMajorOrMinor() {
+        RegisteredBeacon beacon = MockModelFabric.newRegisteredBeacon();
+        RegisteredBeaconIndex index = new RegisteredBeaconIndex(Arrays.asList(beacon));
+
+        assertNull(index.find(beacon.uuid, beacon.major + 1, beacon.minor));
+        assertNull(index.find(beacon.uuid, beacon.major, beacon.minor + 1));
+        assertNull(index.find(beacon.uuid, beacon.minor, beacon.major));
+    }
+
+    @Test
+    public void findBeaconWithInvalidUuid() {
+        RegisteredBeacon beacon = MockModelFabric.newRegisteredBeacon();
+        RegisteredBeaconIndex index = new RegisteredBeaconIndex(Arrays.asList(beacon));
+
+        assertNull(index.find("not-a-uuid", beacon.major, beacon.minor));
+    }
+
+    @Test
+    public void findBeaconInEmptyIndex() {
+        RegisteredBeacon beacon = MockModelFabric.newRegisteredBeacon();
+        assertNull(RegisteredBeaconIndex.EMPTY.find(beacon.uuid, beacon.major, beacon.minor));
+    }
+}
@@ -0,0 +1,77 @@
+package io.ribot.app;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.ribot.app.data.model.RegisteredBeacon;
+import io.ribot.app.data.remote.RegisteredBeaconJsonIterator;
+import io.ribot.app.test.common.MockModelFabric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RegisteredBeaconJsonIteratorTest {
+
+    @Test
+    public void readsBeaconsSkippingZone() {
+        List<RegisteredBeacon> beacons = MockModelFabric.newRegisteredBeaconList(3);
+        RegisteredBeaconJsonIterator iterator =
+                new RegisteredBeaconJsonIterator(new StringReader(new Gson().toJson(beacons)));
+
+        List<RegisteredBeacon> readBeacons = new ArrayList<>();
+        while (iterator.hasNext()) {
+            RegisteredBeacon beacon = iterator.next();
+            assertNull(beacon.zone);
+            readBeacons.add(new RegisteredBeacon(beacon.id, beacon.uuid,
+                    beacon.major, beacon.minor));
+        }
+
+        assertEquals(beacons.size(), readBeacons.size());
+        for (int i = 0; i < beacons.size(); i++) {
+            RegisteredBeacon expected = beacons.get(i);
+            RegisteredBeacon actual = readBeacons.get(i);
+            assertEquals(expected.id, actual.id);
+            assertEquals(expected.uuid, actual.uuid);
+            assertEquals(expected.major, actual.major);
+            assertEquals(expected.minor, actual.minor);
+        }
+    }
+
+    @Test
+    public void emptyArray() {
+        RegisteredBeaconJsonIterator iterator =
+                new RegisteredBeaconJsonIterator(new StringReader("[]"));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test(expected = JsonIOException.class)
+    public void truncatedJsonThrows() {
+        String json = new Gson().toJson(MockModelFabric.newRegisteredBeaconList(2));
+        // Ends after a complete value, as when the connection is lost
+        RegisteredBeaconJsonIterator iterator = new RegisteredBeaconJsonIterator(
+                new StringReader(json.substring(0, json.indexOf('}') + 1)));
+        while (iterator.hasNext()) iterator.next();
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void malformedJsonThrows() {
+        RegisteredBeaconJsonIterator iterator =
+                new RegisteredBeaconJsonIterator(new StringReader("[{\"id\" \"1\"}]"));
+        while (iterator.hasNext()) iterator.next();
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void contentAfterArrayThrows() {
+        RegisteredBeaconJsonIterator iterator =
+                new RegisteredBeaconJsonIterator(new StringReader("[] []"));
+        while (iterator.hasNext()) iterator.next();
+    }
+}
@@ -0,0 +1,209 @@
+package io.ribot.app;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ribot.app.data.remote.RetryPolicy;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+import retrofit2.adapter.rxjava.HttpException;
+import rx.Observable;
+import rx.functions.Func0;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+
+public class RetryPolicyTest {
+
+    TestScheduler mScheduler;
+    AtomicInteger mAttempts;
+
+    @Before
+    public void setUp() {
+        mScheduler = new TestScheduler();
+        mAttempts = new AtomicInteger();
+    }
+
+    @Test
+    public void retriesWithExponentialBackoff() {
+        RetryPolicy retryPolicy = newRetryPolicyBuilder().build();
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        failingRequest(new IOException(), 2)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(testSubscriber);
+        assertEquals(1, mAttempts.get());
+
+        mScheduler.advanceTimeBy(999, TimeUnit.MILLISECONDS);
+        assertEquals(1, mAttempts.get());
+        mScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(2, mAttempts.get());
+
+        // The second retry waits twice as long
+        mScheduler.advanceTimeBy(1999, TimeUnit.MILLISECONDS);
+        assertEquals(2, mAttempts.get());
+        mScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(3, mAttempts.get());
+        testSubscriber.assertCompleted();
+        testSubscriber.assertValue("response");
+    }
+
+    @Test
+    public void delayIsCappedAndReducedByJitter() {
+        RetryPolicy retryPolicy = newRetryPolicyBuilder()
+                .maxRetries(5)
+                .delay(1, 2, TimeUnit.SECONDS)
+                .jitter(0.5)
+                .random(new Random() {
+                    @Override
+                    public double nextDouble() {
+                        return 1;
+                    }
+                })
+                .build();
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        failingRequest(new IOException(), 3)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(testSubscriber);
+
+        // Half of 1s, 2s and 2s instead of 4s
+        mScheduler.advanceTimeBy(500 + 1000 + 999, TimeUnit.MILLISECONDS);
+        assertEquals(3, mAttempts.get());
+        mScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(4, mAttempts.get());
+        testSubscriber.assertCompleted();
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        RetryPolicy retryPolicy = newRetryPolicyBuilder().build();
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        failingRequest(newHttpException(404), 1)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(testSubscriber);
+        mScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        assertEquals(1, mAttempts.get());
+        testSubscriber.assertError(HttpException.class);
+    }
+
+    @Test
+    public void doesNotRetryUnexpectedErrors() {
+        RetryPolicy retryPolicy = newRetryPolicyBuilder().build();
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        failingRequest(new IllegalStateException(), 1)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(testSubscriber);
+        mScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        assertEquals(1, mAttempts.get());
+        testSubscriber.assertError(IllegalStateException.class);
+    }
+
+    @Test
+    public void doesNotRetryMalformedJson() {
+        RetryPolicy retryPolicy = newRetryPolicyBuilder().build();
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        failingRequest(new MalformedJsonException("Unterminated object"), 1)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(testSubscriber);
+        mScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        assertEquals(1, mAttempts.get());
+        testSubscriber.assertError(MalformedJsonException.class);
+    }
+
+    @Test
+    public void retriesServerErrors() {
+        RetryPolicy retryPolicy = newRetryPolicyBuilder().build();
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        failingRequest(newHttpException(503), 1)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(testSubscriber);
+        mScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        assertEquals(2, mAttempts.get());
+        testSubscriber.assertCompleted();
+    }
+
+    @Test
+    public void stopsAfterMaxRetries() {
+        RetryPolicy retryPolicy = newRetryPolicyBuilder().maxRetries(2).build();
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        failingRequest(new IOException(), Integer.MAX_VALUE)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(testSubscriber);
+        mScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        assertEquals(3, mAttempts.get());
+        testSubscriber.assertError(IOException.class);
+    }
+
+    @Test
+    public void budgetIsSharedBetweenRequestsAndRefilledBySuccesses() {
+        RetryPolicy retryPolicy = newRetryPolicyBuilder()
+                .maxRetries(10)
+                .budget(3, 0.5)
+                .build();
+        TestSubscriber<String> failingSubscriber = new TestSubscriber<>();
+        failingRequest(new IOException(), Integer.MAX_VALUE)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(failingSubscriber);
+        mScheduler.advanceTimeBy(1, TimeUnit.HOURS);
+        // The budget allows 3 retries even though maxRetries is 10
+        assertEquals(4, mAttempts.get());
+        failingSubscriber.assertError(IOException.class);
+
+        // With an empty budget other requests fail without retrying
+        mAttempts.set(0);
+        TestSubscriber<String> secondSubscriber = new TestSubscriber<>();
+        failingRequest(new IOException(), 1)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(secondSubscriber);
+        assertEquals(1, mAttempts.get());
+        secondSubscriber.assertError(IOException.class);
+
+        // Two successful requests add one retry back
+        for (int i = 0; i < 2; i++) {
+            Observable.just("response")
+                    .compose(retryPolicy.<String>forRequest())
+                    .subscribe(new TestSubscriber<String>());
+        }
+        mAttempts.set(0);
+        TestSubscriber<String> thirdSubscriber = new TestSubscriber<>();
+        failingRequest(new IOException(), 1)
+                .compose(retryPolicy.<String>forRequest())
+                .subscribe(thirdSubscriber);
+        mScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        assertEquals(2, mAttempts.get());
+        thirdSubscriber.assertCompleted();
+    }
+
+    private RetryPolicy.Builder newRetryPolicyBuilder() {
+        return new RetryPolicy.Builder().scheduler(mScheduler).jitter(0);
+    }
+
+    // Fails with the error the given number of times and then emits a response.
+    private Observable<String> failingRequest(final Throwable error, final int failures) {
+        return Observable.defer(new Func0<Observable<String>>() {
+            @Override
+            public Observable<String> call() {
+                if (mAttempts.incrementAndGet() <= failures) return Observable.error(error);
+                return Observable.just("response");
+            }
+        });
+    }
+
+    private static HttpException newHttpException(int code) {
+        return new HttpException(Response.error(code,
+                ResponseBody.create(MediaType.parse("application/json"), "")));
+    }
+}
@@ -0,0 +1,165 @@
+package io.ribot.app;
+
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.ribot.app.data.local.PreferencesHelper;
+import io.ribot.app.data.local.SessionHelper;
+import io.ribot.app.data.model.Venue;
+import io.ribot.app.data.remote.NetworkMetrics;
+import io.ribot.app.data.remote.RibotService;
+import io.ribot.app.test.common.MockModelFabric;
+import io.ribot.app.util.DefaultConfig;
+import okhttp3.Cache;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.adapter.rxjava.HttpException;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = DefaultConfig.EMULATE_SDK)
+public class RibotServiceCacheTest {
+
+    private static final String ETAG = "\"venues-v1\"";
+
+    @Rule public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    final MockWebServer mServer = new MockWebServer();
+    // Bytes of response bodies received from the network
+    final AtomicLong mBytesReceived = new AtomicLong();
+    final PreferencesHelper mPreferencesHelper =
+            new PreferencesHelper(RuntimeEnvironment.application);
+    final SessionHelper mSessionHelper = new SessionHelper(mPreferencesHelper);
+    RibotService mRibotService;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer.start();
+        Cache cache = new Cache(mTemporaryFolder.getRoot(), RibotService.Factory.HTTP_CACHE_SIZE);
+        OkHttpClient client = RibotService.Factory
+                .makeOkHttpClientBuilder(RuntimeEnvironment.application, cache, mSessionHelper,
+                        mPreferencesHelper, new NetworkMetrics())
+                .addNetworkInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        Response response = chain.proceed(chain.request());
+                        mBytesReceived.addAndGet(Math.max(0, response.body().contentLength()));
+                        return response;
+                    }
+                })
+                .build();
+        mRibotService = RibotService.Factory.makeRibotService(client, mServer.url("/"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void getVenuesWhenNotModified() throws InterruptedException {
+        List<Venue> venues = MockModelFabric.newVenueList(10);
+        mServer.enqueue(new MockResponse()
+                .setHeader("ETag", ETAG)
+                .setHeader("Cache-Control", "no-cache")
+                .setBody(new Gson().toJson(venues)));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+
+        TestSubscriber<List<Venue>> firstSubscriber = new TestSubscriber<>();
+        mRibotService.getVenues().subscribe(firstSubscriber);
+        firstSubscriber.assertNoErrors();
+        assertEquals(venues.size(), firstSubscriber.getOnNextEvents().get(0).size());
+        RecordedRequest firstRequest = mServer.takeRequest();
+        assertNull(firstRequest.getHeader(RibotService.NOT_MODIFIED_HEADER));
+        assertTrue(mBytesReceived.get() > 0);
+        mPreferencesHelper.markValidatorSaved(RibotService.RESOURCE_VENUES);
+
+        mBytesReceived.set(0);
+        TestSubscriber<List<Venue>> secondSubscriber = new TestSubscriber<>();
+        mRibotService.getVenues().subscribe(secondSubscriber);
+        secondSubscriber.assertNoValues();
+        secondSubscriber.assertError(HttpException.class);
+        HttpException error = (HttpException) secondSubscriber.getOnErrorEvents().get(0);
+        assertEquals(304, error.code());
+        RecordedRequest secondRequest = mServer.takeRequest();
+        assertEquals(ETAG, secondRequest.getHeader("If-None-Match"));
+        assertEquals(0, mBytesReceived.get());
+    }
+
+    @Test
+    public void getVenuesWhenModified() throws InterruptedException {
+        mServer.enqueue(new MockResponse()
+                .setHeader("ETag", ETAG)
+                .setHeader("Cache-Control", "no-cache")
+                .setBody(new Gson().toJson(MockModelFabric.newVenueList(10))));
+        List<Venue> newVenues = MockModelFabric.newVenueList(4);
+        mServer.enqueue(new MockResponse()
+                .setHeader("ETag", "\"venues-v2\"")
+                .setBody(new Gson().toJson(newVenues)));
+
+        mRibotService.getVenues().subscribe(new TestSubscriber<List<Venue>>());
+        TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
+        mRibotService.getVenues().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        assertEquals(newVenues.size(), testSubscriber.getOnNextEvents().get(0).size());
+    }
+
+    @Test
+    public void getVenuesWhenNotModifiedButNotSaved() throws InterruptedException {
+        List<Venue> venues = MockModelFabric.newVenueList(10);
+        mServer.enqueue(new MockResponse()
+                .setHeader("ETag", ETAG)
+                .setHeader("Cache-Control", "no-cache")
+                .setBody(new Gson().toJson(venues)));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+
+        // The venues are never marked as saved, e.g. saving them failed
+        mRibotService.getVenues().subscribe(new TestSubscriber<List<Venue>>());
+        TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
+        mRibotService.getVenues().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+        assertEquals(venues.size(), testSubscriber.getOnNextEvents().get(0).size());
+        mServer.takeRequest();
+        assertEquals(ETAG, mServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void getVenuesWhenFreshInCache() {
+        List<Venue> venues = MockModelFabric.newVenueList(10);
+        mServer.enqueue(new MockResponse()
+                .setHeader("ETag", ETAG)
+                .setHeader("Cache-Control", "max-age=60")
+                .setBody(new Gson().toJson(venues)));
+
+        mRibotService.getVenues().subscribe(new TestSubscriber<List<Venue>>());
+        mPreferencesHelper.markValidatorSaved(RibotService.RESOURCE_VENUES);
+        TestSubscriber<List<Venue>> testSubscriber = new TestSubscriber<>();
+        mRibotService.getVenues().subscribe(testSubscriber);
+
+        // Not revalidated by the server, so it's not reported as not modified
+        testSubscriber.assertNoErrors();
+        assertEquals(venues.size(), testSubscriber.getOnNextEvents().get(0).size());
+        assertEquals(1, mServer.getRequestCount());
+    }
+}
@@ -0,0 +1,117 @@
+package io.ribot.app;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import io.ribot.app.util.ScanScheduler;
+import io.ribot.app.util.ScanScheduler.AdaptivePolicy;
+import io.ribot.app.util.ScanScheduler.ScanPeriods;
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScanSchedulerTest {
+
+    // Monday 23 May 2016, 10:00 UTC
+    static final long MONDAY_MORNING = 1463997600000L;
+    // Saturday 21 May 2016, 10:00 UTC
+    static final long SATURDAY_MORNING = 1463824800000L;
+
+    TestScheduler mClock;
+
+    @Before
+    public void setUp() {
+        mClock = new TestScheduler();
+    }
+
+    @Test
+    public void scansOftenAfterActivityAndLessWhenSettled() {
+        ScanScheduler scanScheduler = newScanScheduler(MONDAY_MORNING);
+        ScanPeriods active = scanScheduler.getScanPeriods();
+
+        mClock.advanceTimeBy(AdaptivePolicy.ACTIVE_MILLIS, TimeUnit.MILLISECONDS);
+        ScanPeriods idle = scanScheduler.getScanPeriods();
+        mClock.advanceTimeBy(AdaptivePolicy.SETTLED_MILLIS, TimeUnit.MILLISECONDS);
+        ScanPeriods settled = scanScheduler.getScanPeriods();
+
+        assertTrue(active.foregroundWaitMillis < idle.foregroundWaitMillis);
+        assertTrue(idle.foregroundWaitMillis < settled.foregroundWaitMillis);
+        assertTrue(active.backgroundWaitMillis < idle.backgroundWaitMillis);
+        assertTrue(idle.backgroundWaitMillis < settled.backgroundWaitMillis);
+
+        scanScheduler.onActivity();
+        assertEquals(active, scanScheduler.getScanPeriods());
+    }
+
+    @Test
+    public void backsOffOutsideOfficeHours() {
+        ScanScheduler weekday = newScanScheduler(MONDAY_MORNING);
+        mClock.advanceTimeBy(AdaptivePolicy.ACTIVE_MILLIS, TimeUnit.MILLISECONDS);
+        ScanPeriods officeHours = weekday.getScanPeriods();
+
+        mClock = new TestScheduler();
+        ScanScheduler weekend = newScanScheduler(SATURDAY_MORNING);
+        mClock.advanceTimeBy(AdaptivePolicy.ACTIVE_MILLIS, TimeUnit.MILLISECONDS);
+        ScanPeriods outsideOfficeHours = weekend.getScanPeriods();
+
+        assertEquals(officeHours.withWaitMultipliedBy(
+                AdaptivePolicy.OUTSIDE_OFFICE_HOURS_WAIT_MULTIPLIER), outsideOfficeHours);
+    }
+
+    @Test
+    public void backsOffAtNightUnlessThereIsActivity() {
+        ScanScheduler scanScheduler = newScanScheduler(MONDAY_MORNING);
+        ScanPeriods active = scanScheduler.getScanPeriods();
+        // 21:00
+        mClock.advanceTimeBy(11, TimeUnit.HOURS);
+        ScanPeriods night = scanScheduler.getScanPeriods();
+        scanScheduler.onActivity();
+
+        assertTrue(night.foregroundWaitMillis > active.foregroundWaitMillis);
+        assertEquals(active, scanScheduler.getScanPeriods());
+    }
+
+    @Test
+    public void backsOffWhenBatteryIsLow() {
+        ScanScheduler scanScheduler = newScanScheduler(MONDAY_MORNING);
+        ScanPeriods batteryOk = scanScheduler.getScanPeriods();
+        scanScheduler.setBatteryLow(true);
+
+        assertEquals(batteryOk.withWaitMultipliedBy(AdaptivePolicy.BATTERY_LOW_WAIT_MULTIPLIER),
+                scanScheduler.getScanPeriods());
+        scanScheduler.setBatteryLow(false);
+        assertEquals(batteryOk, scanScheduler.getScanPeriods());
+    }
+
+    @Test
+    public void passesStateToPolicy() {
+        final ScanPeriods periods = new ScanPeriods(1, 2, 3, 4);
+        final long[] millisSinceActivity = new long[1];
+        final int[] hourOfDay = new int[1];
+        mClock.advanceTimeTo(MONDAY_MORNING, TimeUnit.MILLISECONDS);
+        ScanScheduler scanScheduler = new ScanScheduler(new ScanScheduler.Policy() {
+            @Override
+            public ScanPeriods getScanPeriods(Calendar now, long millis, boolean batteryLow) {
+                millisSinceActivity[0] = millis;
+                hourOfDay[0] = now.get(Calendar.HOUR_OF_DAY);
+                return periods;
+            }
+        }, mClock, TimeZone.getTimeZone("Europe/London"));
+        mClock.advanceTimeBy(90, TimeUnit.SECONDS);
+
+        assertEquals(periods, scanScheduler.getScanPeriods());
+        assertEquals(90000, millisSinceActivity[0]);
+        // British Summer Time
+        assertEquals(11, hourOfDay[0]);
+    }
+
+    private ScanScheduler newScanScheduler(long startMillis) {
+        mClock.advanceTimeTo(startMillis, TimeUnit.MILLISECONDS);
+        return new ScanScheduler(new AdaptivePolicy(), mClock, TimeZone.getTimeZone("UTC"));
+    }
+}
@@ -0,0 +1,91 @@
+package io.ribot.app;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import io.ribot.app.data.local.PreferencesHelper;
+import io.ribot.app.data.local.SessionHelper;
+import io.ribot.app.data.remote.AuthorizationInterceptor;
+import io.ribot.app.data.remote.RibotService;
+import io.ribot.app.util.DefaultConfig;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = DefaultConfig.EMULATE_SDK)
+public class SessionHelperTest {
+
+    final PreferencesHelper mPreferencesHelper =
+            new PreferencesHelper(RuntimeEnvironment.application);
+
+    @Before
+    public void setUp() {
+        mPreferencesHelper.clear();
+    }
+
+    @Test
+    public void loadsSavedSession() {
+        mPreferencesHelper.putAccessToken("token");
+        SessionHelper sessionHelper = new SessionHelper(mPreferencesHelper);
+
+        assertTrue(sessionHelper.isActive());
+        assertEquals("Bearer token", sessionHelper.getAuthorization());
+    }
+
+    @Test
+    public void startAndEnd() {
+        SessionHelper sessionHelper = new SessionHelper(mPreferencesHelper);
+        assertFalse(sessionHelper.isActive());
+
+        sessionHelper.start("token");
+        assertEquals("Bearer token", sessionHelper.getAuthorization());
+        assertEquals("token", mPreferencesHelper.getAccessToken());
+
+        sessionHelper.end();
+        assertFalse(sessionHelper.isActive());
+        assertNull(sessionHelper.getAuthorization());
+    }
+
+    @Test
+    public void interceptorAddsAuthorizationOfCurrentSession() throws Exception {
+        SessionHelper sessionHelper = new SessionHelper(mPreferencesHelper);
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            OkHttpClient client = new OkHttpClient.Builder()
+                    .addInterceptor(new AuthorizationInterceptor(sessionHelper))
+                    .build();
+
+            execute(client, server);
+            assertNull(server.takeRequest().getHeader(RibotService.AUTH_HEADER));
+
+            sessionHelper.start("token");
+            execute(client, server);
+            assertEquals("Bearer token",
+                    server.takeRequest().getHeader(RibotService.AUTH_HEADER));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static void execute(OkHttpClient client, MockWebServer server) throws IOException {
+        server.enqueue(new MockResponse());
+        client.newCall(new Request.Builder().url(server.url("/")).build())
+                .execute()
+                .body()
+                .close();
+    }
+}
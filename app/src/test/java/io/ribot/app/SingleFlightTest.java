@@ -0,0 +1,104 @@
+package io.ribot.app;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ribot.app.util.SingleFlight;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Func0;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    final SingleFlight mSingleFlight = new SingleFlight();
+    final AtomicInteger mStarts = new AtomicInteger();
+
+    @Test
+    public void concurrentSubscribersShareTheSameSource() {
+        PublishSubject<String> source = PublishSubject.create();
+        Observable<String> observable = mSingleFlight.share("key", countingFactory(source));
+
+        TestSubscriber<String> first = new TestSubscriber<>();
+        TestSubscriber<String> second = new TestSubscriber<>();
+        observable.subscribe(first);
+        source.onNext("a");
+        observable.subscribe(second);
+        source.onNext("b");
+        source.onCompleted();
+
+        assertEquals(1, mStarts.get());
+        first.assertValues("a", "b");
+        first.assertCompleted();
+        // The late subscriber also receives the items emitted before it joined
+        second.assertValues("a", "b");
+        second.assertCompleted();
+    }
+
+    @Test
+    public void differentKeysDontShare() {
+        PublishSubject<String> source = PublishSubject.create();
+        mSingleFlight.share("key", countingFactory(source)).subscribe();
+        mSingleFlight.share("otherKey", countingFactory(source)).subscribe();
+
+        assertEquals(2, mStarts.get());
+    }
+
+    @Test
+    public void startsAgainAfterTerminating() {
+        Observable<String> observable =
+                mSingleFlight.share("key", countingFactory(Observable.just("a")));
+
+        observable.subscribe(new TestSubscriber<String>());
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        observable.subscribe(testSubscriber);
+
+        assertEquals(2, mStarts.get());
+        testSubscriber.assertValue("a");
+    }
+
+    @Test
+    public void startsAgainAfterError() {
+        Observable<String> observable = mSingleFlight.share("key",
+                countingFactory(Observable.<String>error(new RuntimeException())));
+
+        observable.subscribe(new TestSubscriber<String>());
+        TestSubscriber<String> testSubscriber = new TestSubscriber<>();
+        observable.subscribe(testSubscriber);
+
+        assertEquals(2, mStarts.get());
+        testSubscriber.assertError(RuntimeException.class);
+    }
+
+    @Test
+    public void unsubscribesSourceWhenLastSubscriberLeaves() {
+        PublishSubject<String> source = PublishSubject.create();
+        Observable<String> observable = mSingleFlight.share("key", countingFactory(source));
+
+        Subscription first = observable.subscribe();
+        Subscription second = observable.subscribe();
+        first.unsubscribe();
+        assertTrue(source.hasObservers());
+        second.unsubscribe();
+        assertFalse(source.hasObservers());
+
+        observable.subscribe();
+        assertEquals(2, mStarts.get());
+    }
+
+    private Func0<Observable<String>> countingFactory(final Observable<String> source) {
+        return new Func0<Observable<String>>() {
+            @Override
+            public Observable<String> call() {
+                mStarts.incrementAndGet();
+                return source;
+            }
+        };
+    }
+}
@@ -49,6 +49,7 @@ public class TeamPresenterTest {
     public void loadRibotsSuccessful() {
         List<Ribot> ribots = MockModelFabric.newRibotList(20);
         stubDataManagerGetRibots(Observable.just(ribots));
+        stubDataManagerSyncRibots(Observable.empty());
 
         mPresenter.loadRibots();
         verify(mMockMvpView).showRibotProgress(true);
@@ -58,7 +59,8 @@ public class TeamPresenterTest {
 
     @Test
     public void loadRibotsFail() {
-        stubDataManagerGetRibots(Observable.error(new RuntimeException()));
+        stubDataManagerGetRibots(Observable.just(new ArrayList<Ribot>()));
+        stubDataManagerSyncRibots(Observable.error(new RuntimeException()));
 
         mPresenter.loadRibots();
         verify(mMockMvpView).showRibotProgress(true);
@@ -67,10 +69,34 @@ public class TeamPresenterTest {
         verify(mMockMvpView).showRibotsError();
     }
 
+    @Test
+    public void loadRibotsFailShowsSavedRibots() {
+        List<Ribot> savedRibots = MockModelFabric.newRibotList(5);
+        stubDataManagerGetRibots(Observable.just(savedRibots));
+        stubDataManagerSyncRibots(Observable.error(new RuntimeException()));
+
+        mPresenter.loadRibots();
+        verify(mMockMvpView).showRibots(savedRibots);
+        verify(mMockMvpView).showRibotsError();
+        verify(mMockMvpView, never()).showEmptyMessage();
+    }
+
+    @Test
+    public void loadSavedRibotsFail() {
+        stubDataManagerGetRibots(Observable.error(new RuntimeException()));
+        stubDataManagerSyncRibots(Observable.never());
+
+        mPresenter.loadRibots();
+        verify(mMockMvpView, never()).showRibots(anyListOf(Ribot.class));
+        verify(mMockMvpView).showRibotProgress(false);
+        verify(mMockMvpView).showRibotsError();
+    }
+
     @Test
     public void loadRibotsEmpty() {
         List<Ribot> emptyList = new ArrayList<>();
         stubDataManagerGetRibots(Observable.just(emptyList));
+        stubDataManagerSyncRibots(Observable.empty());
 
         mPresenter.loadRibots();
         verify(mMockMvpView).showRibotProgress(true);
@@ -78,10 +104,28 @@ public class TeamPresenterTest {
         verify(mMockMvpView).showEmptyMessage();
     }
 
+    @Test
+    public void loadRibotsUpdatesWhenSavedRibotsChange() {
+        List<Ribot> savedRibots = MockModelFabric.newRibotList(3);
+        List<Ribot> syncedRibots = MockModelFabric.newRibotList(4);
+        stubDataManagerGetRibots(Observable.just(savedRibots, syncedRibots));
+        stubDataManagerSyncRibots(Observable.empty());
+
+        mPresenter.loadRibots();
+        verify(mMockMvpView).showRibots(savedRibots);
+        verify(mMockMvpView).showRibots(syncedRibots);
+    }
+
     private void stubDataManagerGetRibots(Observable observable) {
         doReturn(observable)
                 .when(mMockDataManager)
                 .getRibots();
     }
 
+    private void stubDataManagerSyncRibots(Observable observable) {
+        doReturn(observable)
+                .when(mMockDataManager)
+                .syncRibots();
+    }
+
 }
@@ -0,0 +1,9 @@
+package io.ribot.app.util;
+
+/**
+ * JUnit category of the benchmark tests. They are excluded from the unit test tasks unless the
+ * benchmark property is set, e.g. ./gradlew testDebugUnitTest -Pbenchmark
+ * Results are written with BenchmarkReporter.
+ */
+public interface Benchmark {
+}
@@ -0,0 +1,44 @@
+package io.ribot.app.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Appends the results of a benchmark to build/reports/benchmarks/[test class].txt so they can
+ * be compared between runs instead of being lost in the test output.
+ */
+public class BenchmarkReporter {
+
+    private static final File REPORTS_DIR = new File("build/reports/benchmarks");
+
+    private final File mFile;
+
+    public BenchmarkReporter(Class<?> testClass) {
+        mFile = new File(REPORTS_DIR, testClass.getSimpleName() + ".txt");
+    }
+
+    public void report(String format, Object... args) {
+        if (!REPORTS_DIR.isDirectory() && !REPORTS_DIR.mkdirs()) {
+            throw new IllegalStateException("Can't create " + REPORTS_DIR);
+        }
+        Writer writer = null;
+        try {
+            writer = new FileWriter(mFile, true);
+            writer.write(String.format(Locale.US, format, args));
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write " + mFile, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // The result has been written or the write already failed
+                }
+            }
+        }
+    }
+}